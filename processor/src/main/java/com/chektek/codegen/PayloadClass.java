@@ -0,0 +1,23 @@
+package com.chektek.codegen;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Generates a {@code <Class>Fields} class next to the annotated class, with
+ * equality, hashing, a field-level diff and a JSON writer for the fields Gson
+ * would serialize: every field, including inherited ones, that is neither static
+ * nor transient.
+ * <p>
+ * The generated class reads each field through its getter, {@code getName()} or
+ * {@code isName()}, which must be visible in the annotated class's package.
+ * Supported types are {@code int}, {@code long}, {@code boolean}, their
+ * boxed forms, {@code String}, enums, {@code int[]}, Gson's {@code JsonElement},
+ * and other {@link PayloadClass} types on their own, in arrays or in lists.
+ */
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.TYPE)
+public @interface PayloadClass {
+}
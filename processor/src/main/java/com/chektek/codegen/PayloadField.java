@@ -0,0 +1,21 @@
+package com.chektek.codegen;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Options for a field of a {@link PayloadClass}. Fields without it are state
+ * fields.
+ */
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.FIELD)
+public @interface PayloadField {
+
+	/**
+	 * False for fields that are written but are not part of the state, such as a
+	 * sequence number. They are ignored by equality, hashing and diffs.
+	 */
+	boolean state() default true;
+}
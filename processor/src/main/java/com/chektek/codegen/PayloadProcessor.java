@@ -0,0 +1,741 @@
+package com.chektek.codegen;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+
+/**
+ * Generates a {@code <Class>Fields} class for each {@link PayloadClass}:
+ * <ul>
+ * <li>{@code equals} and {@code hashCode} over the state fields, hashing like
+ * {@code Objects.hash}</li>
+ * <li>{@code diff}, a bitmask of the state fields that differ</li>
+ * <li>{@code write}, which writes the same JSON as Gson with the project's
+ * {@code Utf8JsonWriter}</li>
+ * <li>{@code writeState}, the state fields alone, and {@code writePatch}, a JSON
+ * merge patch of the fields a {@code diff} reported, patching arrays of
+ * unchanged length by index</li>
+ * </ul>
+ * Fields are read through their getters, so they can stay private.
+ * <p>
+ * For an abstract payload class, the generated class instead dispatches
+ * {@code write}, {@code writeState}, {@code writePatch}, {@code equals},
+ * {@code hashCode} and {@code diff} on the exact class of its argument to the
+ * generated code of its annotated subclasses.
+ */
+@SupportedAnnotationTypes("com.chektek.codegen.PayloadClass")
+public class PayloadProcessor extends AbstractProcessor {
+
+	private static final String WRITER = "com.chektek.codec.Utf8JsonWriter";
+	private static final String JSON_ELEMENT = "com.google.gson.JsonElement";
+	private static final String RAW_JSON = "com.chektek.codec.RawJson";
+	private static final int MAX_STATE_FIELDS = 64;
+
+	private enum Kind {
+		INT, LONG, BOOLEAN, BOXED, STRING, ENUM, INT_ARRAY, JSON, RAW_JSON, STRUCT, STRUCT_ARRAY, STRUCT_LIST
+	}
+
+	private static final class Field {
+		String name;
+		String getter;
+		boolean state;
+		Kind kind;
+		/** The element type of a struct, array of structs or list of structs. */
+		TypeElement struct;
+	}
+
+	@Override
+	public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+
+	@Override
+	public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+		List<TypeElement> classes = new ArrayList<>(
+				ElementFilter.typesIn(roundEnv.getElementsAnnotatedWith(PayloadClass.class)));
+		if (classes.isEmpty()) {
+			return false;
+		}
+		classes.sort(Comparator.comparing(type -> type.getQualifiedName().toString()));
+
+		for (TypeElement type : classes) {
+			if (type.getKind() != ElementKind.CLASS || type.getNestingKind() != NestingKind.TOP_LEVEL) {
+				error(type, "@PayloadClass must be a top-level class");
+				continue;
+			}
+			if (type.getModifiers().contains(Modifier.ABSTRACT)) {
+				generateDispatch(type, classes);
+				continue;
+			}
+			List<Field> fields = fields(type);
+			if (fields != null) {
+				generate(type, fields);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * The fields Gson serializes, the class's own first and then those of each
+	 * superclass, or null if any has no getter the generated class can call or is
+	 * of an unsupported type.
+	 */
+	private List<Field> fields(TypeElement type) {
+		List<Field> fields = new ArrayList<>();
+		boolean valid = true;
+		int stateFields = 0;
+		for (TypeElement owner = type; owner != null; owner = superclass(owner)) {
+			for (VariableElement element : ElementFilter.fieldsIn(owner.getEnclosedElements())) {
+				Set<Modifier> modifiers = element.getModifiers();
+				if (modifiers.contains(Modifier.STATIC) || modifiers.contains(Modifier.TRANSIENT)) {
+					continue;
+				}
+				PayloadField annotation = element.getAnnotation(PayloadField.class);
+				Field field = new Field();
+				field.name = element.getSimpleName().toString();
+				field.getter = getter(owner, element, packageOf(owner).equals(packageOf(type)));
+				field.state = annotation == null || annotation.state();
+				if (field.getter == null) {
+					error(element, "Field of a @PayloadClass needs a getter visible to %sFields", type.getSimpleName());
+					valid = false;
+					continue;
+				}
+				if (!classify(field, element.asType())) {
+					error(element, "Unsupported payload field type %s", element.asType());
+					valid = false;
+					continue;
+				}
+				if (field.state && ++stateFields > MAX_STATE_FIELDS) {
+					error(element, "A @PayloadClass has at most %d state fields", MAX_STATE_FIELDS);
+					valid = false;
+				}
+				fields.add(field);
+			}
+		}
+		return valid ? fields : null;
+	}
+
+	/**
+	 * The name of the field's getter: {@code getName()}, {@code isName()}, or
+	 * {@code isName()} itself for a field called {@code isName}. Null if there is
+	 * none that returns the field's type and that code in the annotated class's
+	 * package can call.
+	 */
+	private String getter(TypeElement owner, VariableElement field, boolean samePackage) {
+		String name = field.getSimpleName().toString();
+		String capitalized = Character.toUpperCase(name.charAt(0)) + name.substring(1);
+		List<String> candidates = List.of("get" + capitalized, "is" + capitalized, name);
+		for (ExecutableElement method : ElementFilter.methodsIn(owner.getEnclosedElements())) {
+			Set<Modifier> modifiers = method.getModifiers();
+			if (!candidates.contains(method.getSimpleName().toString()) || !method.getParameters().isEmpty()
+					|| modifiers.contains(Modifier.STATIC) || modifiers.contains(Modifier.PRIVATE)
+					|| !modifiers.contains(Modifier.PUBLIC) && !samePackage
+					|| !processingEnv.getTypeUtils().isSameType(method.getReturnType(), field.asType())) {
+				continue;
+			}
+			return method.getSimpleName().toString();
+		}
+		return null;
+	}
+
+	private boolean classify(Field field, TypeMirror type) {
+		switch (type.getKind()) {
+			case INT:
+				field.kind = Kind.INT;
+				return true;
+			case LONG:
+				field.kind = Kind.LONG;
+				return true;
+			case BOOLEAN:
+				field.kind = Kind.BOOLEAN;
+				return true;
+			case ARRAY:
+				TypeMirror component = ((ArrayType) type).getComponentType();
+				if (component.getKind() == TypeKind.INT) {
+					field.kind = Kind.INT_ARRAY;
+					return true;
+				}
+				field.struct = struct(component);
+				field.kind = Kind.STRUCT_ARRAY;
+				return field.struct != null;
+			case DECLARED:
+				break;
+			default:
+				return false;
+		}
+
+		TypeElement element = (TypeElement) ((DeclaredType) type).asElement();
+		String name = element.getQualifiedName().toString();
+		if (name.equals("java.lang.Integer") || name.equals("java.lang.Long") || name.equals("java.lang.Boolean")) {
+			field.kind = Kind.BOXED;
+		} else if (name.equals("java.lang.String")) {
+			field.kind = Kind.STRING;
+		} else if (element.getKind() == ElementKind.ENUM) {
+			field.kind = Kind.ENUM;
+		} else if (name.equals(RAW_JSON)) {
+			field.kind = Kind.RAW_JSON;
+		} else if (isJsonElement(type)) {
+			field.kind = Kind.JSON;
+		} else if (name.equals("java.util.List")) {
+			List<? extends TypeMirror> arguments = ((DeclaredType) type).getTypeArguments();
+			field.struct = arguments.size() == 1 ? struct(arguments.get(0)) : null;
+			field.kind = Kind.STRUCT_LIST;
+		} else {
+			field.struct = struct(type);
+			field.kind = Kind.STRUCT;
+		}
+		return field.kind != Kind.STRUCT && field.kind != Kind.STRUCT_ARRAY && field.kind != Kind.STRUCT_LIST
+				|| field.struct != null;
+	}
+
+	/**
+	 * The class of a nested {@link PayloadClass} value, or null if the type is not
+	 * one.
+	 */
+	private TypeElement struct(TypeMirror type) {
+		if (type.getKind() != TypeKind.DECLARED) {
+			return null;
+		}
+		TypeElement element = (TypeElement) ((DeclaredType) type).asElement();
+		if (element.getAnnotation(PayloadClass.class) == null || element.getModifiers().contains(Modifier.ABSTRACT)) {
+			return null;
+		}
+		return element;
+	}
+
+	private boolean isJsonElement(TypeMirror type) {
+		TypeElement jsonElement = processingEnv.getElementUtils().getTypeElement(JSON_ELEMENT);
+		return jsonElement != null
+				&& processingEnv.getTypeUtils().isAssignable(type, jsonElement.asType());
+	}
+
+	private void generate(TypeElement type, List<Field> fields) {
+		String pkg = packageOf(type);
+		String simpleName = type.getSimpleName().toString();
+		String className = type.getQualifiedName().toString();
+		List<Field> state = new ArrayList<>();
+		for (Field field : fields) {
+			if (field.state) {
+				state.add(field);
+			}
+		}
+
+		Source out = new Source();
+		out.line("package %s;", pkg);
+		out.line("");
+		out.line("import java.util.Arrays;");
+		out.line("import java.util.Objects;");
+		out.line("");
+		out.line("import javax.annotation.processing.Generated;");
+		out.line("");
+		out.line("import %s;", WRITER);
+		out.line("import %s.Name;", WRITER);
+		out.line("");
+		out.line("/**");
+		out.line(" * Field-level equality, diffs and JSON for {@link %s}.", simpleName);
+		out.line(" */");
+		out.line("@Generated(\"%s\")", PayloadProcessor.class.getName());
+		out.line("public final class %sFields {", simpleName);
+		out.line("");
+		for (Field field : fields) {
+			out.line("\tprivate static final Name %s = Name.of(\"%s\");", nameConstant(field), field.name);
+		}
+		out.line("");
+		for (int i = 0; i < state.size(); i++) {
+			out.line("\tprivate static final long %s = 1L << %d;", constant(state.get(i).name), i);
+		}
+		if (!state.isEmpty()) {
+			out.line("");
+		}
+		out.line("\tprivate %sFields() {", simpleName);
+		out.line("\t}");
+
+		out.line("");
+		out.line("\tpublic static boolean equals(%s a, %s b) {", simpleName, simpleName);
+		out.line("\t\tif (a == b) {");
+		out.line("\t\t\treturn true;");
+		out.line("\t\t}");
+		out.line("\t\tif (a == null || b == null) {");
+		out.line("\t\t\treturn false;");
+		out.line("\t\t}");
+		if (state.isEmpty()) {
+			out.line("\t\treturn true;");
+		}
+		for (int i = 0; i < state.size(); i++) {
+			String test = equalTest(state.get(i));
+			out.line(i == 0 ? "\t\treturn %s%s" : "\t\t\t\t&& %s%s", test, i == state.size() - 1 ? ";" : "");
+		}
+		out.line("\t}");
+
+		out.line("");
+		out.line("\tpublic static int hashCode(%s p) {", simpleName);
+		out.line("\t\tint result = 1;");
+		for (Field field : state) {
+			out.line("\t\tresult = 31 * result + %s;", hash(field));
+		}
+		out.line("\t\treturn result;");
+		out.line("\t}");
+
+		out.line("");
+		out.line("\t/**");
+		out.line("\t * The bits of the state fields that differ between two non-null instances.");
+		out.line("\t */");
+		out.line("\tpublic static long diff(%s a, %s b) {", simpleName, simpleName);
+		out.line("\t\tlong changed = 0;");
+		for (Field field : state) {
+			out.line("\t\tif (!(%s)) {", equalTest(field));
+			out.line("\t\t\tchanged |= %s;", constant(field.name));
+			out.line("\t\t}");
+		}
+		out.line("\t\treturn changed;");
+		out.line("\t}");
+
+		out.line("");
+		out.line("\t/**");
+		out.line("\t * Writes the object as Gson would, inherited fields last.");
+		out.line("\t */");
+		out.line("\tpublic static void write(Utf8JsonWriter out, %s p) {", simpleName);
+		out.line("\t\tout.beginObject();");
+		for (Field field : fields) {
+			writeField(out, field, "p", "\t\t");
+		}
+		out.line("\t\tout.endObject();");
+		out.line("\t}");
+
+		out.line("");
+		out.line("\t/**");
+		out.line("\t * Writes the state fields alone, as the object a patch applies to.");
+		out.line("\t */");
+		out.line("\tpublic static void writeState(Utf8JsonWriter out, %s p) {", simpleName);
+		out.line("\t\tout.beginObject();");
+		for (Field field : state) {
+			writeField(out, field, "p", "\t\t");
+		}
+		out.line("\t\tout.endObject();");
+		out.line("\t}");
+
+		out.line("");
+		out.line("\t/**");
+		out.line("\t * Writes a JSON merge patch from {@code a} to {@code b} of the fields set in");
+		out.line("\t * {@code changed}, patching arrays whose length is unchanged by index.");
+		out.line("\t *");
+		out.line("\t * @return false, leaving the output unfinished, if a field changed to null,");
+		out.line("\t *         which a merge patch cannot express");
+		out.line("\t */");
+		out.line("\tpublic static boolean writePatch(Utf8JsonWriter out, %s a, %s b, long changed) {", simpleName,
+				simpleName);
+		out.line("\t\tout.beginObject();");
+		for (Field field : state) {
+			out.line("\t\tif ((changed & %s) != 0) {", constant(field.name));
+			writePatchField(out, field);
+			out.line("\t\t}");
+		}
+		out.line("\t\tout.endObject();");
+		out.line("\t\treturn true;");
+		out.line("\t}");
+		out.line("}");
+
+		out.writeTo(className + "Fields", type);
+	}
+
+	private void writeField(Source out, Field field, String instance, String indent) {
+		String value = access(field, instance);
+		String name = nameConstant(field);
+		switch (field.kind) {
+			case ENUM:
+				out.line("%sout.field(%s, %s != null ? %s.name() : null);", indent, name, value, value);
+				return;
+			case STRUCT:
+				out.line("%sif (%s != null) {", indent, value);
+				out.line("%s\tout.name(%s);", indent, name);
+				out.line("%s\t%s.write(out, %s);", indent, fieldsClass(field.struct), value);
+				out.line("%s} else {", indent);
+				out.line("%s\tout.nullField(%s);", indent, name);
+				out.line("%s}", indent);
+				return;
+			case STRUCT_ARRAY:
+			case STRUCT_LIST:
+				out.line("%sif (%s != null) {", indent, value);
+				out.line("%s\tout.name(%s);", indent, name);
+				out.line("%s\tout.beginArray();", indent);
+				out.line("%s\tfor (int i = 0; i < %s; i++) {", indent, size(field, value));
+				out.line("%s\t\t%s element = %s;", indent, field.struct.getQualifiedName(), element(field, value, "i"));
+				out.line("%s\t\tif (element != null) {", indent);
+				out.line("%s\t\t\t%s.write(out, element);", indent, fieldsClass(field.struct));
+				out.line("%s\t\t} else {", indent);
+				out.line("%s\t\t\tout.nullValue();", indent);
+				out.line("%s\t\t}", indent);
+				out.line("%s\t}", indent);
+				out.line("%s\tout.endArray();", indent);
+				out.line("%s} else {", indent);
+				out.line("%s\tout.nullField(%s);", indent, name);
+				out.line("%s}", indent);
+				return;
+			default:
+				out.line("%sout.field(%s, %s);", indent, name, value);
+		}
+	}
+
+	/**
+	 * The body of one field's branch in {@code writePatch}.
+	 */
+	private void writePatchField(Source out, Field field) {
+		String before = access(field, "a");
+		String after = access(field, "b");
+		String name = nameConstant(field);
+		switch (field.kind) {
+			case INT:
+			case LONG:
+			case BOOLEAN:
+				out.line("\t\t\tout.field(%s, %s);", name, after);
+				return;
+			case JSON:
+				out.line("\t\t\tif (%s == null || %s.isJsonNull()) {", after, after);
+				out.line("\t\t\t\treturn false;");
+				out.line("\t\t\t}");
+				out.line("\t\t\tout.field(%s, %s);", name, after);
+				return;
+			case INT_ARRAY:
+				out.line("\t\t\tif (%s == null) {", after);
+				out.line("\t\t\t\treturn false;");
+				out.line("\t\t\t}");
+				out.line("\t\t\tif (%s != null && %s.length == %s.length) {", before, before, after);
+				out.line("\t\t\t\tout.name(%s);", name);
+				out.line("\t\t\t\tout.beginObject();");
+				out.line("\t\t\t\tfor (int i = 0; i < %s.length; i++) {", after);
+				out.line("\t\t\t\t\tif (%s[i] != %s[i]) {", before, after);
+				out.line("\t\t\t\t\t\tout.name(i);");
+				out.line("\t\t\t\t\t\tout.value(%s[i]);", after);
+				out.line("\t\t\t\t\t}");
+				out.line("\t\t\t\t}");
+				out.line("\t\t\t\tout.endObject();");
+				out.line("\t\t\t} else {");
+				out.line("\t\t\t\tout.field(%s, %s);", name, after);
+				out.line("\t\t\t}");
+				return;
+			case STRUCT:
+				String fieldsClass = fieldsClass(field.struct);
+				out.line("\t\t\tif (%s == null) {", after);
+				out.line("\t\t\t\treturn false;");
+				out.line("\t\t\t}");
+				out.line("\t\t\tout.name(%s);", name);
+				out.line("\t\t\tif (%s == null) {", before);
+				out.line("\t\t\t\t%s.write(out, %s);", fieldsClass, after);
+				out.line("\t\t\t} else if (!%s.writePatch(out, %s, %s, %s.diff(%s, %s))) {", fieldsClass, before, after,
+						fieldsClass, before, after);
+				out.line("\t\t\t\treturn false;");
+				out.line("\t\t\t}");
+				return;
+			case STRUCT_ARRAY:
+			case STRUCT_LIST:
+				String elementsClass = fieldsClass(field.struct);
+				String elementType = field.struct.getQualifiedName().toString();
+				out.line("\t\t\tif (%s == null) {", after);
+				out.line("\t\t\t\treturn false;");
+				out.line("\t\t\t}");
+				out.line("\t\t\tif (%s != null && %s == %s) {", before, size(field, before), size(field, after));
+				out.line("\t\t\t\tout.name(%s);", name);
+				out.line("\t\t\t\tout.beginObject();");
+				out.line("\t\t\t\tfor (int i = 0; i < %s; i++) {", size(field, after));
+				out.line("\t\t\t\t\t%s before = %s;", elementType, element(field, before, "i"));
+				out.line("\t\t\t\t\t%s after = %s;", elementType, element(field, after, "i"));
+				out.line("\t\t\t\t\tif (%s.equals(before, after)) {", elementsClass);
+				out.line("\t\t\t\t\t\tcontinue;");
+				out.line("\t\t\t\t\t}");
+				out.line("\t\t\t\t\tif (after == null) {");
+				out.line("\t\t\t\t\t\treturn false;");
+				out.line("\t\t\t\t\t}");
+				out.line("\t\t\t\t\tout.name(i);");
+				out.line("\t\t\t\t\tif (before == null) {");
+				out.line("\t\t\t\t\t\t%s.write(out, after);", elementsClass);
+				out.line("\t\t\t\t\t} else if (!%s.writePatch(out, before, after, %s.diff(before, after))) {",
+						elementsClass, elementsClass);
+				out.line("\t\t\t\t\t\treturn false;");
+				out.line("\t\t\t\t\t}");
+				out.line("\t\t\t\t}");
+				out.line("\t\t\t\tout.endObject();");
+				out.line("\t\t\t} else {");
+				writeField(out, field, "b", "\t\t\t\t");
+				out.line("\t\t\t}");
+				return;
+			default:
+				// Boxed values, strings, enums and raw JSON
+				out.line("\t\t\tif (%s == null) {", after);
+				out.line("\t\t\t\treturn false;");
+				out.line("\t\t\t}");
+				writeField(out, field, "b", "\t\t\t");
+		}
+	}
+
+	private void generateDispatch(TypeElement root, List<TypeElement> classes) {
+		String simpleName = root.getSimpleName().toString();
+		List<TypeElement> subclasses = new ArrayList<>();
+		for (TypeElement type : classes) {
+			if (type != root && !type.getModifiers().contains(Modifier.ABSTRACT)
+					&& processingEnv.getTypeUtils().isSubtype(type.asType(), root.asType())) {
+				subclasses.add(type);
+			}
+		}
+
+		Source out = new Source();
+		out.line("package %s;", packageOf(root));
+		out.line("");
+		out.line("import javax.annotation.processing.Generated;");
+		out.line("");
+		out.line("import %s;", WRITER);
+		out.line("");
+		out.line("/**");
+		out.line(" * Dispatches to the generated code of each annotated subclass of");
+		out.line(" * {@link %s}, by exact class.", simpleName);
+		out.line(" */");
+		out.line("@Generated(\"%s\")", PayloadProcessor.class.getName());
+		out.line("public final class %sFields {", simpleName);
+		out.line("");
+		out.line("\tprivate %sFields() {", simpleName);
+		out.line("\t}");
+
+		out.line("");
+		out.line("\t/**");
+		out.line("\t * Writes the object as Gson would, or returns false if its class has no");
+		out.line("\t * generated code.");
+		out.line("\t */");
+		out.line("\tpublic static boolean write(Utf8JsonWriter out, %s p) {", simpleName);
+		out.line("\t\tClass<?> type = p.getClass();");
+		for (TypeElement type : subclasses) {
+			String name = type.getQualifiedName().toString();
+			out.line("\t\tif (type == %s.class) {", name);
+			out.line("\t\t\t%s.write(out, (%s) p);", fieldsClass(type), name);
+			out.line("\t\t\treturn true;");
+			out.line("\t\t}");
+		}
+		out.line("\t\treturn false;");
+		out.line("\t}");
+
+		out.line("");
+		out.line("\t/**");
+		out.line("\t * Writes the state fields alone, or returns false if the class has no");
+		out.line("\t * generated code.");
+		out.line("\t */");
+		out.line("\tpublic static boolean writeState(Utf8JsonWriter out, %s p) {", simpleName);
+		out.line("\t\tClass<?> type = p.getClass();");
+		for (TypeElement type : subclasses) {
+			String name = type.getQualifiedName().toString();
+			out.line("\t\tif (type == %s.class) {", name);
+			out.line("\t\t\t%s.writeState(out, (%s) p);", fieldsClass(type), name);
+			out.line("\t\t\treturn true;");
+			out.line("\t\t}");
+		}
+		out.line("\t\treturn false;");
+		out.line("\t}");
+
+		out.line("");
+		out.line("\t/**");
+		out.line("\t * Writes a merge patch between two instances of the same class, or returns");
+		out.line("\t * false if they differ in class, have no generated code, or the change cannot");
+		out.line("\t * be expressed as a patch.");
+		out.line("\t */");
+		out.line("\tpublic static boolean writePatch(Utf8JsonWriter out, %s a, %s b, long changed) {", simpleName,
+				simpleName);
+		out.line("\t\tClass<?> type = a.getClass();");
+		out.line("\t\tif (type != b.getClass()) {");
+		out.line("\t\t\treturn false;");
+		out.line("\t\t}");
+		for (TypeElement type : subclasses) {
+			String name = type.getQualifiedName().toString();
+			out.line("\t\tif (type == %s.class) {", name);
+			out.line("\t\t\treturn %s.writePatch(out, (%s) a, (%s) b, changed);", fieldsClass(type), name, name);
+			out.line("\t\t}");
+		}
+		out.line("\t\treturn false;");
+		out.line("\t}");
+
+		out.line("");
+		out.line("\t/**");
+		out.line("\t * Compares the state fields of two instances of the same class. Instances of a");
+		out.line("\t * class without generated code are only equal to themselves.");
+		out.line("\t */");
+		out.line("\tpublic static boolean equals(%s a, %s b) {", simpleName, simpleName);
+		out.line("\t\tif (a == b) {");
+		out.line("\t\t\treturn true;");
+		out.line("\t\t}");
+		out.line("\t\tif (a == null || b == null || a.getClass() != b.getClass()) {");
+		out.line("\t\t\treturn false;");
+		out.line("\t\t}");
+		out.line("\t\tClass<?> type = a.getClass();");
+		for (TypeElement type : subclasses) {
+			String name = type.getQualifiedName().toString();
+			out.line("\t\tif (type == %s.class) {", name);
+			out.line("\t\t\treturn %s.equals((%s) a, (%s) b);", fieldsClass(type), name, name);
+			out.line("\t\t}");
+		}
+		out.line("\t\treturn false;");
+		out.line("\t}");
+
+		out.line("");
+		out.line("\t/**");
+		out.line("\t * Hashes the state fields, or the identity of an instance of a class without");
+		out.line("\t * generated code.");
+		out.line("\t */");
+		out.line("\tpublic static int hashCode(%s p) {", simpleName);
+		out.line("\t\tClass<?> type = p.getClass();");
+		for (TypeElement type : subclasses) {
+			String name = type.getQualifiedName().toString();
+			out.line("\t\tif (type == %s.class) {", name);
+			out.line("\t\t\treturn %s.hashCode((%s) p);", fieldsClass(type), name);
+			out.line("\t\t}");
+		}
+		out.line("\t\treturn System.identityHashCode(p);");
+		out.line("\t}");
+
+		out.line("");
+		out.line("\t/**");
+		out.line("\t * The bits of the state fields that differ between two instances, as defined");
+		out.line("\t * by their class's generated code, or every bit if they are of different");
+		out.line("\t * classes or a class without generated code.");
+		out.line("\t */");
+		out.line("\tpublic static long diff(%s a, %s b) {", simpleName, simpleName);
+		out.line("\t\tClass<?> type = a.getClass();");
+		out.line("\t\tif (type != b.getClass()) {");
+		out.line("\t\t\treturn -1L;");
+		out.line("\t\t}");
+		for (TypeElement type : subclasses) {
+			String name = type.getQualifiedName().toString();
+			out.line("\t\tif (type == %s.class) {", name);
+			out.line("\t\t\treturn %s.diff((%s) a, (%s) b);", fieldsClass(type), name, name);
+			out.line("\t\t}");
+		}
+		out.line("\t\treturn -1L;");
+		out.line("\t}");
+		out.line("}");
+
+		out.writeTo(root.getQualifiedName() + "Fields", root);
+	}
+
+	private static String equalTest(Field field) {
+		String a = access(field, "a");
+		String b = access(field, "b");
+		switch (field.kind) {
+			case INT:
+			case LONG:
+			case BOOLEAN:
+			case ENUM:
+				return a + " == " + b;
+			case INT_ARRAY:
+			case STRUCT_ARRAY:
+				return "Arrays.equals(" + a + ", " + b + ")";
+			default:
+				return "Objects.equals(" + a + ", " + b + ")";
+		}
+	}
+
+	private static String hash(Field field) {
+		String value = access(field, "p");
+		switch (field.kind) {
+			case INT:
+				return "Integer.hashCode(" + value + ")";
+			case LONG:
+				return "Long.hashCode(" + value + ")";
+			case BOOLEAN:
+				return "Boolean.hashCode(" + value + ")";
+			case INT_ARRAY:
+			case STRUCT_ARRAY:
+				return "Arrays.hashCode(" + value + ")";
+			default:
+				return "Objects.hashCode(" + value + ")";
+		}
+	}
+
+	private static String access(Field field, String instance) {
+		return instance + "." + field.getter + "()";
+	}
+
+	private static String size(Field field, String value) {
+		return value + (field.kind == Kind.STRUCT_LIST ? ".size()" : ".length");
+	}
+
+	private static String element(Field field, String value, String index) {
+		return field.kind == Kind.STRUCT_LIST ? value + ".get(" + index + ")" : value + "[" + index + "]";
+	}
+
+	private static String nameConstant(Field field) {
+		return "NAME_" + constant(field.name);
+	}
+
+	/**
+	 * {@code camelCase} to {@code CAMEL_CASE}.
+	 */
+	private static String constant(String name) {
+		StringBuilder constant = new StringBuilder();
+		for (int i = 0; i < name.length(); i++) {
+			char c = name.charAt(i);
+			if (Character.isUpperCase(c) && i > 0) {
+				constant.append('_');
+			}
+			constant.append(Character.toUpperCase(c));
+		}
+		return constant.toString();
+	}
+
+	private static String fieldsClass(TypeElement type) {
+		return type.getQualifiedName() + "Fields";
+	}
+
+	private TypeElement superclass(TypeElement type) {
+		TypeMirror superclass = type.getSuperclass();
+		if (superclass.getKind() != TypeKind.DECLARED) {
+			return null;
+		}
+		TypeElement element = (TypeElement) ((DeclaredType) superclass).asElement();
+		return element.getQualifiedName().contentEquals("java.lang.Object") ? null : element;
+	}
+
+	private String packageOf(Element element) {
+		PackageElement pkg = processingEnv.getElementUtils().getPackageOf(element);
+		return pkg.getQualifiedName().toString();
+	}
+
+	private void error(Element element, String format, Object... args) {
+		processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, String.format(format, args), element);
+	}
+
+	/**
+	 * A generated source file, built a line at a time.
+	 */
+	private final class Source {
+		private final StringBuilder text = new StringBuilder();
+
+		void line(String format, Object... args) {
+			text.append(args.length == 0 ? format : String.format(format, args)).append('\n');
+		}
+
+		void writeTo(String className, TypeElement origin) {
+			try (Writer writer = processingEnv.getFiler().createSourceFile(className, origin).openWriter()) {
+				writer.write(text.toString());
+			} catch (IOException e) {
+				error(origin, "Could not write %s: %s", className, e.getMessage());
+			}
+		}
+	}
+}
@@ -0,0 +1,97 @@
+package com.chektek.codec;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.chektek.PluginSummary;
+import com.chektek.payload.PluginsPayload;
+import com.chektek.payload.SkillsPayload;
+import com.chektek.websocket.BufferPool;
+import com.chektek.websocket.OutboundFrame;
+import com.google.gson.Gson;
+
+/**
+ * JSON encoding of a payload into a text frame: reflective Gson into a String,
+ * as broadcasts used to, against the streaming {@link PayloadJsonWriter}. Run
+ * with {@code -prof gc} to compare allocation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PayloadEncodeBenchmark {
+
+	private Gson gson;
+	private BufferPool pool;
+	private JsonPayloadCodec codec;
+	private SkillsPayload skills;
+	private PluginsPayload plugins;
+
+	@Setup
+	public void setup() throws IllegalAccessException {
+		gson = new Gson();
+		pool = new BufferPool();
+		codec = new JsonPayloadCodec(gson, pool);
+
+		// Typical mid-game levels; the payload has no setters
+		skills = new SkillsPayload();
+		int level = 1;
+		for (Field field : SkillsPayload.class.getDeclaredFields()) {
+			if (field.getType() == int.class && !Modifier.isStatic(field.getModifiers())) {
+				field.setAccessible(true);
+				field.setInt(skills, 40 + level++ % 60);
+			}
+		}
+		skills.setSeq(123456L);
+
+		List<PluginSummary> summaries = new ArrayList<>();
+		for (int i = 0; i < 100; i++) {
+			summaries.add(new PluginSummary("net.runelite.client.plugins.example.Example" + i + "Plugin",
+					"Example " + i, i % 3 == 0));
+		}
+		plugins = new PluginsPayload(summaries);
+		plugins.setSeq(123457L);
+	}
+
+	@Benchmark
+	public int skillsGson() {
+		return release(OutboundFrame.text(gson.toJson(skills), pool));
+	}
+
+	@Benchmark
+	public int skillsWriter() {
+		return release(codec.encode(skills));
+	}
+
+	@Benchmark
+	public int pluginsGson() {
+		return release(OutboundFrame.text(gson.toJson(plugins), pool));
+	}
+
+	@Benchmark
+	public int pluginsWriter() {
+		return release(codec.encode(plugins));
+	}
+
+	private static int release(OutboundFrame frame) {
+		int length = frame.length();
+		frame.release();
+		return length;
+	}
+}
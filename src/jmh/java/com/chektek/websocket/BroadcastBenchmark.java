@@ -0,0 +1,78 @@
+package com.chektek.websocket;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * End-to-end cost of delivering one message over loopback: from the call on the
+ * sending thread until every client has read the frame.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class BroadcastBenchmark {
+
+	@Param({ "1", "10", "100" })
+	int connections;
+
+	@Param({ "1", "4" })
+	int ioThreads;
+
+	@Param({ "256", "4096" })
+	int messageSize;
+
+	private LoopbackHarness harness;
+	private WebSocketConnection single;
+	private String message;
+	private int frameLength;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException, InterruptedException {
+		char[] chars = new char[messageSize];
+		Arrays.fill(chars, 'x');
+		message = new String(chars);
+		frameLength = WebSocketServer.createFrame(FrameDecoder.OPCODE_TEXT, new byte[messageSize]).length;
+
+		harness = new LoopbackHarness(connections, ioThreads);
+		single = harness.getServer().getConnections().iterator().next();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		harness.close();
+	}
+
+	@Benchmark
+	public void broadcast() {
+		harness.getServer().broadcast(message);
+		harness.awaitDelivery((long) frameLength * connections);
+	}
+
+	/**
+	 * A single {@link WebSocketConnection#send(String)}; only the connection count
+	 * of the surrounding server varies.
+	 */
+	@Benchmark
+	public void send() throws IOException {
+		single.send(message);
+		harness.awaitDelivery(frameLength);
+	}
+}
@@ -0,0 +1,96 @@
+package com.chektek.websocket;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Decoding and unmasking of client frames as done by {@code handleFrames}. The
+ * decoder unmasks in place, so every invocation first restores the masked bytes
+ * into the read buffer; {@link #copyOnly()} measures that copy on its own.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FrameDecodeBenchmark {
+
+	private static final byte[] MASK = { 0x12, 0x34, 0x56, 0x78 };
+
+	@Param({ "64", "1024", "65536" })
+	int payloadSize;
+
+	@Param({ "1", "4" })
+	int fragments;
+
+	private byte[] wire;
+	private ByteBuffer readBuffer;
+	private FrameDecoder decoder;
+
+	@Setup
+	public void setup() {
+		wire = maskedMessage(payloadSize, fragments);
+		readBuffer = ByteBuffer.allocate(wire.length);
+		decoder = new FrameDecoder(Integer.MAX_VALUE);
+	}
+
+	@Benchmark
+	public int decode() throws IOException {
+		readBuffer.clear();
+		readBuffer.put(wire).flip();
+		int opcode = decoder.decode(readBuffer);
+		return opcode + decoder.length();
+	}
+
+	@Benchmark
+	public ByteBuffer copyOnly() {
+		readBuffer.clear();
+		readBuffer.put(wire).flip();
+		return readBuffer;
+	}
+
+	/**
+	 * Builds a masked text message split into {@code fragments} frames.
+	 */
+	static byte[] maskedMessage(int payloadSize, int fragments) {
+		ByteBuffer out = ByteBuffer.allocate(payloadSize + fragments * 14);
+		int offset = 0;
+		for (int i = 0; i < fragments; i++) {
+			int length = i == fragments - 1 ? payloadSize - offset : payloadSize / fragments;
+			int opcode = i == 0 ? FrameDecoder.OPCODE_TEXT : FrameDecoder.OPCODE_CONTINUATION;
+			out.put((byte) ((i == fragments - 1 ? 0x80 : 0) | opcode));
+			if (length <= 125) {
+				out.put((byte) (0x80 | length));
+			} else if (length <= 65535) {
+				out.put((byte) (0x80 | 126));
+				out.putShort((short) length);
+			} else {
+				out.put((byte) (0x80 | 127));
+				out.putLong(length);
+			}
+			out.put(MASK);
+			for (int j = 0; j < length; j++) {
+				out.put((byte) ('x' ^ MASK[j & 3]));
+			}
+			offset += length;
+		}
+		byte[] bytes = new byte[out.position()];
+		out.flip();
+		out.get(bytes);
+		return bytes;
+	}
+}
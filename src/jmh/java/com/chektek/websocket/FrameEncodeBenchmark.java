@@ -0,0 +1,64 @@
+package com.chektek.websocket;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Frame construction on the send path: the legacy byte array framing, the pooled
+ * text encoding used by broadcasts, and the handshake accept key.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FrameEncodeBenchmark {
+
+	@Param({ "64", "1024", "65536" })
+	int payloadSize;
+
+	private byte[] payload;
+	private String message;
+	private BufferPool pool;
+
+	@Setup
+	public void setup() {
+		char[] chars = new char[payloadSize];
+		Arrays.fill(chars, 'x');
+		message = new String(chars);
+		payload = message.getBytes(StandardCharsets.UTF_8);
+		pool = new BufferPool();
+	}
+
+	@Benchmark
+	public byte[] createFrame() {
+		return WebSocketServer.createFrame(FrameDecoder.OPCODE_TEXT, payload);
+	}
+
+	@Benchmark
+	public int encodeText() {
+		OutboundFrame frame = OutboundFrame.text(message, pool);
+		int length = frame.length();
+		frame.release();
+		return length;
+	}
+
+	@Benchmark
+	public String acceptKey() {
+		return WebSocketServer.generateAcceptKey("dGhlIHNhbXBsZSBub25jZQ==");
+	}
+}
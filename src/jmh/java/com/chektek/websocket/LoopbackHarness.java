@@ -0,0 +1,145 @@
+package com.chektek.websocket;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A server on an ephemeral loopback port plus raw socket clients that count the
+ * bytes they receive, so benchmarks can wait for a send to be fully delivered.
+ */
+final class LoopbackHarness {
+
+	private final BenchmarkServer server;
+	private final List<Socket> clients = new ArrayList<>();
+	private final AtomicLong received = new AtomicLong();
+	private long expected;
+
+	LoopbackHarness(int clientCount, int ioThreads) throws IOException, InterruptedException {
+		server = new BenchmarkServer(freePort());
+		server.setIoThreads(ioThreads);
+		server.setPerMessageDeflateEnabled(false);
+		server.setPingIntervalMillis(0);
+		server.setIdleTimeoutMillis(0);
+		server.start();
+
+		for (int i = 0; i < clientCount; i++) {
+			clients.add(connect(server.getPort()));
+		}
+		while (server.getConnections().size() < clientCount
+				|| !server.getConnections().stream().allMatch(WebSocketConnection::isHandshakeComplete)) {
+			Thread.sleep(10);
+		}
+	}
+
+	WebSocketServer getServer() {
+		return server;
+	}
+
+	/**
+	 * Records that {@code bytes} more are on their way and spins until the clients
+	 * have read everything sent so far.
+	 */
+	void awaitDelivery(long bytes) {
+		expected += bytes;
+		while (received.get() < expected) {
+			Thread.onSpinWait();
+		}
+	}
+
+	void close() {
+		try {
+			server.stop();
+		} catch (IOException e) {
+			// Ignore
+		}
+		for (Socket client : clients) {
+			try {
+				client.close();
+			} catch (IOException e) {
+				// Ignore
+			}
+		}
+	}
+
+	private Socket connect(int port) throws IOException {
+		Socket socket = new Socket();
+		socket.setTcpNoDelay(true);
+		socket.connect(new InetSocketAddress("127.0.0.1", port));
+
+		OutputStream out = socket.getOutputStream();
+		out.write(("GET / HTTP/1.1\r\n" +
+				"Host: 127.0.0.1\r\n" +
+				"Upgrade: websocket\r\n" +
+				"Connection: Upgrade\r\n" +
+				"Sec-WebSocket-Key: dGhlIHNhbXBsZSBub25jZQ==\r\n" +
+				"Sec-WebSocket-Version: 13\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+		out.flush();
+
+		InputStream in = socket.getInputStream();
+		int matched = 0;
+		while (matched < 4) {
+			int b = in.read();
+			if (b < 0) {
+				throw new IOException("Handshake failed");
+			}
+			matched = b == "\r\n\r\n".charAt(matched) ? matched + 1 : (b == '\r' ? 1 : 0);
+		}
+
+		Thread reader = new Thread(() -> drain(in), "Benchmark-Client");
+		reader.setDaemon(true);
+		reader.start();
+		return socket;
+	}
+
+	private void drain(InputStream in) {
+		byte[] buffer = new byte[64 * 1024];
+		try {
+			int count;
+			while ((count = in.read(buffer)) > 0) {
+				received.addAndGet(count);
+			}
+		} catch (IOException e) {
+			// Closed by close()
+		}
+	}
+
+	private static int freePort() throws IOException {
+		try (ServerSocket socket = new ServerSocket(0)) {
+			return socket.getLocalPort();
+		}
+	}
+
+	private static final class BenchmarkServer extends WebSocketServer {
+		BenchmarkServer(int port) {
+			super(port);
+		}
+
+		@Override
+		public void onStart() {
+		}
+
+		@Override
+		public void onOpen(WebSocketConnection conn) {
+		}
+
+		@Override
+		public void onClose(WebSocketConnection conn) {
+		}
+
+		@Override
+		public void onMessage(WebSocketConnection conn, String message) {
+		}
+
+		@Override
+		public void onError(WebSocketConnection conn, Exception ex) {
+		}
+	}
+}
@@ -0,0 +1,152 @@
+package com.chektek;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.chektek.payload.PayloadType;
+import com.chektek.websocket.WebSocketConnection;
+
+/**
+ * Per-client preferences, attached to the client's connection when it opens.
+ */
+public class ClientSession {
+
+	private volatile boolean batching = false;
+
+	/**
+	 * Replaced rather than modified, so the broadcast path can read it without
+	 * locking.
+	 */
+	private volatile Set<PayloadType> subscriptions = EnumSet.allOf(PayloadType.class);
+	private boolean subscribed = false;
+
+	private final RateLimiter rateLimiter = new RateLimiter();
+
+	private boolean initialSnapshotPending = true;
+
+	private volatile boolean deltas = false;
+	private volatile Set<PayloadType> synced = EnumSet.noneOf(PayloadType.class);
+
+	/**
+	 * Sequence number of the newest message of each type queued for the client,
+	 * indexed by ordinal.
+	 */
+	private final AtomicLongArray seen = new AtomicLongArray(PayloadType.values().length);
+
+	/**
+	 * Returns the session attached to a connection, or null while the connection
+	 * is still opening.
+	 */
+	public static ClientSession of(WebSocketConnection conn) {
+		Object attachment = conn.getAttachment();
+		return attachment instanceof ClientSession ? (ClientSession) attachment : null;
+	}
+
+	/**
+	 * True if the client asked for all payloads of a tick in one BATCH message
+	 * rather than one message per payload.
+	 */
+	public boolean isBatching() {
+		return batching;
+	}
+
+	public void setBatching(boolean batching) {
+		this.batching = batching;
+	}
+
+	/**
+	 * True if the client asked for state payloads as versioned deltas.
+	 */
+	public boolean isDeltas() {
+		return deltas;
+	}
+
+	public void setDeltas(boolean deltas) {
+		this.deltas = deltas;
+		resync(EnumSet.allOf(PayloadType.class));
+	}
+
+	/**
+	 * True if the client holds the current version of a type, so the next change
+	 * can be sent as a delta.
+	 */
+	public boolean isSynced(PayloadType type) {
+		return synced.contains(type);
+	}
+
+	public synchronized void markSynced(PayloadType type) {
+		if (!synced.contains(type)) {
+			EnumSet<PayloadType> updated = EnumSet.copyOf(synced);
+			updated.add(type);
+			synced = updated;
+		}
+	}
+
+	/**
+	 * Makes the next payload of each type a full snapshot.
+	 */
+	public synchronized void resync(Collection<PayloadType> types) {
+		EnumSet<PayloadType> updated = EnumSet.copyOf(synced);
+		updated.removeAll(types);
+		synced = updated;
+	}
+
+	/**
+	 * True if the client has already been sent the message with sequence number
+	 * {@code seq}, or a newer one of the same type.
+	 */
+	public boolean hasSeen(PayloadType type, long seq) {
+		return seen.get(type.ordinal()) >= seq;
+	}
+
+	public void markSeen(PayloadType type, long seq) {
+		seen.accumulateAndGet(type.ordinal(), seq, Math::max);
+	}
+
+	/**
+	 * True the first time it is called. Whoever gets true decides what the client
+	 * is sent first: the snapshot, or what it missed since it last connected.
+	 */
+	public synchronized boolean takeInitialSnapshot() {
+		boolean pending = initialSnapshotPending;
+		initialSnapshotPending = false;
+		return pending;
+	}
+
+	public RateLimiter getRateLimiter() {
+		return rateLimiter;
+	}
+
+	/**
+	 * True if the client wants payloads of this type. Clients receive every type
+	 * until they first subscribe or unsubscribe.
+	 */
+	public boolean isSubscribed(PayloadType type) {
+		return subscriptions.contains(type);
+	}
+
+	public Set<PayloadType> getSubscriptions() {
+		return Collections.unmodifiableSet(subscriptions);
+	}
+
+	/**
+	 * Adds types to the subscriptions. The first subscribe replaces the default of
+	 * every type.
+	 */
+	public synchronized void subscribe(Collection<PayloadType> types) {
+		EnumSet<PayloadType> updated = subscribed ? EnumSet.copyOf(subscriptions) : EnumSet.noneOf(PayloadType.class);
+		updated.addAll(types);
+		subscriptions = updated;
+		subscribed = true;
+	}
+
+	public synchronized void unsubscribe(Collection<PayloadType> types) {
+		EnumSet<PayloadType> updated = EnumSet.copyOf(subscriptions);
+		updated.removeAll(types);
+		subscriptions = updated;
+		subscribed = true;
+	}
+}
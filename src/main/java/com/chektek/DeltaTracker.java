@@ -0,0 +1,134 @@
+package com.chektek;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+import com.chektek.codec.PayloadJsonWriter;
+import com.chektek.codec.RawJson;
+import com.chektek.codec.Utf8JsonWriter;
+import com.chektek.payload.DeltaPayload;
+import com.chektek.payload.Payload;
+import com.chektek.payload.PayloadFields;
+import com.chektek.payload.PayloadType;
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+
+/**
+ * Versions each state payload type and works out what changed between
+ * versions, for clients in delta mode.
+ * <p>
+ * A delta is a JSON merge patch (RFC 7386) of the payload's fields, with one
+ * extension: an object patching an array of the same length patches its
+ * elements by index, so one changed equipment slot or Grand Exchange offer does
+ * not resend the rest. Every {@link #SNAPSHOT_INTERVAL} versions, and whenever a
+ * change cannot be expressed as a patch, a full snapshot is sent instead.
+ * <p>
+ * The generated {@code diff} finds the changed fields, and the generated
+ * {@code writePatch} writes only those, so neither form is built through Gson.
+ * <p>
+ * Not thread safe; only used while holding the server's send lock.
+ */
+class DeltaTracker {
+
+	static final int SNAPSHOT_INTERVAL = 100;
+
+	private final Gson gson;
+	private final Utf8JsonWriter out;
+	private final Map<PayloadType, State> states = new EnumMap<>(PayloadType.class);
+
+	DeltaTracker(Gson gson) {
+		this.gson = gson;
+		this.out = new PayloadJsonWriter(gson).newWriter();
+	}
+
+	/**
+	 * Records a new payload of a state type.
+	 */
+	Update update(Payload payload) {
+		PayloadType type = payload.getType();
+		State state = states.computeIfAbsent(type, t -> new State());
+		long changed = state.payload != null ? PayloadFields.diff(state.payload, payload) : -1L;
+		if (changed == 0) {
+			return new Update(false, null, new DeltaPayload(type, state.version, null, state.fields));
+		}
+
+		RawJson patch = null;
+		if (state.payload != null && ++state.sinceSnapshot < SNAPSHOT_INTERVAL) {
+			out.reset();
+			if (PayloadFields.writePatch(out, state.payload, payload, changed)) {
+				patch = RawJson.copyOf(out);
+			}
+		}
+		if (patch == null) {
+			state.sinceSnapshot = 0;
+		}
+
+		state.version++;
+		state.payload = payload;
+		state.fields = writeState(payload);
+		DeltaPayload snapshot = new DeltaPayload(type, state.version, null, state.fields);
+		if (patch == null) {
+			return new Update(true, null, snapshot);
+		}
+		return new Update(true, new DeltaPayload(type, state.version, state.version - 1, patch), snapshot);
+	}
+
+	private RawJson writeState(Payload payload) {
+		out.reset();
+		if (!PayloadFields.writeState(out, payload)) {
+			// No generated code for this class, so go through Gson
+			JsonObject fields = gson.toJsonTree(payload).getAsJsonObject();
+			fields.remove("type");
+			fields.remove("seq");
+			out.value(fields);
+		}
+		return RawJson.copyOf(out);
+	}
+
+	/**
+	 * The forms of one payload that delta clients may be sent.
+	 */
+	static final class Update {
+		private final boolean changed;
+		private final DeltaPayload delta;
+		private final DeltaPayload snapshot;
+
+		private Update(boolean changed, DeltaPayload delta, DeltaPayload snapshot) {
+			this.changed = changed;
+			this.delta = delta;
+			this.snapshot = snapshot;
+		}
+
+		/**
+		 * False if the payload equals the previous version, which is then unchanged.
+		 */
+		boolean isChanged() {
+			return changed;
+		}
+
+		/**
+		 * The patch from the previous version, or null if every client should get the
+		 * snapshot.
+		 */
+		DeltaPayload getDelta() {
+			return delta;
+		}
+
+		DeltaPayload getSnapshot() {
+			return snapshot;
+		}
+	}
+
+	private static final class State {
+		long version;
+		/**
+		 * The latest version, which the next one is diffed against.
+		 */
+		Payload payload;
+		/**
+		 * Its state fields, as sent in a snapshot.
+		 */
+		RawJson fields;
+		int sinceSnapshot;
+	}
+}
@@ -1,9 +1,18 @@
 package com.chektek;
 
+import java.util.List;
+
+import com.chektek.payload.PayloadType;
+
 public class Message {
     String messageType;
     String pluginId;
     Boolean isActive;
+    Boolean enabled;
+    List<PayloadType> types;
+    Double maxPerSecond;
+    Long epoch;
+    Long lastSeq;
 
     Message(String messageType) {
         this.messageType = messageType;
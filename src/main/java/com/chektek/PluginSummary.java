@@ -1,5 +1,8 @@
 package com.chektek;
 
+import com.chektek.codegen.PayloadClass;
+
+@PayloadClass
 public class PluginSummary {
 	private final String id;
 	private final String name;
@@ -0,0 +1,176 @@
+package com.chektek;
+
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+import com.chektek.payload.PayloadType;
+import com.chektek.websocket.OutboundFrame;
+import com.chektek.websocket.WebSocketConnection;
+
+/**
+ * Limits how often one client is sent each payload type.
+ * <p>
+ * The first update after a quiet interval is sent right away. Updates that
+ * arrive sooner replace each other, and the newest is sent once the interval
+ * has passed, so the client always ends up with the latest state.
+ * <p>
+ * Limits can be changed from any thread. Offers and flushes run on the
+ * connection's IO loop, so the per-type state needs no locking.
+ */
+public class RateLimiter {
+
+	/**
+	 * Replaced rather than modified, so the broadcast path can read it without
+	 * locking.
+	 */
+	private volatile Map<PayloadType, Long> intervals = new EnumMap<>(PayloadType.class);
+
+	private final Map<PayloadType, Topic> topics = new EnumMap<>(PayloadType.class);
+	private final LongSupplier clock;
+	/**
+	 * The client's connection as a target, made on the first offer.
+	 */
+	private Target connectionTarget;
+
+	public RateLimiter() {
+		this(System::nanoTime);
+	}
+
+	RateLimiter(LongSupplier clock) {
+		this.clock = clock;
+	}
+
+	public boolean isLimited(PayloadType type) {
+		return intervals.containsKey(type);
+	}
+
+	/**
+	 * Sets the minimum time between two updates of a type, or removes the limit if
+	 * {@code intervalNanos} is not positive.
+	 */
+	public synchronized void setInterval(PayloadType type, long intervalNanos) {
+		Map<PayloadType, Long> updated = new EnumMap<>(intervals);
+		if (intervalNanos > 0) {
+			updated.put(type, intervalNanos);
+		} else {
+			updated.remove(type);
+		}
+		intervals = updated;
+	}
+
+	public Map<PayloadType, Long> getIntervals() {
+		return intervals;
+	}
+
+	/**
+	 * Sends the frame now or holds it until the type's interval has passed. The
+	 * limiter takes its own reference to a frame it holds. Must be called on the
+	 * connection's IO loop.
+	 */
+	void offer(WebSocketConnection conn, PayloadType type, OutboundFrame frame, Object conflationKey) {
+		if (connectionTarget == null) {
+			connectionTarget = new ConnectionTarget(conn);
+		}
+		offer(connectionTarget, type, frame, conflationKey);
+	}
+
+	void offer(Target conn, PayloadType type, OutboundFrame frame, Object conflationKey) {
+		Topic topic = topics.computeIfAbsent(type, t -> new Topic());
+		Long interval = intervals.get(type);
+		long now = clock.getAsLong();
+
+		if (interval == null || (topic.pending == null && (!topic.sent || now - topic.lastSentNanos >= interval))) {
+			// A frame still held from before the limit was removed is older than
+			// this one, so its flush must not send it after this
+			if (topic.pending != null) {
+				topic.pending.release();
+				topic.pending = null;
+			}
+			send(conn, topic, frame, conflationKey, now);
+			return;
+		}
+
+		frame.retain();
+		if (topic.pending != null) {
+			topic.pending.release();
+		}
+		topic.pending = frame;
+
+		if (!topic.flushScheduled) {
+			topic.flushScheduled = true;
+			long delay = Math.max(0, topic.lastSentNanos + interval - now);
+			conn.schedule(delay, () -> flush(conn, topic, conflationKey));
+		}
+	}
+
+	private void flush(Target conn, Topic topic, Object conflationKey) {
+		topic.flushScheduled = false;
+		OutboundFrame frame = topic.pending;
+		topic.pending = null;
+		if (frame == null) {
+			return;
+		}
+
+		try {
+			if (conn.isOpen()) {
+				send(conn, topic, frame, conflationKey, clock.getAsLong());
+			}
+		} finally {
+			frame.release();
+		}
+	}
+
+	private static void send(Target conn, Topic topic, OutboundFrame frame, Object conflationKey, long now) {
+		topic.sent = true;
+		topic.lastSentNanos = now;
+		try {
+			conn.send(frame, conflationKey);
+		} catch (IOException e) {
+			// Already scheduled for closing by the queue
+		}
+	}
+
+	/**
+	 * Where a limiter sends frames and schedules its flushes: the client's
+	 * connection, or a stand-in in tests.
+	 */
+	interface Target {
+		void send(OutboundFrame frame, Object conflationKey) throws IOException;
+
+		void schedule(long delayNanos, Runnable task);
+
+		boolean isOpen();
+	}
+
+	private static final class ConnectionTarget implements Target {
+		private final WebSocketConnection conn;
+
+		private ConnectionTarget(WebSocketConnection conn) {
+			this.conn = conn;
+		}
+
+		@Override
+		public void send(OutboundFrame frame, Object conflationKey) throws IOException {
+			conn.send(frame, conflationKey);
+		}
+
+		@Override
+		public void schedule(long delayNanos, Runnable task) {
+			conn.schedule(delayNanos, task);
+		}
+
+		@Override
+		public boolean isOpen() {
+			return conn.isOpen();
+		}
+	}
+
+	private static final class Topic {
+		boolean sent;
+		long lastSentNanos;
+		OutboundFrame pending;
+		boolean flushScheduled;
+	}
+}
@@ -0,0 +1,130 @@
+package com.chektek;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.chektek.payload.Payload;
+import com.chektek.payload.PayloadType;
+
+/**
+ * Stamps every broadcast with a sequence number and remembers the most recent
+ * ones, so a client that reconnects can be sent only what it missed.
+ * <p>
+ * Besides the ring of the last {@link #getCapacity()} messages, it keeps the
+ * latest message of each state type, which serves as the snapshot for a new
+ * client or one whose gap has aged out of the ring.
+ * <p>
+ * Sequence numbers restart with every server, so each ring has an epoch, and a
+ * sequence number only identifies a message together with the epoch it was
+ * issued under.
+ */
+class ReplayRing {
+
+	private final Entry[] entries;
+	private final Map<PayloadType, Entry> latest = new EnumMap<>(PayloadType.class);
+	private final long epoch;
+
+	private long lastSeq;
+
+	ReplayRing(int capacity, long epoch) {
+		this.entries = new Entry[capacity];
+		this.epoch = epoch;
+	}
+
+	int getCapacity() {
+		return entries.length;
+	}
+
+	long getEpoch() {
+		return epoch;
+	}
+
+	synchronized long getLastSeq() {
+		return lastSeq;
+	}
+
+	/**
+	 * Stamps a payload with the next sequence number and records it.
+	 */
+	synchronized long record(Payload payload) {
+		long seq = ++lastSeq;
+		payload.setSeq(seq);
+		add(new Entry(seq, payload.getType(), payload));
+		return seq;
+	}
+
+	private void add(Entry entry) {
+		entries[(int) (entry.seq % entries.length)] = entry;
+		if (entry.type == PayloadType.LOGOUT) {
+			// Game state from before the logout is stale, unlike the plugin list
+			latest.values().removeIf(e -> e.type != PayloadType.PLUGINS);
+		}
+		if (entry.type.isState()) {
+			latest.put(entry.type, entry);
+		}
+	}
+
+	/**
+	 * The messages broadcast after {@code seq}, oldest first, or null if some of
+	 * them have aged out of the ring or {@code seq} is not from this epoch. A state
+	 * message is left out if a newer one of its type follows it.
+	 */
+	synchronized List<Entry> since(long epoch, long seq) {
+		if (epoch != this.epoch || seq < 0 || seq > lastSeq || lastSeq - seq > entries.length) {
+			return null;
+		}
+
+		List<Entry> gap = new ArrayList<>();
+		Set<PayloadType> newer = EnumSet.noneOf(PayloadType.class);
+		for (long s = lastSeq; s > seq; s--) {
+			Entry entry = entries[(int) (s % entries.length)];
+			if (!entry.type.isState() || newer.add(entry.type)) {
+				gap.add(entry);
+			}
+		}
+		Collections.reverse(gap);
+		return gap;
+	}
+
+	/**
+	 * The latest message of each state type, oldest first.
+	 */
+	synchronized List<Entry> snapshot() {
+		List<Entry> snapshot = new ArrayList<>(latest.values());
+		snapshot.sort(Comparator.comparingLong(Entry::getSeq));
+		return snapshot;
+	}
+
+	/**
+	 * A recorded payload.
+	 */
+	static final class Entry {
+		private final long seq;
+		private final PayloadType type;
+		private final Payload payload;
+
+		private Entry(long seq, PayloadType type, Payload payload) {
+			this.seq = seq;
+			this.type = type;
+			this.payload = payload;
+		}
+
+		long getSeq() {
+			return seq;
+		}
+
+		PayloadType getType() {
+			return type;
+		}
+
+		Payload getPayload() {
+			return payload;
+		}
+	}
+}
@@ -2,7 +2,14 @@ package com.chektek;
 
 import net.runelite.client.config.Config;
 import net.runelite.client.config.ConfigGroup;
+import net.runelite.client.config.ConfigItem;
 
-@ConfigGroup("runedeck")
+@ConfigGroup(RuneDeckConfig.GROUP)
 public interface RuneDeckConfig extends Config {
+	String GROUP = "runedeck";
+
+	@ConfigItem(keyName = "sharedMemory", name = "Shared memory transport", description = "Also publish payloads to rune-deck.shm in the RuneLite folder, for readers on this machine")
+	default boolean sharedMemory() {
+		return false;
+	}
 }
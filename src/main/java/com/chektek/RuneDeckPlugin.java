@@ -1,31 +1,44 @@
 package com.chektek;
 
+import java.io.File;
+import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
 
 import javax.inject.Inject;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.chektek.payload.ActivityPayload;
-import com.chektek.payload.EquipmentPayload;
-import com.chektek.payload.FPSPayload;
-import com.chektek.payload.GrandExchangePayload;
+import com.chektek.metrics.Histogram;
+import com.chektek.metrics.StatsRegistry;
 import com.chektek.payload.LogoutPayload;
-import com.chektek.payload.MovementPayload;
-import com.chektek.payload.OverheadPayload;
-import com.chektek.payload.PVPPayload;
-import com.chektek.payload.SkillsPayload;
+import com.chektek.payload.Payload;
+import com.chektek.payload.PayloadCollector;
+import com.chektek.payload.PayloadCollectorRegistry;
+import com.chektek.payload.PayloadCollectors;
+import com.chektek.payload.PayloadType;
+import com.chektek.shm.SharedMemoryPublisher;
 import com.google.gson.Gson;
 import com.google.inject.Provides;
 
 import net.runelite.api.Client;
 import net.runelite.api.GameState;
+import net.runelite.api.events.AnimationChanged;
 import net.runelite.api.events.GameStateChanged;
 import net.runelite.api.events.GameTick;
+import net.runelite.api.events.GrandExchangeOfferChanged;
+import net.runelite.api.events.InteractingChanged;
+import net.runelite.api.events.ItemContainerChanged;
+import net.runelite.api.events.PlayerChanged;
+import net.runelite.api.events.StatChanged;
+import net.runelite.api.gameval.InventoryID;
+import net.runelite.client.RuneLite;
 import net.runelite.client.config.ConfigManager;
 import net.runelite.client.eventbus.Subscribe;
+import net.runelite.client.events.ConfigChanged;
 import net.runelite.client.events.PluginChanged;
 import net.runelite.client.plugins.Plugin;
 import net.runelite.client.plugins.PluginDescriptor;
@@ -35,7 +48,7 @@ public class RuneDeckPlugin extends Plugin {
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(RuneDeckConfig.class);
 	private static final int[] PORTS_TO_TRY = { 42023, 43060, 43020 };
-	private PayloadCache payloadCache = PayloadCache.getInstance();
+	private static final File SHARED_MEMORY_FILE = new File(RuneLite.RUNELITE_DIR, "rune-deck.shm");
 
 	@Inject
 	private Client client;
@@ -46,7 +59,24 @@ public class RuneDeckPlugin extends Plugin {
 	@Inject
 	private PluginControlService pluginControlService;
 
+	@Inject
+	private RuneDeckConfig config;
+
 	private RuneDeckSocketServer runeDeckSocketServer;
+	/**
+	 * Replaced from the config thread while the client thread publishes, so readers
+	 * copy it to a local first.
+	 */
+	private volatile SharedMemoryPublisher sharedMemoryPublisher;
+	private StatsRegistry stats;
+	private Histogram tickNanos;
+	private PayloadCollectorRegistry collectors;
+	private long tickCount;
+	/**
+	 * The payloads that changed this tick; reused so a tick without changes
+	 * allocates nothing.
+	 */
+	private final List<Payload> changed = new ArrayList<>();
 
 	static boolean isPortAvailable(int port) {
 		try (ServerSocket serverSocket = new ServerSocket()) {
@@ -71,7 +101,18 @@ public class RuneDeckPlugin extends Plugin {
 			try {
 				this.runeDeckSocketServer = new RuneDeckSocketServer(port, gson, pluginControlService);
 				this.runeDeckSocketServer.start();
+				this.stats = this.runeDeckSocketServer.getStats();
+				this.tickNanos = stats.histogram("tick.totalNanos");
+				this.collectors = new PayloadCollectorRegistry(stats);
+				for (PayloadCollector<?> collector : PayloadCollectors.defaults()) {
+					this.collectors.register(collector);
+				}
 				LOGGER.info("RuneDeckSocketServer starting on port: " + port);
+
+				// Only once the server is up, so a failed start leaves no file open
+				if (config.sharedMemory()) {
+					startSharedMemory();
+				}
 				return;
 			} catch (Exception e) {
 				LOGGER.warn("Failed to start server on port " + port + ": " + e.getMessage());
@@ -85,12 +126,47 @@ public class RuneDeckPlugin extends Plugin {
 
 	@Override
 	protected void shutDown() throws Exception {
+		stopSharedMemory();
 		if (this.runeDeckSocketServer != null) {
 			this.runeDeckSocketServer.stop();
 			this.runeDeckSocketServer = null;
 		}
 	}
 
+	private void startSharedMemory() {
+		try {
+			this.sharedMemoryPublisher = new SharedMemoryPublisher(SHARED_MEMORY_FILE.toPath(), gson);
+			LOGGER.info("Publishing to shared memory file: " + SHARED_MEMORY_FILE);
+		} catch (IOException e) {
+			LOGGER.warn("Failed to open shared memory file " + SHARED_MEMORY_FILE + ": " + e.getMessage());
+		}
+	}
+
+	private void stopSharedMemory() {
+		SharedMemoryPublisher publisher = this.sharedMemoryPublisher;
+		if (publisher == null) {
+			return;
+		}
+		this.sharedMemoryPublisher = null;
+		try {
+			publisher.close();
+		} catch (IOException e) {
+			LOGGER.warn("Failed to close shared memory file: " + e.getMessage());
+		}
+	}
+
+	@Subscribe
+	public void onConfigChanged(ConfigChanged configChanged) {
+		if (!RuneDeckConfig.GROUP.equals(configChanged.getGroup()) || !"sharedMemory".equals(configChanged.getKey())) {
+			return;
+		}
+
+		stopSharedMemory();
+		if (config.sharedMemory()) {
+			startSharedMemory();
+		}
+	}
+
 	@Subscribe
 	public void onGameStateChanged(GameStateChanged gameStateChanged) {
 
@@ -102,53 +178,69 @@ public class RuneDeckPlugin extends Plugin {
 		if (userLoggedIn || gameIsLoading)
 			return;
 
-		this.runeDeckSocketServer.broadcast(new LogoutPayload());
-		payloadCache.clearCache();
+		LogoutPayload logoutPayload = new LogoutPayload();
+		this.runeDeckSocketServer.broadcast(logoutPayload);
+		SharedMemoryPublisher publisher = this.sharedMemoryPublisher;
+		if (publisher != null) {
+			publisher.publish(logoutPayload);
+		}
+		this.collectors.reset();
 	}
 
 	@Subscribe
-	public void onGameTick(GameTick tick) {
-
-		if (payloadCache.movementPayload.isNewPayload(this.client)) {
-			payloadCache.movementPayload = new MovementPayload(this.client);
-			this.runeDeckSocketServer.broadcast(payloadCache.movementPayload);
-		}
-
-		if (payloadCache.overheadPayload.isNewPayload(this.client)) {
-			payloadCache.overheadPayload = new OverheadPayload(this.client);
-			this.runeDeckSocketServer.broadcast(payloadCache.overheadPayload);
-		}
+	public void onStatChanged(StatChanged statChanged) {
+		this.collectors.markDirty(PayloadType.SKILLS);
+	}
 
-		if (payloadCache.skillsPayload.isNewPayload(this.client)) {
-			payloadCache.skillsPayload = new SkillsPayload(this.client);
-			this.runeDeckSocketServer.broadcast(payloadCache.skillsPayload);
+	@Subscribe
+	public void onItemContainerChanged(ItemContainerChanged itemContainerChanged) {
+		if (itemContainerChanged.getContainerId() == InventoryID.WORN) {
+			this.collectors.markDirty(PayloadType.EQUIPMENT);
 		}
+	}
 
-		if (payloadCache.pvpPayload.isNewPayload(this.client)) {
-			payloadCache.pvpPayload = new PVPPayload(this.client);
-			this.runeDeckSocketServer.broadcast(payloadCache.pvpPayload);
+	@Subscribe
+	public void onPlayerChanged(PlayerChanged playerChanged) {
+		// The equipment ids come from the player's appearance, which can update
+		// after the worn items do
+		if (playerChanged.getPlayer() == client.getLocalPlayer()) {
+			this.collectors.markDirty(PayloadType.EQUIPMENT);
 		}
+	}
 
-		if (payloadCache.equipmentPayload.isNewPayload(this.client)) {
-			payloadCache.equipmentPayload = new EquipmentPayload(this.client);
-			this.runeDeckSocketServer.broadcast(payloadCache.equipmentPayload);
-		}
+	@Subscribe
+	public void onGrandExchangeOfferChanged(GrandExchangeOfferChanged offerChanged) {
+		this.collectors.markDirty(PayloadType.GRAND_EXCHANGE);
+	}
 
-		if (payloadCache.fpsPayload.isNewPayload(this.client)) {
-			payloadCache.fpsPayload = new FPSPayload(this.client);
-			this.runeDeckSocketServer.broadcast(payloadCache.fpsPayload);
+	@Subscribe
+	public void onAnimationChanged(AnimationChanged animationChanged) {
+		if (animationChanged.getActor() == client.getLocalPlayer()) {
+			this.collectors.markDirty(PayloadType.ACTIVITY);
 		}
+	}
 
-		if (payloadCache.grandExchangePayload.isNewPayload(this.client)) {
-			payloadCache.grandExchangePayload = new GrandExchangePayload(this.client);
-			this.runeDeckSocketServer.broadcast(payloadCache.grandExchangePayload);
+	@Subscribe
+	public void onInteractingChanged(InteractingChanged interactingChanged) {
+		if (interactingChanged.getSource() == client.getLocalPlayer()) {
+			this.collectors.markDirty(PayloadType.ACTIVITY);
 		}
+	}
 
-		if (payloadCache.activityPayload.isNewPayload(this.client)) {
-			payloadCache.activityPayload = new ActivityPayload(this.client);
-			this.runeDeckSocketServer.broadcast(payloadCache.activityPayload);
+	@Subscribe
+	public void onGameTick(GameTick tick) {
+		long tickStart = System.nanoTime();
+		changed.clear();
+
+		this.collectors.collect(this.client, ++tickCount, System.currentTimeMillis(), changed);
+		this.runeDeckSocketServer.broadcastTick(tickCount, changed);
+		SharedMemoryPublisher publisher = this.sharedMemoryPublisher;
+		if (publisher != null) {
+			for (int i = 0; i < changed.size(); i++) {
+				publisher.publish(changed.get(i));
+			}
 		}
-
+		tickNanos.record(System.nanoTime() - tickStart);
 	}
 
 	@Subscribe
@@ -1,13 +1,36 @@
 package com.chektek;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.chektek.codec.BinaryPayloadCodec;
+import com.chektek.codec.JsonPayloadCodec;
+import com.chektek.codec.PayloadCodec;
+import com.chektek.metrics.Histogram;
+import com.chektek.metrics.StatsRegistry;
+import com.chektek.payload.DeltaPayload;
 import com.chektek.payload.Payload;
 import com.chektek.payload.PayloadType;
+import com.chektek.payload.PluginChangedPayload;
+import com.chektek.payload.PluginsPayload;
+import com.chektek.websocket.OutboundFrame;
 import com.chektek.websocket.WebSocketConnection;
 import com.chektek.websocket.WebSocketServer;
 import com.google.gson.Gson;
@@ -17,21 +40,481 @@ import net.runelite.client.plugins.Plugin;
 public class RuneDeckSocketServer extends WebSocketServer {
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(RuneDeckSocketServer.class);
+	private static final int REPLAY_CAPACITY = 1024;
+	/**
+	 * How long a new client has to ask to resume or to subscribe before it is sent
+	 * the latest message of every type.
+	 */
+	private static final long INITIAL_SNAPSHOT_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(250);
 
 	private final Gson gson;
 	private final PluginControlService pluginControlService;
+	private final PayloadCodec jsonCodec;
+	private final List<PayloadCodec> codecs;
+	private final DeltaTracker deltaTracker;
+	private final ReplayRing replayRing = new ReplayRing(REPLAY_CAPACITY, System.currentTimeMillis());
+	private final LongAdder catchUps;
+	private final Map<PayloadCodec, Map<PayloadType, EncodeStats>> encodeStats = new IdentityHashMap<>();
+	private final Map<PayloadCodec, Map<PayloadType, EncodeStats>> deltaEncodeStats = new IdentityHashMap<>();
 
-	private PayloadCache payloadCache = PayloadCache.getInstance();
+	/**
+	 * Held while broadcasting and while catching a client up, so a catch-up never
+	 * interleaves with a broadcast and the delta tracker sees one thread at a time.
+	 */
+	private final Object sendLock = new Object();
 
 	public RuneDeckSocketServer(int port, Gson gson, PluginControlService pluginControlService) {
 		super(port);
 		this.gson = gson;
 		this.pluginControlService = pluginControlService;
+		this.jsonCodec = new JsonPayloadCodec(gson, getBufferPool());
+		this.codecs = List.of(new BinaryPayloadCodec(gson, getBufferPool()), jsonCodec);
+		this.deltaTracker = new DeltaTracker(gson);
+		this.catchUps = getStats().counter("client.catchUps");
+		for (PayloadCodec codec : codecs) {
+			encodeStats.put(codec, encodeStats(codec, ""));
+			deltaEncodeStats.put(codec, encodeStats(codec, ".delta"));
+		}
+		setSubprotocols(List.of(BinaryPayloadCodec.PROTOCOL, JsonPayloadCodec.PROTOCOL));
 	}
 
+	/**
+	 * Encodes the payload once per codec in use and sends each client the encoding
+	 * it negotiated. Clients whose codec cannot encode this payload type, or that
+	 * negotiated nothing, get JSON. Only clients subscribed to the payload's type
+	 * receive it, and nothing is encoded if there are none. Clients with a rate
+	 * limit on the type get it through their {@link RateLimiter}.
+	 */
 	public void broadcast(Payload payload) {
-		String payloadJSON = this.gson.toJson(payload);
-		super.broadcast(payloadJSON);
+		synchronized (sendLock) {
+			send(prepare(payload), conn -> true);
+		}
+	}
+
+	private void broadcast(Payload payload, Predicate<WebSocketConnection> audience) {
+		PayloadType type = payload.getType();
+		long seq = payload.getSeq();
+		Predicate<WebSocketConnection> subscribed = audience.and(conn -> isSubscribed(conn, type));
+		Predicate<WebSocketConnection> limited = subscribed.and(conn -> isLimited(conn, type));
+		if (hasConnection(limited)) {
+			offerLimited(payload, limited);
+		}
+
+		audience = subscribed.and(conn -> !isLimited(conn, type));
+		Object conflationKey = conflationKey(payload);
+		Set<String> encoded = new HashSet<>();
+
+		for (PayloadCodec codec : codecs) {
+			if (codec == jsonCodec) {
+				continue;
+			}
+			String protocol = codec.getProtocol();
+			Predicate<WebSocketConnection> filter = audience.and(conn -> protocol.equals(conn.getSubprotocol()));
+			if (!hasConnection(filter)) {
+				continue;
+			}
+			OutboundFrame frame = encode(codec, payload);
+			if (frame == null) {
+				continue;
+			}
+			encoded.add(protocol);
+			try {
+				broadcast(frame, conflationKey, unseen(filter, type, seq));
+			} finally {
+				frame.release();
+			}
+		}
+
+		Predicate<WebSocketConnection> filter = audience.and(conn -> !encoded.contains(conn.getSubprotocol()));
+		if (!hasConnection(filter)) {
+			return;
+		}
+		OutboundFrame json = encode(jsonCodec, payload);
+		try {
+			broadcast(json, conflationKey, unseen(filter, type, seq));
+		} finally {
+			json.release();
+		}
+	}
+
+	/**
+	 * Wraps a broadcast filter so that a client is not sent a message a catch-up
+	 * already gave it, and records what it is sent. Runs on the client's IO loop as
+	 * the frame is queued, after any catch-up that client asked for.
+	 */
+	private static Predicate<WebSocketConnection> unseen(Predicate<WebSocketConnection> filter, PayloadType type,
+			long seq) {
+		return conn -> {
+			ClientSession session = ClientSession.of(conn);
+			if (session == null || session.hasSeen(type, seq) || !filter.test(conn)) {
+				return false;
+			}
+			session.markSeen(type, seq);
+			return true;
+		};
+	}
+
+	/**
+	 * Hands the payload to the rate limiter of each client in {@code limited},
+	 * encoding it at most once per codec.
+	 */
+	private void offerLimited(Payload payload, Predicate<WebSocketConnection> limited) {
+		PayloadType type = payload.getType();
+		Object conflationKey = conflationKey(payload);
+		Map<PayloadCodec, OutboundFrame> frames = new HashMap<>();
+		try {
+			for (WebSocketConnection conn : getConnections()) {
+				if (!limited.test(conn)) {
+					continue;
+				}
+				ClientSession session = ClientSession.of(conn);
+				if (session.hasSeen(type, payload.getSeq())) {
+					continue;
+				}
+				session.markSeen(type, payload.getSeq());
+
+				OutboundFrame frame = encodeOnce(frames, codecFor(conn), payload);
+				if (frame == null) {
+					frame = encodeOnce(frames, jsonCodec, payload);
+				}
+
+				RateLimiter limiter = session.getRateLimiter();
+				OutboundFrame offered = frame.retain();
+				conn.execute(() -> {
+					try {
+						limiter.offer(conn, type, offered, conflationKey);
+					} finally {
+						offered.release();
+					}
+				});
+			}
+		} finally {
+			for (OutboundFrame frame : frames.values()) {
+				if (frame != null) {
+					frame.release();
+				}
+			}
+		}
+	}
+
+	private OutboundFrame encodeOnce(Map<PayloadCodec, OutboundFrame> frames, PayloadCodec codec, Payload payload) {
+		if (!frames.containsKey(codec)) {
+			frames.put(codec, encode(codec, payload));
+		}
+		return frames.get(codec);
+	}
+
+	/**
+	 * Sends the payloads that changed in one game tick. Clients that asked for
+	 * batching get them in a single BATCH message, encoded once per codec in use;
+	 * everyone else gets one message per payload as usual.
+	 * <p>
+	 * A batch only holds the payloads its client is subscribed to, so one batch is
+	 * encoded for each distinct set of subscribed types and each codec.
+	 * <p>
+	 * Batches are never conflated: each one may be the only message carrying some
+	 * of its payloads.
+	 * <p>
+	 * The list is not kept, so the caller may reuse it.
+	 */
+	public void broadcastTick(long tick, List<Payload> payloads) {
+		if (payloads.isEmpty()) {
+			return;
+		}
+		synchronized (sendLock) {
+			sendTick(tick, payloads);
+		}
+	}
+
+	private void sendTick(long tick, List<Payload> payloads) {
+		List<Prepared> prepared = new ArrayList<>(payloads.size());
+		for (Payload payload : payloads) {
+			prepared.add(prepare(payload));
+		}
+
+		// Rate limited types are sent on their own, at the client's pace
+		for (Prepared payload : prepared) {
+			PayloadType type = payload.getType();
+			send(payload, conn -> !isBatching(conn) || isLimited(conn, type));
+		}
+
+		if (!hasConnection(RuneDeckSocketServer::isBatching)) {
+			return;
+		}
+
+		// Group batching clients by what their batch holds
+		Map<WebSocketConnection, List<Payload>> wanted = new IdentityHashMap<>();
+		List<List<Payload>> batches = new ArrayList<>();
+		for (WebSocketConnection conn : getConnections()) {
+			if (!isBatching(conn)) {
+				continue;
+			}
+			List<Payload> batch = new ArrayList<>(prepared.size());
+			for (Prepared payload : prepared) {
+				PayloadType type = payload.getType();
+				Payload form = isSubscribed(conn, type) && !isLimited(conn, type) ? payload.forClient(conn) : null;
+				if (form != null) {
+					batch.add(form);
+				}
+			}
+			if (batch.isEmpty()) {
+				continue;
+			}
+			List<Payload> same = sameBatch(batches, batch);
+			if (same == null) {
+				batches.add(batch);
+				same = batch;
+			}
+			wanted.put(conn, same);
+		}
+
+		for (List<Payload> batch : batches) {
+			for (PayloadCodec codec : codecs) {
+				Predicate<WebSocketConnection> filter = conn -> codecFor(conn) == codec && wanted.get(conn) == batch;
+				if (!hasConnection(filter)) {
+					continue;
+				}
+				long start = System.nanoTime();
+				OutboundFrame frame = codec.encodeBatch(tick, batch);
+				encodeStats.get(codec).get(PayloadType.BATCH).record(System.nanoTime() - start, frame.length());
+				try {
+					broadcast(frame, null, markSeen(filter, batch));
+				} finally {
+					frame.release();
+				}
+			}
+		}
+	}
+
+	/**
+	 * The batch in {@code batches} holding the same payload objects as
+	 * {@code batch}, or null. A tick prepares one object for each form of a
+	 * payload, so comparing by identity is enough and never compares state.
+	 */
+	private static List<Payload> sameBatch(List<List<Payload>> batches, List<Payload> batch) {
+		for (List<Payload> candidate : batches) {
+			if (candidate.size() != batch.size()) {
+				continue;
+			}
+			int i = 0;
+			while (i < batch.size() && candidate.get(i) == batch.get(i)) {
+				i++;
+			}
+			if (i == batch.size()) {
+				return candidate;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Wraps a batch filter to record the payloads each client is sent. A batch is
+	 * sent whole, even if a catch-up already covered some of it.
+	 */
+	private static Predicate<WebSocketConnection> markSeen(Predicate<WebSocketConnection> filter, List<Payload> batch) {
+		return conn -> {
+			if (!filter.test(conn)) {
+				return false;
+			}
+			ClientSession session = ClientSession.of(conn);
+			for (Payload payload : batch) {
+				session.markSeen(payload.getType(), payload.getSeq());
+			}
+			return true;
+		};
+	}
+
+	/**
+	 * Works out what each delta client should get for a payload. Other clients get
+	 * the payload itself.
+	 */
+	private Prepared prepare(Payload payload) {
+		PayloadType type = payload.getType();
+		long seq = replayRing.record(payload);
+		if (!isVersioned(type) || !hasConnection(RuneDeckSocketServer::wantsDeltas)) {
+			return new Prepared(payload, null);
+		}
+
+		DeltaTracker.Update update = deltaTracker.update(payload);
+		update.getSnapshot().setSeq(seq);
+		if (update.getDelta() != null) {
+			update.getDelta().setSeq(seq);
+		}
+		Prepared prepared = new Prepared(payload, update);
+		for (WebSocketConnection conn : getConnections()) {
+			ClientSession session = ClientSession.of(conn);
+			if (session == null || !session.isDeltas() || !session.isSubscribed(type)) {
+				continue;
+			}
+
+			// A rate limiter may drop versions, so limited clients only get snapshots
+			boolean limited = session.getRateLimiter().isLimited(type);
+			if (update.isChanged() && update.getDelta() != null && session.isSynced(type) && !limited) {
+				prepared.deltaTargets.add(conn);
+			} else if (update.isChanged() || !session.isSynced(type)) {
+				prepared.snapshotTargets.add(conn);
+				if (limited) {
+					session.resync(List.of(type));
+				} else {
+					session.markSynced(type);
+				}
+			}
+		}
+		return prepared;
+	}
+
+	private void send(Prepared prepared, Predicate<WebSocketConnection> audience) {
+		if (prepared.update == null) {
+			broadcast(prepared.payload, audience);
+			return;
+		}
+
+		broadcast(prepared.payload, audience.and(conn -> !wantsDeltas(conn)));
+		if (!prepared.snapshotTargets.isEmpty()) {
+			broadcast(prepared.update.getSnapshot(), audience.and(prepared.snapshotTargets::contains));
+		}
+		if (!prepared.deltaTargets.isEmpty()) {
+			broadcast(prepared.update.getDelta(), audience.and(prepared.deltaTargets::contains));
+		}
+	}
+
+	/**
+	 * True for the types delta clients get as deltas: the game state. The plugin
+	 * list is always sent whole.
+	 */
+	private static boolean isVersioned(PayloadType type) {
+		return type.isState() && type != PayloadType.PLUGINS;
+	}
+
+	private static boolean wantsDeltas(WebSocketConnection conn) {
+		ClientSession session = ClientSession.of(conn);
+		return session != null && session.isDeltas();
+	}
+
+	private static boolean isBatching(WebSocketConnection conn) {
+		ClientSession session = ClientSession.of(conn);
+		return session != null && session.isBatching();
+	}
+
+	private static boolean isSubscribed(WebSocketConnection conn, PayloadType type) {
+		ClientSession session = ClientSession.of(conn);
+		return session != null && session.isSubscribed(type);
+	}
+
+	private static boolean isLimited(WebSocketConnection conn, PayloadType type) {
+		ClientSession session = ClientSession.of(conn);
+		return session != null && session.getRateLimiter().isLimited(type);
+	}
+
+	/**
+	 * The codec a client negotiated, JSON if it negotiated none.
+	 */
+	private PayloadCodec codecFor(WebSocketConnection conn) {
+		String protocol = conn.getSubprotocol();
+		for (PayloadCodec codec : codecs) {
+			if (codec.getProtocol().equals(protocol)) {
+				return codec;
+			}
+		}
+		return jsonCodec;
+	}
+
+	private OutboundFrame encode(PayloadCodec codec, Payload payload) {
+		long start = System.nanoTime();
+		OutboundFrame frame = codec.encode(payload);
+		if (frame != null) {
+			Map<PayloadCodec, Map<PayloadType, EncodeStats>> stats = payload instanceof DeltaPayload
+					? deltaEncodeStats : encodeStats;
+			stats.get(codec).get(payload.getType()).record(System.nanoTime() - start, frame.length());
+		}
+		return frame;
+	}
+
+	private Map<PayloadType, EncodeStats> encodeStats(PayloadCodec codec, String suffix) {
+		Map<PayloadType, EncodeStats> byType = new EnumMap<>(PayloadType.class);
+		for (PayloadType type : PayloadType.values()) {
+			byType.put(type, new EncodeStats(getStats(), "payload." + type + suffix + "." + codec.getProtocol()));
+		}
+		return byType;
+	}
+
+	/**
+	 * Lagging clients only need the newest state payload of each type, but every
+	 * event payload.
+	 */
+	private static PayloadType conflationKey(PayloadType type) {
+		return type.isState() ? type : null;
+	}
+
+	/**
+	 * Deltas build on each other, so none of them may be replaced.
+	 */
+	private static PayloadType conflationKey(Payload payload) {
+		return payload instanceof DeltaPayload ? null : conflationKey(payload.getType());
+	}
+
+	/**
+	 * Encode time and size histograms for one payload type and codec. The histograms
+	 * are looked up on first use, so types that are never encoded stay out of the
+	 * stats.
+	 */
+	private static final class EncodeStats {
+		private final StatsRegistry stats;
+		private final String prefix;
+		private volatile Histogram nanos;
+		private volatile Histogram bytes;
+
+		private EncodeStats(StatsRegistry stats, String prefix) {
+			this.stats = stats;
+			this.prefix = prefix;
+		}
+
+		void record(long elapsedNanos, int length) {
+			Histogram nanos = this.nanos;
+			Histogram bytes = this.bytes;
+			if (nanos == null || bytes == null) {
+				// A racing first use resolves the same instances from the registry
+				nanos = this.nanos = stats.histogram(prefix + ".encodeNanos");
+				bytes = this.bytes = stats.histogram(prefix + ".encodeBytes");
+			}
+			nanos.record(elapsedNanos);
+			bytes.record(length);
+		}
+	}
+
+	/**
+	 * A payload ready to broadcast, with the forms delta clients get.
+	 */
+	private static final class Prepared {
+		private final Payload payload;
+		private final DeltaTracker.Update update;
+		private final Set<WebSocketConnection> snapshotTargets = Collections.newSetFromMap(new IdentityHashMap<>());
+		private final Set<WebSocketConnection> deltaTargets = Collections.newSetFromMap(new IdentityHashMap<>());
+
+		private Prepared(Payload payload, DeltaTracker.Update update) {
+			this.payload = payload;
+			this.update = update;
+		}
+
+		PayloadType getType() {
+			return payload.getType();
+		}
+
+		/**
+		 * What one client should get, or null if it needs nothing.
+		 */
+		Payload forClient(WebSocketConnection conn) {
+			if (update == null) {
+				return payload;
+			}
+			if (snapshotTargets.contains(conn)) {
+				return update.getSnapshot();
+			}
+			if (deltaTargets.contains(conn)) {
+				return update.getDelta();
+			}
+			return wantsDeltas(conn) ? null : payload;
+		}
 	}
 
 	@Override
@@ -41,12 +524,30 @@ public class RuneDeckSocketServer extends WebSocketServer {
 		} catch (Exception e) {
 			LOGGER.info("Client connected");
 		}
-		payloadCache.clearCache();
+		conn.setAttachment(new ClientSession());
+
+		Map<String, Object> hello = new LinkedHashMap<>();
+		hello.put("type", PayloadType.HELLO);
+		hello.put("epoch", replayRing.getEpoch());
+		try {
+			conn.send(this.gson.toJson(hello));
+		} catch (IOException e) {
+			LOGGER.warn("Failed to greet new client: " + e.getMessage());
+		}
+		// A resuming client already holds most of the snapshot
+		schedule(conn, INITIAL_SNAPSHOT_DELAY_NANOS, () -> sendInitialSnapshot(conn));
+	}
+
+	private void sendInitialSnapshot(WebSocketConnection conn) {
+		ClientSession session = ClientSession.of(conn);
+		if (session == null || !session.takeInitialSnapshot()) {
+			return;
+		}
+		catchUp(conn, EnumSet.allOf(PayloadType.class), false);
 	}
 
 	@Override
 	public void onClose(WebSocketConnection conn) {
-		payloadCache.clearCache();
 		LOGGER.info("RuneDeckSocketServer closed connection");
 	}
 
@@ -63,13 +564,64 @@ public class RuneDeckSocketServer extends WebSocketServer {
 			messageType = message.messageType;
 
 			if (message.messageType.equals("clearCache")) {
-				payloadCache.clearCache();
+				ClientSession session = ClientSession.of(conn);
+				if (session != null) {
+					session.resync(EnumSet.allOf(PayloadType.class));
+					catchUp(conn, EnumSet.allOf(PayloadType.class), true);
+				}
 			}
 
 			if (message.messageType.equals("getPlugins")) {
 				broadcastPluginList();
 			}
 
+			if (message.messageType.equals("getStats")) {
+				sendStats(conn);
+			}
+
+			if (message.messageType.equals("setBatching")) {
+				ClientSession session = ClientSession.of(conn);
+				if (session != null && message.enabled != null) {
+					session.setBatching(message.enabled);
+				} else {
+					LOGGER.warn("setBatching request missing enabled");
+				}
+			}
+
+			if (message.messageType.equals("subscribe") || message.messageType.equals("unsubscribe")) {
+				updateSubscriptions(conn, message);
+			}
+
+			if (message.messageType.equals("resume")) {
+				resume(conn, message.epoch, message.lastSeq);
+			}
+
+			if (message.messageType.equals("setDeltas")) {
+				ClientSession session = ClientSession.of(conn);
+				if (session != null && message.enabled != null) {
+					session.setDeltas(message.enabled);
+					if (message.enabled) {
+						catchUp(conn, EnumSet.allOf(PayloadType.class), true);
+					}
+				} else {
+					LOGGER.warn("setDeltas request missing enabled");
+				}
+			}
+
+			if (message.messageType.equals("resync")) {
+				ClientSession session = ClientSession.of(conn);
+				if (session != null) {
+					Set<PayloadType> types = message.types != null ? typesOf(message.types)
+							: EnumSet.allOf(PayloadType.class);
+					session.resync(types);
+					catchUp(conn, types, true);
+				}
+			}
+
+			if (message.messageType.equals("setRateLimit")) {
+				setRateLimit(conn, message);
+			}
+
 			if (message.messageType.equals("togglePlugin")) {
 				if (message.pluginId != null && message.isActive != null) {
 					pluginControlService.togglePlugin(message.pluginId, message.isActive);
@@ -83,9 +635,191 @@ public class RuneDeckSocketServer extends WebSocketServer {
 		}
 	}
 
+	/**
+	 * Replays what a reconnecting client missed since {@code lastSeq}, or sends it
+	 * the snapshot again if that has aged out of the replay ring or is from another
+	 * epoch, then tells it which it was.
+	 */
+	private void resume(WebSocketConnection conn, Long epoch, Long lastSeq) {
+		ClientSession session = ClientSession.of(conn);
+		if (session == null) {
+			return;
+		}
+		session.takeInitialSnapshot();
+
+		List<ReplayRing.Entry> gap;
+		AtomicInteger replayed = new AtomicInteger();
+		long seq;
+		synchronized (sendLock) {
+			gap = epoch != null && lastSeq != null ? replayRing.since(epoch, lastSeq) : null;
+			if (gap != null) {
+				for (ReplayRing.Entry entry : gap) {
+					// Broadcasts since the client connected are not sent twice
+					sendPayload(conn, session, entry.getPayload(), false, replayed);
+				}
+			} else {
+				catchUp(conn, EnumSet.allOf(PayloadType.class), false);
+			}
+			seq = replayRing.getLastSeq();
+		}
+
+		Map<String, Object> response = new LinkedHashMap<>();
+		response.put("type", PayloadType.RESUMED);
+		response.put("complete", gap != null);
+		response.put("replayed", 0);
+		response.put("epoch", replayRing.getEpoch());
+		response.put("seq", seq);
+		// Queued behind the replay, once it is known how much of the gap was sent
+		conn.execute(() -> {
+			response.put("replayed", replayed.get());
+			try {
+				conn.send(this.gson.toJson(response));
+			} catch (IOException e) {
+				// Already scheduled for closing by the queue
+			}
+		});
+	}
+
+	/**
+	 * Sends one client the latest message of each of {@code types} it is subscribed
+	 * to, leaving out those it has already been sent unless {@code force} is set.
+	 * Delta clients get state payloads as snapshots of the current version. Other
+	 * clients are not affected.
+	 */
+	private void catchUp(WebSocketConnection conn, Set<PayloadType> types, boolean force) {
+		ClientSession session = ClientSession.of(conn);
+		if (session == null) {
+			return;
+		}
+
+		if (types.size() == PayloadType.values().length) {
+			// Covers everything the held initial snapshot would send
+			session.takeInitialSnapshot();
+		}
+
+		synchronized (sendLock) {
+			for (ReplayRing.Entry entry : replayRing.snapshot()) {
+				PayloadType type = entry.getType();
+				if (!types.contains(type)) {
+					continue;
+				}
+
+				Payload payload = entry.getPayload();
+				if (isVersioned(type) && session.isDeltas() && session.isSubscribed(type)) {
+					// The snapshot holds the latest payload of each type, so this never moves
+					// the tracker backwards
+					DeltaPayload snapshot = deltaTracker.update(payload).getSnapshot();
+					snapshot.setSeq(entry.getSeq());
+					payload = snapshot;
+					session.markSynced(type);
+				}
+				sendPayload(conn, session, payload, force, null);
+			}
+			catchUps.increment();
+		}
+	}
+
+	/**
+	 * Sends a payload that has already been broadcast to one client, unless the
+	 * client has been sent it already or, when {@code force} is set, has been sent
+	 * a newer message of its type. The check, the send and recording it run as one
+	 * task on the client's IO loop, in order with the broadcasts queued there, so a
+	 * broadcast and a catch-up never both deliver the same message. {@code sent}
+	 * counts the payloads sent, if not null.
+	 */
+	private void sendPayload(WebSocketConnection conn, ClientSession session, Payload payload, boolean force,
+			AtomicInteger sent) {
+		PayloadType type = payload.getType();
+		if (!session.isSubscribed(type)) {
+			return;
+		}
+
+		long seq = payload.getSeq();
+		OutboundFrame encoded = codecFor(conn).encode(payload);
+		OutboundFrame frame = encoded != null ? encoded : jsonCodec.encode(payload);
+		conn.execute(() -> {
+			try {
+				if (session.hasSeen(type, force ? seq + 1 : seq)) {
+					return;
+				}
+				session.markSeen(type, seq);
+				conn.send(frame);
+				if (sent != null) {
+					sent.incrementAndGet();
+				}
+			} catch (IOException e) {
+				// Already scheduled for closing by the queue
+			} finally {
+				frame.release();
+			}
+		});
+	}
+
+	private void updateSubscriptions(WebSocketConnection conn, Message message) {
+		ClientSession session = ClientSession.of(conn);
+		if (session == null || message.types == null) {
+			LOGGER.warn("{} request missing types", message.messageType);
+			return;
+		}
+
+		Set<PayloadType> types = typesOf(message.types);
+		if (message.messageType.equals("subscribe")) {
+			session.subscribe(types);
+			session.resync(types);
+			// The client may have dropped what it held of these types, so send it again
+			catchUp(conn, types, true);
+		} else {
+			session.unsubscribe(types);
+		}
+		if (session.takeInitialSnapshot()) {
+			// Held back so the client is not sent types it was about to drop
+			catchUp(conn, EnumSet.allOf(PayloadType.class), false);
+		}
+	}
+
+	private static Set<PayloadType> typesOf(List<PayloadType> types) {
+		Set<PayloadType> set = EnumSet.noneOf(PayloadType.class);
+		for (PayloadType type : types) {
+			// Unknown type names parse as null
+			if (type != null) {
+				set.add(type);
+			}
+		}
+		return set;
+	}
+
+	/**
+	 * Caps how often the client is sent each of the listed state types. A missing
+	 * or non-positive {@code maxPerSecond} removes the cap. Event types are never
+	 * limited, since holding them back would drop events.
+	 */
+	private void setRateLimit(WebSocketConnection conn, Message message) {
+		ClientSession session = ClientSession.of(conn);
+		if (session == null || message.types == null) {
+			LOGGER.warn("setRateLimit request missing types");
+			return;
+		}
+
+		long intervalNanos = message.maxPerSecond != null && message.maxPerSecond > 0
+				? (long) (TimeUnit.SECONDS.toNanos(1) / message.maxPerSecond)
+				: 0;
+		for (PayloadType type : message.types) {
+			if (type == null) {
+				continue;
+			}
+			if (!type.isState()) {
+				LOGGER.warn("Ignoring rate limit on event type {}", type);
+				continue;
+			}
+			session.getRateLimiter().setInterval(type, intervalNanos);
+		}
+	}
+
 	public void broadcastPluginList() {
-		List<PluginSummary> plugins = pluginControlService.getPluginSummaries();
-		broadcast(this.gson.toJson(Map.of("type", PayloadType.PLUGINS, "plugins", plugins)));
+		if (!hasConnection(conn -> isSubscribed(conn, PayloadType.PLUGINS))) {
+			return;
+		}
+		broadcast(new PluginsPayload(pluginControlService.getPluginSummaries()));
 	}
 
 	public void broadcastPluginChange(Plugin plugin, boolean isActive) {
@@ -94,18 +828,47 @@ public class RuneDeckSocketServer extends WebSocketServer {
 			return;
 		}
 
-		broadcast(this.gson.toJson(Map.of("type", PayloadType.PLUGIN_CHANGED, "plugin", pluginSummary)));
+		broadcast(new PluginChangedPayload(pluginSummary));
+	}
+
+	/**
+	 * Replies to one client with the server-wide metrics and a summary of every
+	 * connection.
+	 */
+	private void sendStats(WebSocketConnection conn) throws IOException {
+		List<Map<String, Object>> connections = new ArrayList<>();
+		for (WebSocketConnection client : getConnections()) {
+			if (!client.isOpen()) {
+				continue;
+			}
+			Map<String, Object> summary = new LinkedHashMap<>();
+			summary.put("remoteAddress", String.valueOf(client.getRemoteAddress()));
+			summary.put("subprotocol", client.getSubprotocol());
+			summary.put("compression", client.isCompressionEnabled());
+			summary.put("bytesIn", client.getBytesIn());
+			summary.put("bytesOut", client.getBytesOut());
+			summary.put("framesIn", client.getFramesIn());
+			summary.put("framesOut", client.getFramesOut());
+			summary.put("queuedFrames", client.getQueuedFrames());
+			summary.put("queuedBytes", client.getOutboundBytes());
+			summary.put("pendingMessages", client.getPendingMessages());
+			connections.add(summary);
+		}
+
+		Map<String, Object> response = new LinkedHashMap<>();
+		response.put("type", PayloadType.STATS);
+		response.putAll(getStats().snapshot());
+		response.put("connections", connections);
+		conn.send(this.gson.toJson(response));
 	}
 
 	@Override
 	public void onError(WebSocketConnection conn, Exception ex) {
-		payloadCache.clearCache();
 		LOGGER.error(ex.getMessage());
 	}
 
 	@Override
 	public void onStart() {
-		payloadCache.clearCache();
 		LOGGER.info("RuneDeckSocketServer started on port: " + this.getPort());
 	}
 }
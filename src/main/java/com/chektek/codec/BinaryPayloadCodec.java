@@ -0,0 +1,277 @@
+package com.chektek.codec;
+
+import java.util.Arrays;
+import java.util.List;
+
+import com.chektek.payload.ActivityPayload;
+import com.chektek.payload.DeltaPayload;
+import com.chektek.payload.EquipmentPayload;
+import com.chektek.payload.FPSPayload;
+import com.chektek.payload.MovementPayload;
+import com.chektek.payload.Payload;
+import com.chektek.payload.SkillsPayload;
+import com.chektek.websocket.BufferPool;
+import com.chektek.websocket.OutboundFrame;
+import com.google.gson.Gson;
+
+/**
+ * Compact fixed-layout encoding for the high-frequency payloads, sent as binary
+ * frames. Every payload starts with a one byte type id and its varint sequence
+ * number; multi-byte integers are big-endian, and varints are LEB128, zigzag
+ * encoded only for signed fields. See SCHEMA.md for the layouts.
+ * <p>
+ * Payload types without a binary layout return null from {@link #encode} and are
+ * sent to binary clients as JSON text frames. Inside a batch they are embedded as
+ * UTF-8 JSON instead, so a batch is always a single binary frame.
+ * <p>
+ * Messages are built in per-thread scratch buffers and copied once into the
+ * pooled frame, like {@link JsonPayloadCodec}.
+ */
+public class BinaryPayloadCodec implements PayloadCodec {
+
+	public static final String PROTOCOL = "runedeck.binary";
+
+	static final int TYPE_SKILLS = 1;
+	static final int TYPE_EQUIPMENT = 2;
+	static final int TYPE_MOVEMENT = 3;
+	static final int TYPE_FPS = 4;
+	static final int TYPE_ACTIVITY = 5;
+	static final int TYPE_JSON = 0;
+	static final int TYPE_BATCH = 64;
+
+	private static final int INITIAL_CAPACITY = 256;
+
+	private final PayloadJsonWriter jsonWriter;
+	private final BufferPool pool;
+	private final ThreadLocal<Utf8JsonWriter> jsonWriters;
+	private final ThreadLocal<Writer> messageWriters = ThreadLocal.withInitial(() -> new Writer(INITIAL_CAPACITY));
+	private final ThreadLocal<Writer> entryWriters = ThreadLocal.withInitial(() -> new Writer(INITIAL_CAPACITY));
+
+	public BinaryPayloadCodec(Gson gson, BufferPool pool) {
+		this.jsonWriter = new PayloadJsonWriter(gson);
+		this.pool = pool;
+		this.jsonWriters = ThreadLocal.withInitial(jsonWriter::newWriter);
+	}
+
+	@Override
+	public String getProtocol() {
+		return PROTOCOL;
+	}
+
+	@Override
+	public OutboundFrame encode(Payload payload) {
+		Writer out = writer(messageWriters);
+		return encodeBody(out, payload) ? OutboundFrame.binary(out.bytes, out.length, pool) : null;
+	}
+
+	/**
+	 * Starts a message with its type id and varint sequence number, 0 if the
+	 * payload has not been broadcast.
+	 */
+	private static void start(Writer out, int typeId, Payload payload) {
+		out.writeByte(typeId);
+		out.writeUnsignedVarint(payload.getSeq() != null ? payload.getSeq() : 0);
+	}
+
+	/**
+	 * Batch id, varint tick, varint count, then each payload as a varint length
+	 * followed by its usual binary message, or by {@link #TYPE_JSON} and UTF-8 JSON
+	 * for types without a layout.
+	 */
+	@Override
+	public OutboundFrame encodeBatch(long tick, List<Payload> payloads) {
+		Writer out = writer(messageWriters);
+		out.writeByte(TYPE_BATCH);
+		out.writeUnsignedVarint(tick);
+		out.writeUnsignedVarint(payloads.size());
+		for (int i = 0; i < payloads.size(); i++) {
+			Payload payload = payloads.get(i);
+			Writer entry = writer(entryWriters);
+			if (encodeBody(entry, payload)) {
+				out.writeUnsignedVarint(entry.length);
+				out.writeBytes(entry.bytes, entry.length);
+			} else {
+				Utf8JsonWriter json = jsonWriters.get();
+				json.reset();
+				jsonWriter.write(json, payload);
+				out.writeUnsignedVarint(json.length() + 1);
+				out.writeByte(TYPE_JSON);
+				out.writeBytes(json.array(), json.length());
+			}
+		}
+		return OutboundFrame.binary(out.bytes, out.length, pool);
+	}
+
+	private static Writer writer(ThreadLocal<Writer> writers) {
+		Writer out = writers.get();
+		out.reset();
+		return out;
+	}
+
+	/**
+	 * Writes the binary message for a payload.
+	 *
+	 * @return false if the payload has no binary layout, leaving {@code out} in an unspecified state
+	 */
+	private static boolean encodeBody(Writer out, Payload payload) {
+		if (payload instanceof DeltaPayload) {
+			// Deltas only have a JSON form
+			return false;
+		}
+
+		switch (payload.getType()) {
+			case SKILLS:
+				start(out, TYPE_SKILLS, payload);
+				writeSkills(out, (SkillsPayload) payload);
+				return true;
+			case EQUIPMENT:
+				int[] ids = ((EquipmentPayload) payload).getPlayerEquipmentIds();
+				int count = ids != null ? ids.length : 0;
+				start(out, TYPE_EQUIPMENT, payload);
+				out.writeByte(count);
+				for (int i = 0; i < count; i++) {
+					out.writeInt(ids[i]);
+				}
+				return true;
+			case MOVEMENT:
+				MovementPayload movement = (MovementPayload) payload;
+				start(out, TYPE_MOVEMENT, payload);
+				out.writeVarint(movement.getEnergy());
+				out.writeVarint(movement.getCoordinateX());
+				out.writeVarint(movement.getCoordinateY());
+				return true;
+			case FPS:
+				start(out, TYPE_FPS, payload);
+				out.writeVarint(((FPSPayload) payload).getFps());
+				return true;
+			case ACTIVITY:
+				start(out, TYPE_ACTIVITY, payload);
+				out.writeByte(((ActivityPayload) payload).isActive() ? 1 : 0);
+				return true;
+			default:
+				return false;
+		}
+	}
+
+	/**
+	 * Current and real level of every skill as unsigned shorts, in the order listed
+	 * in SCHEMA.md, followed by the combat level.
+	 */
+	private static void writeSkills(Writer out, SkillsPayload skills) {
+		out.writeShort(skills.getCurrentHealth());
+		out.writeShort(skills.getTotalHealth());
+		out.writeShort(skills.getCurrentAttack());
+		out.writeShort(skills.getTotalAttack());
+		out.writeShort(skills.getCurrentStrength());
+		out.writeShort(skills.getTotalStrength());
+		out.writeShort(skills.getCurrentDefence());
+		out.writeShort(skills.getTotalDefence());
+		out.writeShort(skills.getCurrentRange());
+		out.writeShort(skills.getTotalRange());
+		out.writeShort(skills.getCurrentPrayer());
+		out.writeShort(skills.getTotalPrayer());
+		out.writeShort(skills.getCurrentMagic());
+		out.writeShort(skills.getTotalMagic());
+		out.writeShort(skills.getCurrentRunecrafting());
+		out.writeShort(skills.getTotalRunecrafting());
+		out.writeShort(skills.getCurrentConstruction());
+		out.writeShort(skills.getTotalConstruction());
+		out.writeShort(skills.getCurrentAgility());
+		out.writeShort(skills.getTotalAgility());
+		out.writeShort(skills.getCurrentHerblore());
+		out.writeShort(skills.getTotalHerblore());
+		out.writeShort(skills.getCurrentThieving());
+		out.writeShort(skills.getTotalThieving());
+		out.writeShort(skills.getCurrentCrafting());
+		out.writeShort(skills.getTotalCrafting());
+		out.writeShort(skills.getCurrentFletching());
+		out.writeShort(skills.getTotalFletching());
+		out.writeShort(skills.getCurrentSlayer());
+		out.writeShort(skills.getTotalSlayer());
+		out.writeShort(skills.getCurrentHunter());
+		out.writeShort(skills.getTotalHunter());
+		out.writeShort(skills.getCurrentMining());
+		out.writeShort(skills.getTotalMining());
+		out.writeShort(skills.getCurrentSmithing());
+		out.writeShort(skills.getTotalSmithing());
+		out.writeShort(skills.getCurrentFishing());
+		out.writeShort(skills.getTotalFishing());
+		out.writeShort(skills.getCurrentCooking());
+		out.writeShort(skills.getTotalCooking());
+		out.writeShort(skills.getCurrentFiremaking());
+		out.writeShort(skills.getTotalFiremaking());
+		out.writeShort(skills.getCurrentWoodcutting());
+		out.writeShort(skills.getTotalWoodcutting());
+		out.writeShort(skills.getCurrentFarming());
+		out.writeShort(skills.getTotalFarming());
+		out.writeShort(skills.getCurrentSailing());
+		out.writeShort(skills.getTotalSailing());
+		out.writeShort(skills.getCombatLevel());
+	}
+
+	/**
+	 * Minimal growable big-endian writer, reused between messages.
+	 */
+	private static final class Writer {
+		private byte[] bytes;
+		private int length;
+
+		Writer(int capacity) {
+			this.bytes = new byte[capacity];
+		}
+
+		void reset() {
+			length = 0;
+		}
+
+		void writeByte(int value) {
+			ensureCapacity(1);
+			bytes[length++] = (byte) value;
+		}
+
+		void writeShort(int value) {
+			ensureCapacity(2);
+			bytes[length++] = (byte) (value >>> 8);
+			bytes[length++] = (byte) value;
+		}
+
+		void writeInt(int value) {
+			ensureCapacity(4);
+			bytes[length++] = (byte) (value >>> 24);
+			bytes[length++] = (byte) (value >>> 16);
+			bytes[length++] = (byte) (value >>> 8);
+			bytes[length++] = (byte) value;
+		}
+
+		/**
+		 * Writes a signed value as a zigzag varint, so small negatives stay short.
+		 */
+		void writeVarint(long value) {
+			writeUnsignedVarint((value << 1) ^ (value >> 63));
+		}
+
+		/**
+		 * Writes a length, count or counter as a plain LEB128 varint.
+		 */
+		void writeUnsignedVarint(long value) {
+			ensureCapacity(10);
+			while ((value & ~0x7FL) != 0) {
+				bytes[length++] = (byte) ((value & 0x7F) | 0x80);
+				value >>>= 7;
+			}
+			bytes[length++] = (byte) value;
+		}
+
+		void writeBytes(byte[] source, int count) {
+			ensureCapacity(count);
+			System.arraycopy(source, 0, bytes, length, count);
+			length += count;
+		}
+
+		private void ensureCapacity(int extra) {
+			if (length + extra > bytes.length) {
+				bytes = Arrays.copyOf(bytes, Math.max(bytes.length << 1, length + extra));
+			}
+		}
+	}
+}
@@ -0,0 +1,70 @@
+package com.chektek.codec;
+
+import java.util.List;
+
+import com.chektek.codec.Utf8JsonWriter.Name;
+import com.chektek.payload.Payload;
+import com.chektek.payload.PayloadType;
+import com.chektek.websocket.BufferPool;
+import com.chektek.websocket.OutboundFrame;
+import com.google.gson.Gson;
+
+/**
+ * The original encoding: JSON in text frames, byte for byte what Gson writes.
+ * Clients that negotiate no subprotocol at all also get this codec.
+ * <p>
+ * Payloads are streamed by a {@link PayloadJsonWriter} into a per-thread buffer
+ * and copied once into the pooled frame.
+ */
+public class JsonPayloadCodec implements PayloadCodec {
+
+	public static final String PROTOCOL = "runedeck.json";
+
+	private static final Name TYPE = Name.of("type");
+	private static final Name TICK = Name.of("tick");
+	private static final Name PAYLOADS = Name.of("payloads");
+
+	private final PayloadJsonWriter payloadWriter;
+	private final BufferPool pool;
+	private final ThreadLocal<Utf8JsonWriter> writers;
+
+	public JsonPayloadCodec(Gson gson, BufferPool pool) {
+		this.payloadWriter = new PayloadJsonWriter(gson);
+		this.pool = pool;
+		this.writers = ThreadLocal.withInitial(payloadWriter::newWriter);
+	}
+
+	@Override
+	public String getProtocol() {
+		return PROTOCOL;
+	}
+
+	@Override
+	public OutboundFrame encode(Payload payload) {
+		Utf8JsonWriter out = writer();
+		payloadWriter.write(out, payload);
+		return OutboundFrame.text(out.array(), out.length(), pool);
+	}
+
+	@Override
+	public OutboundFrame encodeBatch(long tick, List<Payload> payloads) {
+		Utf8JsonWriter out = writer();
+		out.beginObject();
+		out.field(TYPE, PayloadType.BATCH.name());
+		out.field(TICK, tick);
+		out.name(PAYLOADS);
+		out.beginArray();
+		for (int i = 0; i < payloads.size(); i++) {
+			payloadWriter.write(out, payloads.get(i));
+		}
+		out.endArray();
+		out.endObject();
+		return OutboundFrame.text(out.array(), out.length(), pool);
+	}
+
+	private Utf8JsonWriter writer() {
+		Utf8JsonWriter out = writers.get();
+		out.reset();
+		return out;
+	}
+}
@@ -0,0 +1,32 @@
+package com.chektek.codec;
+
+import java.util.List;
+
+import com.chektek.payload.Payload;
+import com.chektek.websocket.OutboundFrame;
+
+/**
+ * Turns payloads into WebSocket frames for clients that negotiated a given
+ * {@code Sec-WebSocket-Protocol}.
+ */
+public interface PayloadCodec {
+
+	/**
+	 * The subprotocol token clients offer to select this codec.
+	 */
+	String getProtocol();
+
+	/**
+	 * Encodes a payload into a new frame owned by the caller.
+	 *
+	 * @return the frame, or null if this codec has no encoding for the payload's
+	 *         type and the client should receive the JSON fallback instead
+	 */
+	OutboundFrame encode(Payload payload);
+
+	/**
+	 * Encodes the payloads that changed in one game tick as a single BATCH
+	 * message. Unlike {@link #encode}, every payload type must be supported.
+	 */
+	OutboundFrame encodeBatch(long tick, List<Payload> payloads);
+}
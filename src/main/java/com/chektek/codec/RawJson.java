@@ -0,0 +1,71 @@
+package com.chektek.codec;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import com.google.gson.JsonParser;
+import com.google.gson.TypeAdapter;
+import com.google.gson.annotations.JsonAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * A JSON value that has already been written as UTF-8, embedded as-is wherever
+ * it is serialized, by Gson as well as by {@link Utf8JsonWriter}. Gson reads
+ * one back by parsing the value and keeping its compact form.
+ */
+@JsonAdapter(RawJson.Adapter.class)
+public final class RawJson {
+
+	private final byte[] utf8;
+
+	private RawJson(byte[] utf8) {
+		this.utf8 = utf8;
+	}
+
+	/**
+	 * Copies what has been written to {@code out} so far.
+	 */
+	public static RawJson copyOf(Utf8JsonWriter out) {
+		return new RawJson(out.toByteArray());
+	}
+
+	byte[] bytes() {
+		return utf8;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) {
+			return true;
+		}
+		return o instanceof RawJson && Arrays.equals(utf8, ((RawJson) o).utf8);
+	}
+
+	@Override
+	public int hashCode() {
+		return Arrays.hashCode(utf8);
+	}
+
+	@Override
+	public String toString() {
+		return new String(utf8, StandardCharsets.UTF_8);
+	}
+
+	static final class Adapter extends TypeAdapter<RawJson> {
+		@Override
+		public void write(JsonWriter out, RawJson value) throws IOException {
+			if (value == null) {
+				out.nullValue();
+			} else {
+				out.jsonValue(value.toString());
+			}
+		}
+
+		@Override
+		public RawJson read(JsonReader in) {
+			return new RawJson(JsonParser.parseReader(in).toString().getBytes(StandardCharsets.UTF_8));
+		}
+	}
+}
@@ -0,0 +1,477 @@
+package com.chektek.codec;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+/**
+ * Writes JSON straight to UTF-8 in a byte array that is reused from one message
+ * to the next, so writing a message allocates nothing once the array has grown
+ * to fit.
+ * <p>
+ * The output is what Gson writes for the same values: compact, with Gson's
+ * string escapes, including its HTML-safe ones if enabled, and with null fields
+ * left out unless nulls are serialized. Property names are encoded once, ahead of
+ * time, as {@link Name}s.
+ * <p>
+ * Not thread safe.
+ */
+public final class Utf8JsonWriter {
+
+	private static final int MAX_DEPTH = 64;
+	private static final byte[] HEX = { '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e',
+			'f' };
+	private static final byte[] NULL = { 'n', 'u', 'l', 'l' };
+	private static final byte[] TRUE = { 't', 'r', 'u', 'e' };
+	private static final byte[] FALSE = { 'f', 'a', 'l', 's', 'e' };
+	private static final byte[] LONG_MIN_VALUE = ascii(Long.toString(Long.MIN_VALUE));
+	private static final byte[] LINE_SEPARATOR = unicodeEscape('\u2028');
+	private static final byte[] PARAGRAPH_SEPARATOR = unicodeEscape('\u2029');
+
+	private static final byte[][] ESCAPES = new byte[128][];
+	private static final byte[][] HTML_SAFE_ESCAPES;
+
+	static {
+		for (int c = 0; c < 0x20; c++) {
+			ESCAPES[c] = unicodeEscape(c);
+		}
+		ESCAPES['"'] = ascii("\\\"");
+		ESCAPES['\\'] = ascii("\\\\");
+		ESCAPES['\t'] = ascii("\\t");
+		ESCAPES['\b'] = ascii("\\b");
+		ESCAPES['\n'] = ascii("\\n");
+		ESCAPES['\r'] = ascii("\\r");
+		ESCAPES['\f'] = ascii("\\f");
+
+		HTML_SAFE_ESCAPES = ESCAPES.clone();
+		for (char c : new char[] { '<', '>', '&', '=', '\'' }) {
+			HTML_SAFE_ESCAPES[c] = unicodeEscape(c);
+		}
+	}
+
+	private final byte[][] escapes;
+	private final boolean serializeNulls;
+
+	private byte[] bytes = new byte[1024];
+	private int length;
+
+	/**
+	 * One bit per open object or array, set once it holds a value, so the next
+	 * one is preceded by a comma.
+	 */
+	private long hasValue;
+	private int depth;
+	private boolean afterName;
+
+	public Utf8JsonWriter(boolean htmlSafe, boolean serializeNulls) {
+		this.escapes = htmlSafe ? HTML_SAFE_ESCAPES : ESCAPES;
+		this.serializeNulls = serializeNulls;
+	}
+
+	/**
+	 * Discards what has been written, keeping the array.
+	 */
+	public void reset() {
+		length = 0;
+		depth = 0;
+		hasValue = 0;
+		afterName = false;
+	}
+
+	/**
+	 * The array written to. Only the first {@link #length()} bytes are valid, and
+	 * only until the next {@link #reset()}.
+	 */
+	public byte[] array() {
+		return bytes;
+	}
+
+	public int length() {
+		return length;
+	}
+
+	public byte[] toByteArray() {
+		return Arrays.copyOf(bytes, length);
+	}
+
+	public void beginObject() {
+		beforeValue();
+		writeByte('{');
+		push();
+	}
+
+	public void endObject() {
+		depth--;
+		writeByte('}');
+	}
+
+	public void beginArray() {
+		beforeValue();
+		writeByte('[');
+		push();
+	}
+
+	public void endArray() {
+		depth--;
+		writeByte(']');
+	}
+
+	public void name(Name name) {
+		beforeValue();
+		writeBytes(name.bytes, name.bytes.length);
+		afterName = true;
+	}
+
+	/**
+	 * Writes an array index as a property name, as in a patch of an array's
+	 * elements.
+	 */
+	public void name(int index) {
+		beforeValue();
+		writeByte('"');
+		writeDecimal(index);
+		writeByte('"');
+		writeByte(':');
+		afterName = true;
+	}
+
+	public void value(int value) {
+		value((long) value);
+	}
+
+	public void value(long value) {
+		beforeValue();
+		writeDecimal(value);
+	}
+
+	public void value(boolean value) {
+		beforeValue();
+		byte[] literal = value ? TRUE : FALSE;
+		writeBytes(literal, literal.length);
+	}
+
+	public void value(String value) {
+		if (value == null) {
+			nullValue();
+			return;
+		}
+		beforeValue();
+		writeString(value);
+	}
+
+	public void nullValue() {
+		beforeValue();
+		writeBytes(NULL, NULL.length);
+	}
+
+	/**
+	 * Writes a tree the way Gson serializes a {@link JsonElement}.
+	 */
+	public void value(JsonElement value) {
+		if (value == null || value.isJsonNull()) {
+			nullValue();
+		} else if (value.isJsonObject()) {
+			beginObject();
+			for (Map.Entry<String, JsonElement> member : ((JsonObject) value).entrySet()) {
+				JsonElement element = member.getValue();
+				if (element.isJsonNull() && !serializeNulls) {
+					continue;
+				}
+				beforeValue();
+				writeString(member.getKey());
+				writeByte(':');
+				afterName = true;
+				value(element);
+			}
+			endObject();
+		} else if (value.isJsonArray()) {
+			beginArray();
+			for (JsonElement element : (JsonArray) value) {
+				value(element);
+			}
+			endArray();
+		} else {
+			JsonPrimitive primitive = (JsonPrimitive) value;
+			if (primitive.isBoolean()) {
+				value(primitive.getAsBoolean());
+			} else if (primitive.isNumber()) {
+				beforeValue();
+				writeUtf8(primitive.getAsNumber().toString());
+			} else {
+				value(primitive.getAsString());
+			}
+		}
+	}
+
+	/**
+	 * Writes JSON that has already been serialized, such as Gson's output for a
+	 * type without a writer of its own.
+	 */
+	public void rawValue(String json) {
+		beforeValue();
+		writeUtf8(json);
+	}
+
+	public void rawValue(RawJson json) {
+		beforeValue();
+		writeBytes(json.bytes(), json.bytes().length);
+	}
+
+	public void field(Name name, int value) {
+		name(name);
+		value(value);
+	}
+
+	public void field(Name name, long value) {
+		name(name);
+		value(value);
+	}
+
+	public void field(Name name, boolean value) {
+		name(name);
+		value(value);
+	}
+
+	public void field(Name name, Integer value) {
+		if (value != null) {
+			field(name, value.intValue());
+		} else {
+			nullField(name);
+		}
+	}
+
+	public void field(Name name, Long value) {
+		if (value != null) {
+			field(name, value.longValue());
+		} else {
+			nullField(name);
+		}
+	}
+
+	public void field(Name name, Boolean value) {
+		if (value != null) {
+			field(name, value.booleanValue());
+		} else {
+			nullField(name);
+		}
+	}
+
+	public void field(Name name, String value) {
+		if (value != null) {
+			name(name);
+			value(value);
+		} else {
+			nullField(name);
+		}
+	}
+
+	public void field(Name name, int[] values) {
+		if (values == null) {
+			nullField(name);
+			return;
+		}
+		name(name);
+		beginArray();
+		for (int value : values) {
+			value(value);
+		}
+		endArray();
+	}
+
+	public void field(Name name, JsonElement value) {
+		if (value != null && !value.isJsonNull()) {
+			name(name);
+			value(value);
+		} else {
+			nullField(name);
+		}
+	}
+
+	public void field(Name name, RawJson value) {
+		if (value != null) {
+			name(name);
+			rawValue(value);
+		} else {
+			nullField(name);
+		}
+	}
+
+	/**
+	 * Writes {@code "name":null} if null fields are serialized, and nothing
+	 * otherwise.
+	 */
+	public void nullField(Name name) {
+		if (serializeNulls) {
+			name(name);
+			nullValue();
+		}
+	}
+
+	/**
+	 * True if a null field is still written, as {@code "name":null}.
+	 */
+	public boolean isSerializeNulls() {
+		return serializeNulls;
+	}
+
+	private void beforeValue() {
+		if (afterName) {
+			afterName = false;
+			return;
+		}
+		if (depth > 0) {
+			long bit = 1L << (depth - 1);
+			if ((hasValue & bit) != 0) {
+				writeByte(',');
+			} else {
+				hasValue |= bit;
+			}
+		}
+	}
+
+	private void push() {
+		if (depth == MAX_DEPTH) {
+			throw new IllegalStateException("JSON nested deeper than " + MAX_DEPTH);
+		}
+		depth++;
+		hasValue &= ~(1L << (depth - 1));
+	}
+
+	private void writeDecimal(long value) {
+		if (value == Long.MIN_VALUE) {
+			writeBytes(LONG_MIN_VALUE, LONG_MIN_VALUE.length);
+			return;
+		}
+		ensureCapacity(20);
+		if (value < 0) {
+			bytes[length++] = '-';
+			value = -value;
+		}
+		int digits = 1;
+		for (long rest = value / 10; rest != 0; rest /= 10) {
+			digits++;
+		}
+		int end = length + digits;
+		for (int i = end - 1; i >= length; i--) {
+			bytes[i] = (byte) ('0' + value % 10);
+			value /= 10;
+		}
+		length = end;
+	}
+
+	private void writeString(String value) {
+		// Six bytes covers the longest escape, and a character never takes more
+		ensureCapacity(value.length() * 6 + 2);
+		bytes[length++] = '"';
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c < 0x80) {
+				byte[] escape = escapes[c];
+				if (escape == null) {
+					bytes[length++] = (byte) c;
+				} else {
+					System.arraycopy(escape, 0, bytes, length, escape.length);
+					length += escape.length;
+				}
+			} else if (c == '\u2028' || c == '\u2029') {
+				// Line separators that JavaScript does not allow in strings
+				byte[] escape = c == '\u2028' ? LINE_SEPARATOR : PARAGRAPH_SEPARATOR;
+				System.arraycopy(escape, 0, bytes, length, escape.length);
+				length += escape.length;
+			} else {
+				i = writeChar(value, i);
+			}
+		}
+		bytes[length++] = '"';
+	}
+
+	private void writeUtf8(String value) {
+		ensureCapacity(value.length() * 3);
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c < 0x80) {
+				bytes[length++] = (byte) c;
+			} else {
+				i = writeChar(value, i);
+			}
+		}
+	}
+
+	/**
+	 * Encodes the non-ASCII character at {@code i}, which may start a surrogate
+	 * pair, and returns the index of its last char. A lone surrogate becomes '?',
+	 * as it does when a String is encoded.
+	 */
+	private int writeChar(String value, int i) {
+		char c = value.charAt(i);
+		if (c < 0x800) {
+			bytes[length++] = (byte) (0xC0 | (c >> 6));
+			bytes[length++] = (byte) (0x80 | (c & 0x3F));
+		} else if (!Character.isSurrogate(c)) {
+			bytes[length++] = (byte) (0xE0 | (c >> 12));
+			bytes[length++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+			bytes[length++] = (byte) (0x80 | (c & 0x3F));
+		} else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+				&& Character.isLowSurrogate(value.charAt(i + 1))) {
+			int codePoint = Character.toCodePoint(c, value.charAt(++i));
+			bytes[length++] = (byte) (0xF0 | (codePoint >> 18));
+			bytes[length++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+			bytes[length++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+			bytes[length++] = (byte) (0x80 | (codePoint & 0x3F));
+		} else {
+			bytes[length++] = '?';
+		}
+		return i;
+	}
+
+	private void writeByte(int value) {
+		ensureCapacity(1);
+		bytes[length++] = (byte) value;
+	}
+
+	private void writeBytes(byte[] source, int count) {
+		ensureCapacity(count);
+		System.arraycopy(source, 0, bytes, length, count);
+		length += count;
+	}
+
+	private void ensureCapacity(int extra) {
+		if (length + extra > bytes.length) {
+			bytes = Arrays.copyOf(bytes, Math.max(bytes.length << 1, length + extra));
+		}
+	}
+
+	private static byte[] unicodeEscape(int c) {
+		return new byte[] { '\\', 'u', HEX[(c >> 12) & 0xF], HEX[(c >> 8) & 0xF], HEX[(c >> 4) & 0xF], HEX[c & 0xF] };
+	}
+
+	private static byte[] ascii(String value) {
+		byte[] ascii = new byte[value.length()];
+		for (int i = 0; i < ascii.length; i++) {
+			ascii[i] = (byte) value.charAt(i);
+		}
+		return ascii;
+	}
+
+	/**
+	 * A property name, encoded with its quotes and colon.
+	 */
+	public static final class Name {
+		private final byte[] bytes;
+
+		private Name(byte[] bytes) {
+			this.bytes = bytes;
+		}
+
+		public static Name of(String name) {
+			Utf8JsonWriter out = new Utf8JsonWriter(true, false);
+			out.writeString(name);
+			out.writeByte(':');
+			return new Name(out.toByteArray());
+		}
+	}
+}
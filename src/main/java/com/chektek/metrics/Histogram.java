@@ -0,0 +1,121 @@
+package com.chektek.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free log-linear histogram in the style of HdrHistogram.
+ * <p>
+ * Values below 64 get a bucket each; above that every power of two is split
+ * into 32 buckets, which keeps the relative error of a reported percentile
+ * under about 3%. Values up to 2^40 are tracked, so nanosecond timings up to
+ * about 18 minutes and byte sizes up to a terabyte fit. Larger values are
+ * clamped. Recording is a single atomic increment and safe from any thread.
+ */
+public class Histogram {
+
+	private static final int SUB_BUCKET_BITS = 5;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int MAX_BITS = 40;
+	private static final long MAX_VALUE = (1L << MAX_BITS) - 1;
+	private static final int BUCKETS = bucketIndex(MAX_VALUE) + 1;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final LongAdder count = new LongAdder();
+	private final LongAdder sum = new LongAdder();
+	private final AtomicLong max = new AtomicLong();
+
+	public void record(long value) {
+		long clamped = Math.max(0, Math.min(value, MAX_VALUE));
+		counts.incrementAndGet(bucketIndex(clamped));
+		count.increment();
+		sum.add(clamped);
+
+		long currentMax = max.get();
+		while (clamped > currentMax && !max.compareAndSet(currentMax, clamped)) {
+			currentMax = max.get();
+		}
+	}
+
+	/**
+	 * Takes a consistent-enough copy for reporting. Values recorded while the copy
+	 * is taken may or may not be included.
+	 */
+	public Snapshot snapshot() {
+		long[] copy = new long[BUCKETS];
+		long total = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			copy[i] = counts.get(i);
+			total += copy[i];
+		}
+		return new Snapshot(copy, total, sum.sum(), max.get());
+	}
+
+	private static int bucketIndex(long value) {
+		if (value < SUB_BUCKETS << 1) {
+			return (int) value;
+		}
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		return shift * SUB_BUCKETS + (int) (value >>> shift);
+	}
+
+	/**
+	 * The largest value that lands in a bucket.
+	 */
+	private static long bucketUpperBound(int index) {
+		if (index < SUB_BUCKETS << 1) {
+			return index;
+		}
+		int shift = index / SUB_BUCKETS - 1;
+		long mantissa = index - (long) shift * SUB_BUCKETS;
+		return (mantissa << shift) + (1L << shift) - 1;
+	}
+
+	/**
+	 * Immutable view of a histogram at one point in time.
+	 */
+	public static final class Snapshot {
+		private final long[] counts;
+		private final long count;
+		private final long sum;
+		private final long max;
+
+		private Snapshot(long[] counts, long count, long sum, long max) {
+			this.counts = counts;
+			this.count = count;
+			this.sum = sum;
+			this.max = max;
+		}
+
+		public long getCount() {
+			return count;
+		}
+
+		public double getMean() {
+			return count == 0 ? 0 : (double) sum / count;
+		}
+
+		public long getMax() {
+			return max;
+		}
+
+		/**
+		 * @param percentile between 0 and 100
+		 */
+		public long getValueAtPercentile(double percentile) {
+			if (count == 0) {
+				return 0;
+			}
+			long target = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+			long seen = 0;
+			for (int i = 0; i < counts.length; i++) {
+				seen += counts[i];
+				if (seen >= target) {
+					return Math.min(bucketUpperBound(i), max);
+				}
+			}
+			return max;
+		}
+	}
+}
@@ -0,0 +1,61 @@
+package com.chektek.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Named counters and histograms shared by the server and the plugin.
+ * <p>
+ * Metrics are created on first use and live for the lifetime of the registry.
+ * Lookups are a concurrent map read, so hot paths should keep the returned
+ * instance rather than look it up on every update.
+ */
+public class StatsRegistry {
+
+	private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+	private final Map<String, Histogram> histograms = new ConcurrentHashMap<>();
+	private final long startedAt = System.currentTimeMillis();
+
+	public LongAdder counter(String name) {
+		LongAdder counter = counters.get(name);
+		return counter != null ? counter : counters.computeIfAbsent(name, key -> new LongAdder());
+	}
+
+	public Histogram histogram(String name) {
+		Histogram histogram = histograms.get(name);
+		return histogram != null ? histogram : histograms.computeIfAbsent(name, key -> new Histogram());
+	}
+
+	/**
+	 * Current values of every metric as plain maps, sorted by name, ready to be
+	 * serialized. Histograms are summarized as count, mean, percentiles and max.
+	 */
+	public Map<String, Object> snapshot() {
+		Map<String, Long> counterValues = new TreeMap<>();
+		counters.forEach((name, counter) -> counterValues.put(name, counter.sum()));
+
+		Map<String, Map<String, Object>> histogramValues = new TreeMap<>();
+		histograms.forEach((name, histogram) -> histogramValues.put(name, summarize(histogram.snapshot())));
+
+		Map<String, Object> snapshot = new LinkedHashMap<>();
+		snapshot.put("uptimeMillis", System.currentTimeMillis() - startedAt);
+		snapshot.put("counters", counterValues);
+		snapshot.put("histograms", histogramValues);
+		return snapshot;
+	}
+
+	private static Map<String, Object> summarize(Histogram.Snapshot snapshot) {
+		Map<String, Object> summary = new LinkedHashMap<>();
+		summary.put("count", snapshot.getCount());
+		summary.put("mean", Math.round(snapshot.getMean()));
+		summary.put("p50", snapshot.getValueAtPercentile(50));
+		summary.put("p90", snapshot.getValueAtPercentile(90));
+		summary.put("p99", snapshot.getValueAtPercentile(99));
+		summary.put("p999", snapshot.getValueAtPercentile(99.9));
+		summary.put("max", snapshot.getMax());
+		return summary;
+	}
+}
@@ -1,10 +1,12 @@
 package com.chektek.payload;
 
 import com.chektek.AnimationCollections;
+import com.chektek.codegen.PayloadClass;
 
 import net.runelite.api.Client;
 import net.runelite.api.Player;
 
+@PayloadClass
 public class ActivityPayload extends Payload {
 	private boolean isActive;
 	private static final int INACTIVE_DEBOUNCE_TICKS = 3;
@@ -0,0 +1,58 @@
+package com.chektek.payload;
+
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import net.runelite.api.Client;
+
+/**
+ * A collector for a payload that reads itself from the client: its constructor
+ * taking a {@link Client} collects it, and {@link Payload#isNewPayload} detects
+ * changes.
+ */
+public class ClientPayloadCollector<T extends Payload> implements PayloadCollector<T> {
+
+	private final PayloadType type;
+	private final SamplingInterval interval;
+	private final boolean polled;
+	private final Supplier<T> empty;
+	private final Function<Client, T> constructor;
+
+	/**
+	 * @param polled false if events mark the type dirty whenever it may have
+	 *               changed; see {@link PayloadCollector#isPolled}
+	 */
+	public ClientPayloadCollector(PayloadType type, SamplingInterval interval, boolean polled, Supplier<T> empty,
+			Function<Client, T> constructor) {
+		this.type = type;
+		this.interval = interval;
+		this.polled = polled;
+		this.empty = empty;
+		this.constructor = constructor;
+	}
+
+	@Override
+	public PayloadType getType() {
+		return type;
+	}
+
+	@Override
+	public SamplingInterval getInterval() {
+		return interval;
+	}
+
+	@Override
+	public T empty() {
+		return empty.get();
+	}
+
+	@Override
+	public T collect(Client client) {
+		return constructor.apply(client);
+	}
+
+	@Override
+	public boolean isPolled(T last) {
+		return polled;
+	}
+}
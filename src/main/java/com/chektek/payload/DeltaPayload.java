@@ -0,0 +1,47 @@
+package com.chektek.payload;
+
+import com.chektek.codec.RawJson;
+import com.chektek.codegen.PayloadClass;
+
+import net.runelite.api.Client;
+
+/**
+ * A state payload sent to clients in delta mode: either the fields that changed
+ * since version {@code base}, or, when {@code base} is null, a snapshot of every
+ * field.
+ */
+@PayloadClass
+public class DeltaPayload extends Payload {
+    private final long version;
+    private final Long base;
+    private final RawJson changes;
+
+    public DeltaPayload(PayloadType type, long version, Long base, RawJson changes) {
+        super(type);
+        this.version = version;
+        this.base = base;
+        this.changes = changes;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public Long getBase() {
+        return base;
+    }
+
+    public boolean isSnapshot() {
+        return base == null;
+    }
+
+    public RawJson getChanges() {
+        return changes;
+    }
+
+    @Override
+    public boolean isNewPayload(Client client) {
+        // Derived from another payload rather than read from the client
+        return false;
+    }
+}
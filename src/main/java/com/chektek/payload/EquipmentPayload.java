@@ -1,10 +1,13 @@
 package com.chektek.payload;
 
+import com.chektek.codegen.PayloadClass;
+
 import net.runelite.api.Client;
 import net.runelite.api.PlayerComposition;
 
 import java.util.Arrays;
 
+@PayloadClass
 public class EquipmentPayload extends Payload {
     private int[] playerEquipmentIds;
 
@@ -16,20 +19,9 @@ public class EquipmentPayload extends Payload {
         super(PayloadType.EQUIPMENT);
 
         PlayerComposition composition = client.getLocalPlayer().getPlayerComposition();
-        this.playerEquipmentIds = composition != null ? composition.getEquipmentIds() : null;
-    }
-
-    @Override
-    public boolean equals(Object o) {
-        if (this == o) return true;
-        if (o == null || getClass() != o.getClass()) return false;
-        EquipmentPayload that = (EquipmentPayload) o;
-        return Arrays.equals(playerEquipmentIds, that.playerEquipmentIds);
-    }
-
-    @Override
-    public int hashCode() {
-        return Arrays.hashCode(playerEquipmentIds);
+        int[] ids = composition != null ? composition.getEquipmentIds() : null;
+        // A snapshot, since the composition's array is compared against it every tick
+        this.playerEquipmentIds = ids != null ? ids.clone() : null;
     }
 
     public int[] getPlayerEquipmentIds() {
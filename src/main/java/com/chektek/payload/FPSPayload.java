@@ -1,9 +1,10 @@
 package com.chektek.payload;
 
-import net.runelite.api.Client;
+import com.chektek.codegen.PayloadClass;
 
-import java.util.Objects;
+import net.runelite.api.Client;
 
+@PayloadClass
 public class FPSPayload extends Payload {
     private int fps;
 
@@ -16,19 +17,6 @@ public class FPSPayload extends Payload {
         this.fps = client.getFPS();
     }
 
-    @Override
-    public boolean equals(Object o) {
-        if (this == o) return true;
-        if (o == null || getClass() != o.getClass()) return false;
-        FPSPayload that = (FPSPayload) o;
-        return fps == that.fps;
-    }
-
-    @Override
-    public int hashCode() {
-        return Objects.hash(fps);
-    }
-
     public int getFps() {
         return fps;
     }
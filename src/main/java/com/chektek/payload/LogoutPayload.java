@@ -1,7 +1,10 @@
 package com.chektek.payload;
 
+import com.chektek.codegen.PayloadClass;
+
 import net.runelite.api.Client;
 
+@PayloadClass
 public class LogoutPayload extends Payload {
 	
     public LogoutPayload() {
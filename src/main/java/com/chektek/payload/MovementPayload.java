@@ -1,36 +1,38 @@
 package com.chektek.payload;
 
-import net.runelite.api.Client;
+import com.chektek.codegen.PayloadClass;
 
-import java.util.Objects;
+import net.runelite.api.Client;
+import net.runelite.api.Player;
+import net.runelite.api.WorldView;
+import net.runelite.api.coords.LocalPoint;
+import net.runelite.api.coords.WorldPoint;
 
+@PayloadClass
 public class MovementPayload extends Payload {
     private int energy;
     private int coordinateX;
     private int coordinateY;
-    
+
+    // Scene tile and world view the coordinates were read at
+    private transient int sceneX;
+    private transient int sceneY;
+    private transient int baseX;
+    private transient int baseY;
+    private transient int plane;
+
     public MovementPayload() {
         super(PayloadType.MOVEMENT);
     }
 
     public MovementPayload(Client client) {
         super(PayloadType.MOVEMENT);
+        Player player = client.getLocalPlayer();
+        WorldPoint location = player.getWorldLocation();
         this.energy = client.getEnergy() / 100;
-        this.coordinateX = client.getLocalPlayer().getWorldLocation().getX();
-        this.coordinateY = client.getLocalPlayer().getWorldLocation().getY();
-    }
-
-    @Override
-    public boolean equals(Object o) {
-        if (this == o) return true;
-        if (o == null || getClass() != o.getClass()) return false;
-        MovementPayload that = (MovementPayload) o;
-        return energy == that.energy && coordinateX == that.coordinateX && coordinateY == that.coordinateY;
-    }
-
-    @Override
-    public int hashCode() {
-        return Objects.hash(energy, coordinateX, coordinateY);
+        this.coordinateX = location.getX();
+        this.coordinateY = location.getY();
+        remember(player.getLocalLocation(), player.getWorldView());
     }
 
     public int getEnergy() {
@@ -46,11 +48,39 @@ public class MovementPayload extends Payload {
     }
 
 
+    /**
+     * Compares the player's scene tile, world view base and plane, and builds a
+     * WorldPoint only when one of them moved. RuneLite has no primitive read of
+     * the player's position, so each check still costs the LocalPoint that
+     * {@code getLocalLocation()} returns; this check allocates nothing else.
+     */
     @Override
     public boolean isNewPayload(Client client) {
-        return this.getCoordinateX() != client.getLocalPlayer().getWorldLocation().getX()
-                || this.getCoordinateY() != client.getLocalPlayer().getWorldLocation().getY()
-                || this.getEnergy() != client.getEnergy() / 100;
+        if (this.getEnergy() != client.getEnergy() / 100) {
+            return true;
+        }
+        Player player = client.getLocalPlayer();
+        LocalPoint local = player.getLocalLocation();
+        WorldView view = player.getWorldView();
+        if (local.getSceneX() == sceneX && local.getSceneY() == sceneY && view.getBaseX() == baseX
+                && view.getBaseY() == baseY && view.getPlane() == plane) {
+            return false;
+        }
+        // The scene tile can change without the world tile, e.g. when the
+        // region reloads, so only then build a WorldPoint to compare
+        WorldPoint location = player.getWorldLocation();
+        if (this.getCoordinateX() != location.getX() || this.getCoordinateY() != location.getY()) {
+            return true;
+        }
+        remember(local, view);
+        return false;
+    }
 
+    private void remember(LocalPoint local, WorldView view) {
+        this.sceneX = local.getSceneX();
+        this.sceneY = local.getSceneY();
+        this.baseX = view.getBaseX();
+        this.baseY = view.getBaseY();
+        this.plane = view.getPlane();
     }
 }
@@ -0,0 +1,69 @@
+package com.chektek.payload;
+
+import com.chektek.codegen.PayloadClass;
+
+import net.runelite.api.GrandExchangeOffer;
+
+@PayloadClass
+public class Offer {
+    private final int itemId;
+    private final int price;
+    private final int quantitySold;
+    private final int spent;
+    private final int totalQuantity;
+    private final String state;
+
+    Offer(GrandExchangeOffer offer) {
+        this.itemId = offer.getItemId();
+        this.price = offer.getPrice();
+        this.quantitySold = offer.getQuantitySold();
+        this.spent = offer.getSpent();
+        this.totalQuantity = offer.getTotalQuantity();
+        this.state = offer.getState().name();
+    }
+
+    public int getItemId() {
+        return itemId;
+    }
+
+    public int getPrice() {
+        return price;
+    }
+
+    public int getQuantitySold() {
+        return quantitySold;
+    }
+
+    public int getSpent() {
+        return spent;
+    }
+
+    public int getTotalQuantity() {
+        return totalQuantity;
+    }
+
+    public String getState() {
+        return state;
+    }
+
+    /**
+     * True if the game's offer still has these values.
+     */
+    boolean matches(GrandExchangeOffer offer) {
+        return itemId == offer.getItemId() && price == offer.getPrice() && quantitySold == offer.getQuantitySold()
+                && spent == offer.getSpent() && totalQuantity == offer.getTotalQuantity()
+                && state.equals(offer.getState().name());
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        return OfferFields.equals(this, (Offer) o);
+    }
+
+    @Override
+    public int hashCode() {
+        return OfferFields.hashCode(this);
+    }
+}
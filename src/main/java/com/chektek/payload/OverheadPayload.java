@@ -1,10 +1,11 @@
 package com.chektek.payload;
 
+import com.chektek.codegen.PayloadClass;
+
 import net.runelite.api.Client;
 import net.runelite.api.HeadIcon;
 
-import java.util.Objects;
-
+@PayloadClass
 public class OverheadPayload extends Payload {
 
     private String overheadIcon;
@@ -20,19 +21,6 @@ public class OverheadPayload extends Payload {
         this.overheadIcon = overheadIcon != null ? overheadIcon.name() : null;
     }
 
-    @Override
-    public boolean equals(Object o) {
-        if (this == o) return true;
-        if (o == null || getClass() != o.getClass()) return false;
-        OverheadPayload that = (OverheadPayload) o;
-        return Objects.equals(overheadIcon, that.overheadIcon);
-    }
-
-    @Override
-    public int hashCode() {
-        return Objects.hash(overheadIcon);
-    }
-
     public String getOverheadIcon() {
         return overheadIcon;
     }
@@ -1,9 +1,12 @@
 package com.chektek.payload;
 
+import com.chektek.codegen.PayloadClass;
+
 import net.runelite.api.Client;
 
 import java.util.Objects;
 
+@PayloadClass
 public class PVPPayload extends Payload {
 
     private Integer skullIcon;
@@ -18,19 +21,6 @@ public class PVPPayload extends Payload {
         this.skullIcon = skullIcon >= 0 ? skullIcon : null;
     }
 
-    @Override
-    public boolean equals(Object o) {
-        if (this == o) return true;
-        if (o == null || getClass() != o.getClass()) return false;
-        PVPPayload that = (PVPPayload) o;
-        return Objects.equals(skullIcon, that.skullIcon);
-    }
-
-    @Override
-    public int hashCode() {
-        return Objects.hash(skullIcon);
-    }
-
     public Integer getSkullIcon() {
         return skullIcon;
     }
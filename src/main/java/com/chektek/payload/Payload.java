@@ -1,9 +1,16 @@
 package com.chektek.payload;
 
+import com.chektek.codegen.PayloadClass;
+import com.chektek.codegen.PayloadField;
+
 import net.runelite.api.Client;
 
+@PayloadClass
 abstract public class Payload {
+    @PayloadField(state = false)
     private PayloadType type;
+    @PayloadField(state = false)
+    private Long seq;
 
     protected Payload(PayloadType type) {
         this.type = type;
@@ -13,5 +20,31 @@ abstract public class Payload {
         return type;
     }
 
+    /**
+     * The server sequence number this payload was broadcast under, or null if it
+     * has not been broadcast.
+     */
+    public Long getSeq() {
+        return seq;
+    }
+
+    public void setSeq(Long seq) {
+        this.seq = seq;
+    }
+
+    /**
+     * Payloads of the same class are equal if their state fields are, as compared
+     * by the code generated for each {@code @PayloadClass}.
+     */
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof Payload && PayloadFields.equals(this, (Payload) o);
+    }
+
+    @Override
+    public int hashCode() {
+        return PayloadFields.hashCode(this);
+    }
+
     public abstract boolean isNewPayload(Client client);
 }
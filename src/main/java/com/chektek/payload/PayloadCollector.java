@@ -0,0 +1,60 @@
+package com.chektek.payload;
+
+import java.util.Collections;
+import java.util.Set;
+
+import net.runelite.api.Client;
+
+/**
+ * Reads one type of payload from the game client, for a
+ * {@link PayloadCollectorRegistry} to run on game ticks.
+ * <p>
+ * A collector is first asked whether the game state differs from the last
+ * payload it collected, and only builds a new payload if it does. The checks run
+ * every tick the collector is due, so they should not allocate.
+ */
+public interface PayloadCollector<T extends Payload> {
+
+	PayloadType getType();
+
+	/**
+	 * How often the collector is due. Costly collectors can run less often than
+	 * every tick.
+	 */
+	default SamplingInterval getInterval() {
+		return SamplingInterval.EVERY_TICK;
+	}
+
+	/**
+	 * The payload to compare against before any has been collected, such as one
+	 * with no fields set.
+	 */
+	T empty();
+
+	/**
+	 * True if the game state differs from {@code last}.
+	 */
+	default boolean isChanged(Client client, T last) {
+		return last.isNewPayload(client);
+	}
+
+	T collect(Client client);
+
+	/**
+	 * False if the collector need not run until its type is marked dirty, because
+	 * a game event fires for every change it could find. Polled collectors run
+	 * whenever they are due.
+	 */
+	default boolean isPolled(T last) {
+		return true;
+	}
+
+	/**
+	 * Types that may have changed whenever this one has. They are marked dirty
+	 * when this collector finds a change, and run later in the same tick if they
+	 * were registered after it.
+	 */
+	default Set<PayloadType> getDependents() {
+		return Collections.emptySet();
+	}
+}
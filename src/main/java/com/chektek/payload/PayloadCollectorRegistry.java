@@ -0,0 +1,120 @@
+package com.chektek.payload;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+import com.chektek.metrics.Histogram;
+import com.chektek.metrics.StatsRegistry;
+
+import net.runelite.api.Client;
+
+/**
+ * Runs the registered {@link PayloadCollector}s on each game tick, in the order
+ * they were registered, and keeps the last payload each one collected.
+ * <p>
+ * A collector runs on a tick when its interval has passed and it is either
+ * polled or its type has been marked dirty since it last ran. A dirty type
+ * stays dirty until its collector is next due. Check and build times are
+ * recorded as {@code tick.<TYPE>.checkNanos} and {@code tick.<TYPE>.buildNanos}.
+ * <p>
+ * Not thread safe; only used on the client thread.
+ */
+public class PayloadCollectorRegistry {
+
+	private final StatsRegistry stats;
+	private final List<Registration<?>> registrations = new ArrayList<>();
+	private final Set<PayloadType> dirty = EnumSet.allOf(PayloadType.class);
+
+	public PayloadCollectorRegistry(StatsRegistry stats) {
+		this.stats = stats;
+	}
+
+	public void register(PayloadCollector<?> collector) {
+		for (Registration<?> registration : registrations) {
+			if (registration.collector.getType() == collector.getType()) {
+				throw new IllegalArgumentException("A collector is already registered for " + collector.getType());
+			}
+		}
+		registrations.add(new Registration<>(collector));
+	}
+
+	/**
+	 * Notes that the payload of a type may have changed, for collectors that are
+	 * not polled.
+	 */
+	public void markDirty(PayloadType type) {
+		dirty.add(type);
+	}
+
+	/**
+	 * Forgets every collected payload and marks every type dirty, so each
+	 * collector runs again and its first payload counts as a change.
+	 */
+	public void reset() {
+		for (Registration<?> registration : registrations) {
+			registration.reset();
+		}
+		dirty.addAll(EnumSet.allOf(PayloadType.class));
+	}
+
+	/**
+	 * Runs the collectors that are due, adding each payload that changed to
+	 * {@code changed}. Allocates nothing unless something changed.
+	 */
+	public void collect(Client client, long tick, long nowMillis, List<Payload> changed) {
+		for (int i = 0; i < registrations.size(); i++) {
+			registrations.get(i).collect(client, tick, nowMillis, changed);
+		}
+	}
+
+	private final class Registration<T extends Payload> {
+		private final PayloadCollector<T> collector;
+		private final Histogram checkNanos;
+		private final Histogram buildNanos;
+
+		private T last;
+		private boolean hasRun;
+		private long lastTick;
+		private long lastMillis;
+
+		Registration(PayloadCollector<T> collector) {
+			this.collector = collector;
+			this.checkNanos = stats.histogram("tick." + collector.getType() + ".checkNanos");
+			this.buildNanos = stats.histogram("tick." + collector.getType() + ".buildNanos");
+			reset();
+		}
+
+		void reset() {
+			last = collector.empty();
+			hasRun = false;
+		}
+
+		void collect(Client client, long tick, long nowMillis, List<Payload> changed) {
+			if (hasRun && !collector.getInterval().isDue(tick - lastTick, nowMillis - lastMillis)) {
+				return;
+			}
+			PayloadType type = collector.getType();
+			if (!dirty.remove(type) && !collector.isPolled(last)) {
+				return;
+			}
+			hasRun = true;
+			lastTick = tick;
+			lastMillis = nowMillis;
+
+			long start = System.nanoTime();
+			boolean isChanged = collector.isChanged(client, last);
+			long checked = System.nanoTime();
+			checkNanos.record(checked - start);
+			if (!isChanged) {
+				return;
+			}
+
+			last = collector.collect(client);
+			buildNanos.record(System.nanoTime() - checked);
+			changed.add(last);
+			dirty.addAll(collector.getDependents());
+		}
+	}
+}
@@ -0,0 +1,50 @@
+package com.chektek.payload;
+
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The collectors the plugin registers, in the order they run each tick.
+ */
+public final class PayloadCollectors {
+
+	private static final Set<PayloadType> ACTIVITY = EnumSet.of(PayloadType.ACTIVITY);
+
+	private PayloadCollectors() {
+	}
+
+	public static List<PayloadCollector<?>> defaults() {
+		return Arrays.asList(
+				new ClientPayloadCollector<MovementPayload>(PayloadType.MOVEMENT, SamplingInterval.EVERY_TICK, true,
+						MovementPayload::new, MovementPayload::new) {
+					@Override
+					public Set<PayloadType> getDependents() {
+						// Walking has no event of its own
+						return ACTIVITY;
+					}
+				},
+				new ClientPayloadCollector<OverheadPayload>(PayloadType.OVERHEAD, SamplingInterval.EVERY_TICK, true,
+						OverheadPayload::new, OverheadPayload::new),
+				new ClientPayloadCollector<SkillsPayload>(PayloadType.SKILLS, SamplingInterval.EVERY_TICK, false,
+						SkillsPayload::new, SkillsPayload::new),
+				new ClientPayloadCollector<PVPPayload>(PayloadType.PVP, SamplingInterval.EVERY_TICK, true,
+						PVPPayload::new, PVPPayload::new),
+				new ClientPayloadCollector<EquipmentPayload>(PayloadType.EQUIPMENT, SamplingInterval.EVERY_TICK, false,
+						EquipmentPayload::new, EquipmentPayload::new),
+				new ClientPayloadCollector<FPSPayload>(PayloadType.FPS, SamplingInterval.EVERY_TICK, true,
+						FPSPayload::new, FPSPayload::new),
+				// Every offer is read and compared, and offers rarely need to arrive within a tick
+				new ClientPayloadCollector<GrandExchangePayload>(PayloadType.GRAND_EXCHANGE,
+						SamplingInterval.millis(3000), false, GrandExchangePayload::new, GrandExchangePayload::new),
+				new ClientPayloadCollector<ActivityPayload>(PayloadType.ACTIVITY, SamplingInterval.EVERY_TICK, false,
+						ActivityPayload::new, ActivityPayload::new) {
+					@Override
+					public boolean isPolled(ActivityPayload last) {
+						// Becoming inactive has no event, and is debounced over several ticks
+						return last.isActive();
+					}
+				});
+	}
+}
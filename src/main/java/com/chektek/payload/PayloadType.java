@@ -1,16 +1,34 @@
 package com.chektek.payload;
 
 public enum PayloadType {
-	ACTIVITY,
-	EQUIPMENT,
-	FPS,
-	GRAND_EXCHANGE,
-	LOGOUT,
-	MOVEMENT,
-	OVERHEAD,
-	PVP,
-	SKILLS,
-	WORLDS,
-	PLUGINS,
-	PLUGIN_CHANGED
+	ACTIVITY(true),
+	EQUIPMENT(true),
+	FPS(true),
+	GRAND_EXCHANGE(true),
+	LOGOUT(false),
+	MOVEMENT(true),
+	OVERHEAD(true),
+	PVP(true),
+	SKILLS(true),
+	WORLDS(true),
+	PLUGINS(true),
+	PLUGIN_CHANGED(false),
+	STATS(false),
+	BATCH(false),
+	RESUMED(false),
+	HELLO(false);
+
+	private final boolean state;
+
+	PayloadType(boolean state) {
+		this.state = state;
+	}
+
+	/**
+	 * State payloads describe the latest value of something, so an unsent one can
+	 * be replaced by a newer one. Event payloads must all be delivered, in order.
+	 */
+	public boolean isState() {
+		return state;
+	}
 }
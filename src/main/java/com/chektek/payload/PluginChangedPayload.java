@@ -0,0 +1,29 @@
+package com.chektek.payload;
+
+import com.chektek.PluginSummary;
+import com.chektek.codegen.PayloadClass;
+
+import net.runelite.api.Client;
+
+/**
+ * A plugin that was started or stopped.
+ */
+@PayloadClass
+public class PluginChangedPayload extends Payload {
+    private final PluginSummary plugin;
+
+    public PluginChangedPayload(PluginSummary plugin) {
+        super(PayloadType.PLUGIN_CHANGED);
+        this.plugin = plugin;
+    }
+
+    public PluginSummary getPlugin() {
+        return plugin;
+    }
+
+    @Override
+    public boolean isNewPayload(Client client) {
+        // Sent when RuneLite reports the change rather than read each tick
+        return false;
+    }
+}
@@ -0,0 +1,32 @@
+package com.chektek.payload;
+
+import java.util.List;
+
+import com.chektek.PluginSummary;
+import com.chektek.codegen.PayloadClass;
+
+import net.runelite.api.Client;
+
+/**
+ * Every installed plugin and whether it is running, sent in reply to
+ * {@code getPlugins}.
+ */
+@PayloadClass
+public class PluginsPayload extends Payload {
+    private final List<PluginSummary> plugins;
+
+    public PluginsPayload(List<PluginSummary> plugins) {
+        super(PayloadType.PLUGINS);
+        this.plugins = plugins;
+    }
+
+    public List<PluginSummary> getPlugins() {
+        return plugins;
+    }
+
+    @Override
+    public boolean isNewPayload(Client client) {
+        // Sent on request rather than read from the client each tick
+        return false;
+    }
+}
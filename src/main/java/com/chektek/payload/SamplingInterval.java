@@ -0,0 +1,45 @@
+package com.chektek.payload;
+
+/**
+ * How often a {@link PayloadCollector} runs, as a number of game ticks or a
+ * minimum time between runs. Collectors only ever run on a game tick, so a
+ * time interval is rounded up to the next tick.
+ */
+public final class SamplingInterval {
+
+	public static final SamplingInterval EVERY_TICK = new SamplingInterval(1, 0);
+
+	private final int ticks;
+	private final long millis;
+
+	private SamplingInterval(int ticks, long millis) {
+		this.ticks = ticks;
+		this.millis = millis;
+	}
+
+	public static SamplingInterval ticks(int ticks) {
+		if (ticks < 1) {
+			throw new IllegalArgumentException("Sampling interval must be at least one tick: " + ticks);
+		}
+		return new SamplingInterval(ticks, 0);
+	}
+
+	public static SamplingInterval millis(long millis) {
+		if (millis < 0) {
+			throw new IllegalArgumentException("Sampling interval must not be negative: " + millis);
+		}
+		return new SamplingInterval(1, millis);
+	}
+
+	/**
+	 * True if a collector last run this many ticks and milliseconds ago is due.
+	 */
+	boolean isDue(long ticksSince, long millisSince) {
+		return ticksSince >= ticks && millisSince >= millis;
+	}
+
+	@Override
+	public String toString() {
+		return millis > 0 ? millis + "ms" : ticks + (ticks == 1 ? " tick" : " ticks");
+	}
+}
@@ -1,10 +1,13 @@
 package com.chektek.payload;
 
+import java.util.Arrays;
+
+import com.chektek.codegen.PayloadClass;
+
 import net.runelite.api.Client;
 import net.runelite.api.Skill;
 
-import java.util.Objects;
-
+@PayloadClass
 public class SkillsPayload extends Payload {
     private int currentHealth;
     private int totalHealth;
@@ -55,6 +58,12 @@ public class SkillsPayload extends Payload {
     private int combatLevel;
 	private int currentSailing;
 	private int totalSailing;
+
+    /**
+     * The levels this payload was built from, indexed by skill ordinal.
+     */
+    private transient int[] boostedLevels;
+    private transient int[] realLevels;
     
     public SkillsPayload() {
         super(PayloadType.SKILLS);
@@ -63,54 +72,60 @@ public class SkillsPayload extends Payload {
     public SkillsPayload(Client client) {
         super(PayloadType.SKILLS);
 
-        this.currentHealth = client.getBoostedSkillLevel(Skill.HITPOINTS);
-        this.totalHealth = client.getRealSkillLevel(Skill.HITPOINTS);
-        this.currentAttack = client.getBoostedSkillLevel(Skill.ATTACK);
-        this.totalAttack = client.getRealSkillLevel(Skill.ATTACK);
-        this.currentStrength = client.getBoostedSkillLevel(Skill.STRENGTH);
-        this.totalStrength = client.getRealSkillLevel(Skill.STRENGTH);
-        this.currentDefence = client.getBoostedSkillLevel(Skill.DEFENCE);
-        this.totalDefence = client.getRealSkillLevel(Skill.DEFENCE);
-        this.currentRange = client.getBoostedSkillLevel(Skill.RANGED);
-        this.totalRange = client.getRealSkillLevel(Skill.RANGED);
-        this.currentPrayer = client.getBoostedSkillLevel(Skill.PRAYER);
-        this.totalPrayer = client.getRealSkillLevel(Skill.PRAYER);
-        this.currentMagic = client.getBoostedSkillLevel(Skill.MAGIC);
-        this.totalMagic = client.getRealSkillLevel(Skill.MAGIC);
-        this.currentRunecrafting = client.getBoostedSkillLevel(Skill.RUNECRAFT);
-        this.totalRunecrafting = client.getRealSkillLevel(Skill.RUNECRAFT);
-        this.currentConstruction = client.getBoostedSkillLevel(Skill.CONSTRUCTION);
-        this.totalConstruction = client.getRealSkillLevel(Skill.CONSTRUCTION);
-        this.currentAgility = client.getBoostedSkillLevel(Skill.AGILITY);
-        this.totalAgility = client.getRealSkillLevel(Skill.AGILITY);
-        this.currentHerblore = client.getBoostedSkillLevel(Skill.HERBLORE);
-        this.totalHerblore = client.getRealSkillLevel(Skill.HERBLORE);
-        this.currentThieving = client.getBoostedSkillLevel(Skill.THIEVING);
-        this.totalThieving = client.getRealSkillLevel(Skill.THIEVING);
-        this.currentCrafting = client.getBoostedSkillLevel(Skill.CRAFTING);
-        this.totalCrafting = client.getRealSkillLevel(Skill.CRAFTING);
-        this.currentFletching = client.getBoostedSkillLevel(Skill.FLETCHING);
-        this.totalFletching = client.getRealSkillLevel(Skill.FLETCHING);
-        this.currentSlayer = client.getBoostedSkillLevel(Skill.SLAYER);
-        this.totalSlayer = client.getRealSkillLevel(Skill.SLAYER);
-        this.currentHunter = client.getBoostedSkillLevel(Skill.HUNTER);
-        this.totalHunter = client.getRealSkillLevel(Skill.HUNTER);
-        this.currentMining = client.getBoostedSkillLevel(Skill.MINING);
-        this.totalMining = client.getRealSkillLevel(Skill.MINING);
-        this.currentSmithing = client.getBoostedSkillLevel(Skill.SMITHING);
-        this.totalSmithing = client.getRealSkillLevel(Skill.SMITHING);
-        this.currentFishing = client.getBoostedSkillLevel(Skill.FISHING);
-        this.totalFishing = client.getRealSkillLevel(Skill.FISHING);
-        this.currentCooking = client.getBoostedSkillLevel(Skill.COOKING);
-        this.totalCooking = client.getRealSkillLevel(Skill.COOKING);
-        this.currentFiremaking = client.getBoostedSkillLevel(Skill.FIREMAKING);
-        this.totalFiremaking = client.getRealSkillLevel(Skill.FIREMAKING);
-        this.currentWoodcutting = client.getBoostedSkillLevel(Skill.WOODCUTTING);
-        this.totalWoodcutting = client.getRealSkillLevel(Skill.WOODCUTTING);
-        this.currentFarming = client.getBoostedSkillLevel(Skill.FARMING);
-        this.totalFarming = client.getRealSkillLevel(Skill.FARMING);
-		this.currentSailing = client.getBoostedSkillLevel(Skill.SAILING);
-		this.totalSailing = client.getRealSkillLevel(Skill.SAILING);
+        int[] boosted = client.getBoostedSkillLevels();
+        int[] real = client.getRealSkillLevels();
+        // Copies, since the client's arrays are compared against them every tick
+        this.boostedLevels = boosted.clone();
+        this.realLevels = real.clone();
+
+        this.currentHealth = boosted[Skill.HITPOINTS.ordinal()];
+        this.totalHealth = real[Skill.HITPOINTS.ordinal()];
+        this.currentAttack = boosted[Skill.ATTACK.ordinal()];
+        this.totalAttack = real[Skill.ATTACK.ordinal()];
+        this.currentStrength = boosted[Skill.STRENGTH.ordinal()];
+        this.totalStrength = real[Skill.STRENGTH.ordinal()];
+        this.currentDefence = boosted[Skill.DEFENCE.ordinal()];
+        this.totalDefence = real[Skill.DEFENCE.ordinal()];
+        this.currentRange = boosted[Skill.RANGED.ordinal()];
+        this.totalRange = real[Skill.RANGED.ordinal()];
+        this.currentPrayer = boosted[Skill.PRAYER.ordinal()];
+        this.totalPrayer = real[Skill.PRAYER.ordinal()];
+        this.currentMagic = boosted[Skill.MAGIC.ordinal()];
+        this.totalMagic = real[Skill.MAGIC.ordinal()];
+        this.currentRunecrafting = boosted[Skill.RUNECRAFT.ordinal()];
+        this.totalRunecrafting = real[Skill.RUNECRAFT.ordinal()];
+        this.currentConstruction = boosted[Skill.CONSTRUCTION.ordinal()];
+        this.totalConstruction = real[Skill.CONSTRUCTION.ordinal()];
+        this.currentAgility = boosted[Skill.AGILITY.ordinal()];
+        this.totalAgility = real[Skill.AGILITY.ordinal()];
+        this.currentHerblore = boosted[Skill.HERBLORE.ordinal()];
+        this.totalHerblore = real[Skill.HERBLORE.ordinal()];
+        this.currentThieving = boosted[Skill.THIEVING.ordinal()];
+        this.totalThieving = real[Skill.THIEVING.ordinal()];
+        this.currentCrafting = boosted[Skill.CRAFTING.ordinal()];
+        this.totalCrafting = real[Skill.CRAFTING.ordinal()];
+        this.currentFletching = boosted[Skill.FLETCHING.ordinal()];
+        this.totalFletching = real[Skill.FLETCHING.ordinal()];
+        this.currentSlayer = boosted[Skill.SLAYER.ordinal()];
+        this.totalSlayer = real[Skill.SLAYER.ordinal()];
+        this.currentHunter = boosted[Skill.HUNTER.ordinal()];
+        this.totalHunter = real[Skill.HUNTER.ordinal()];
+        this.currentMining = boosted[Skill.MINING.ordinal()];
+        this.totalMining = real[Skill.MINING.ordinal()];
+        this.currentSmithing = boosted[Skill.SMITHING.ordinal()];
+        this.totalSmithing = real[Skill.SMITHING.ordinal()];
+        this.currentFishing = boosted[Skill.FISHING.ordinal()];
+        this.totalFishing = real[Skill.FISHING.ordinal()];
+        this.currentCooking = boosted[Skill.COOKING.ordinal()];
+        this.totalCooking = real[Skill.COOKING.ordinal()];
+        this.currentFiremaking = boosted[Skill.FIREMAKING.ordinal()];
+        this.totalFiremaking = real[Skill.FIREMAKING.ordinal()];
+        this.currentWoodcutting = boosted[Skill.WOODCUTTING.ordinal()];
+        this.totalWoodcutting = real[Skill.WOODCUTTING.ordinal()];
+        this.currentFarming = boosted[Skill.FARMING.ordinal()];
+        this.totalFarming = real[Skill.FARMING.ordinal()];
+		this.currentSailing = boosted[Skill.SAILING.ordinal()];
+		this.totalSailing = real[Skill.SAILING.ordinal()];
 
         this.combatLevel = client.getLocalPlayer().getCombatLevel();
     }
@@ -311,69 +326,11 @@ public class SkillsPayload extends Payload {
         return this.combatLevel;
     }
 
-    @Override
-    public boolean equals(Object o) {
-        if (this == o) return true;
-        if (o == null || getClass() != o.getClass()) return false;
-        SkillsPayload that = (SkillsPayload) o;
-        return currentHealth == that.currentHealth && totalHealth == that.totalHealth && currentAttack == that.currentAttack && totalAttack == that.totalAttack && currentStrength == that.currentStrength && totalStrength == that.totalStrength && currentDefence == that.currentDefence && totalDefence == that.totalDefence && currentRange == that.currentRange && totalRange == that.totalRange && currentPrayer == that.currentPrayer && totalPrayer == that.totalPrayer && currentMagic == that.currentMagic && totalMagic == that.totalMagic && currentRunecrafting == that.currentRunecrafting && totalRunecrafting == that.totalRunecrafting && currentConstruction == that.currentConstruction && totalConstruction == that.totalConstruction && currentAgility == that.currentAgility && totalAgility == that.totalAgility && currentHerblore == that.currentHerblore && totalHerblore == that.totalHerblore && currentThieving == that.currentThieving && totalThieving == that.totalThieving && currentCrafting == that.currentCrafting && totalCrafting == that.totalCrafting && currentFletching == that.currentFletching && totalFletching == that.totalFletching && currentSlayer == that.currentSlayer && totalSlayer == that.totalSlayer && currentHunter == that.currentHunter && totalHunter == that.totalHunter && currentMining == that.currentMining && totalMining == that.totalMining && currentSmithing == that.currentSmithing && totalSmithing == that.totalSmithing && currentFishing == that.currentFishing && totalFishing == that.totalFishing && currentCooking == that.currentCooking && totalCooking == that.totalCooking && currentFiremaking == that.currentFiremaking && totalFiremaking == that.totalFiremaking && currentWoodcutting == that.currentWoodcutting && totalWoodcutting == that.totalWoodcutting && currentFarming == that.currentFarming && totalFarming == that.totalFarming && combatLevel == that.combatLevel && currentSailing == that.currentSailing && totalSailing == that.totalSailing;
-    }
-
-    @Override
-    public int hashCode() {
-        return Objects.hash(currentHealth, totalHealth, currentAttack, totalAttack, currentStrength, totalStrength, currentDefence, totalDefence, currentRange, totalRange, currentPrayer, totalPrayer, currentMagic, totalMagic, currentRunecrafting, totalRunecrafting, currentConstruction, totalConstruction, currentAgility, totalAgility, currentHerblore, totalHerblore, currentThieving, totalThieving, currentCrafting, totalCrafting, currentFletching, totalFletching, currentSlayer, totalSlayer, currentHunter, totalHunter, currentMining, totalMining, currentSmithing, totalSmithing, currentFishing, totalFishing, currentCooking, totalCooking, currentFiremaking, totalFiremaking, currentWoodcutting, totalWoodcutting, currentFarming, totalFarming, combatLevel, currentSailing, totalSailing);
-    }
-
     @Override
     public boolean isNewPayload(Client client) {
-        return this.currentHealth != client.getBoostedSkillLevel(Skill.HITPOINTS) ||
-                this.totalHealth != client.getRealSkillLevel(Skill.HITPOINTS) ||
-                this.currentAttack != client.getBoostedSkillLevel(Skill.ATTACK) ||
-                this.totalAttack != client.getRealSkillLevel(Skill.ATTACK) ||
-                this.currentStrength != client.getBoostedSkillLevel(Skill.STRENGTH) ||
-                this.totalStrength != client.getRealSkillLevel(Skill.STRENGTH) ||
-                this.currentDefence != client.getBoostedSkillLevel(Skill.DEFENCE) ||
-                this.totalDefence != client.getRealSkillLevel(Skill.DEFENCE) ||
-                this.currentRange != client.getBoostedSkillLevel(Skill.RANGED) ||
-                this.totalRange != client.getRealSkillLevel(Skill.RANGED) ||
-                this.currentPrayer != client.getBoostedSkillLevel(Skill.PRAYER) ||
-                this.totalPrayer != client.getRealSkillLevel(Skill.PRAYER) ||
-                this.currentMagic != client.getBoostedSkillLevel(Skill.MAGIC) ||
-                this.totalMagic != client.getRealSkillLevel(Skill.MAGIC) ||
-                this.currentRunecrafting != client.getBoostedSkillLevel(Skill.RUNECRAFT) ||
-                this.totalRunecrafting != client.getRealSkillLevel(Skill.RUNECRAFT) ||
-                this.currentConstruction != client.getBoostedSkillLevel(Skill.CONSTRUCTION) ||
-                this.totalConstruction != client.getRealSkillLevel(Skill.CONSTRUCTION) ||
-                this.currentAgility != client.getBoostedSkillLevel(Skill.AGILITY) ||
-                this.totalAgility != client.getRealSkillLevel(Skill.AGILITY) ||
-                this.currentHerblore != client.getBoostedSkillLevel(Skill.HERBLORE) ||
-                this.totalHerblore != client.getRealSkillLevel(Skill.HERBLORE) ||
-                this.currentThieving != client.getBoostedSkillLevel(Skill.THIEVING) ||
-                this.totalThieving != client.getRealSkillLevel(Skill.THIEVING) ||
-                this.currentCrafting != client.getBoostedSkillLevel(Skill.CRAFTING) ||
-                this.totalCrafting != client.getRealSkillLevel(Skill.CRAFTING) ||
-                this.currentFletching != client.getBoostedSkillLevel(Skill.FLETCHING) ||
-				this.totalFletching != client.getRealSkillLevel(Skill.FLETCHING) ||
-				this.currentSlayer != client.getBoostedSkillLevel(Skill.SLAYER) ||
-				this.totalSlayer != client.getRealSkillLevel(Skill.SLAYER) ||
-				this.currentHunter != client.getBoostedSkillLevel(Skill.HUNTER) ||
-				this.totalHunter != client.getRealSkillLevel(Skill.HUNTER) ||
-				this.currentMining != client.getBoostedSkillLevel(Skill.MINING) ||
-				this.totalMining != client.getRealSkillLevel(Skill.MINING) ||
-				this.currentSmithing != client.getBoostedSkillLevel(Skill.SMITHING) ||
-				this.totalSmithing != client.getRealSkillLevel(Skill.SMITHING) ||
-				this.currentFishing != client.getBoostedSkillLevel(Skill.FISHING) ||
-				this.totalFishing != client.getRealSkillLevel(Skill.FISHING) ||
-				this.currentCooking != client.getBoostedSkillLevel(Skill.COOKING) ||
-				this.totalCooking != client.getRealSkillLevel(Skill.COOKING) ||
-				this.currentFiremaking != client.getBoostedSkillLevel(Skill.FIREMAKING) ||
-				this.totalFiremaking != client.getRealSkillLevel(Skill.FIREMAKING) ||
-				this.currentWoodcutting != client.getBoostedSkillLevel(Skill.WOODCUTTING) ||
-				this.totalWoodcutting != client.getRealSkillLevel(Skill.WOODCUTTING) ||
-				this.currentFarming != client.getBoostedSkillLevel(Skill.FARMING) ||
-				this.totalFarming != client.getRealSkillLevel(Skill.FARMING) ||
-				this.currentSailing != client.getBoostedSkillLevel(Skill.SAILING) ||
-				this.totalSailing != client.getRealSkillLevel(Skill.SAILING) ||
-                this.combatLevel != client.getLocalPlayer().getCombatLevel();
+        // Every skill at once, rather than reading each level again
+        return !Arrays.equals(this.boostedLevels, client.getBoostedSkillLevels())
+                || !Arrays.equals(this.realLevels, client.getRealSkillLevels())
+                || this.combatLevel != client.getLocalPlayer().getCombatLevel();
     }
 }
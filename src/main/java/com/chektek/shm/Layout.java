@@ -0,0 +1,56 @@
+package com.chektek.shm;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * Offsets and sizes of the shared memory file, shared by the publisher and the
+ * reader. See SCHEMA.md for the layout.
+ * <p>
+ * All integers are little-endian. Every field that is read concurrently is
+ * 8-byte aligned so it can be accessed atomically through {@link #LONG}.
+ */
+final class Layout {
+
+	static final int MAGIC = 0x4D534452; // "RDSM" in little-endian
+	static final int VERSION = 1;
+
+	static final int HEADER_SIZE = 64;
+	static final int MAGIC_OFFSET = 0;
+	static final int VERSION_OFFSET = 4;
+	static final int SLOT_COUNT_OFFSET = 8;
+	static final int SLOT_SIZE_OFFSET = 12;
+	static final int RING_CAPACITY_OFFSET = 16;
+	static final int RING_ENTRY_SIZE_OFFSET = 20;
+	static final int EPOCH_OFFSET = 24;
+	static final int RING_HEAD_OFFSET = 32;
+
+	static final int SLOT_SEQ_OFFSET = 0;
+	static final int SLOT_LENGTH_OFFSET = 8;
+	static final int SLOT_DATA_OFFSET = 16;
+
+	static final int ENTRY_SEQ_OFFSET = 0;
+	static final int ENTRY_EVENT_OFFSET = 8;
+	static final int ENTRY_TYPE_OFFSET = 16;
+	static final int ENTRY_LENGTH_OFFSET = 20;
+	static final int ENTRY_DATA_OFFSET = 24;
+
+	static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+
+	/**
+	 * Atomic long access to a direct buffer, used for the sequence numbers.
+	 */
+	static final VarHandle LONG = MethodHandles.byteBufferViewVarHandle(long[].class, ORDER);
+
+	private Layout() {
+	}
+
+	static int ringOffset(int slotCount, int slotSize) {
+		return HEADER_SIZE + slotCount * slotSize;
+	}
+
+	static int fileSize(int slotCount, int slotSize, int ringCapacity, int ringEntrySize) {
+		return ringOffset(slotCount, slotSize) + ringCapacity * ringEntrySize;
+	}
+}
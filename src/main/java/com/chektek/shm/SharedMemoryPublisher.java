@@ -0,0 +1,181 @@
+package com.chektek.shm;
+
+import java.io.IOException;
+import java.lang.invoke.VarHandle;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.chektek.codec.PayloadJsonWriter;
+import com.chektek.codec.Utf8JsonWriter;
+import com.chektek.payload.Payload;
+import com.chektek.payload.PayloadType;
+import com.google.gson.Gson;
+
+/**
+ * Publishes payloads into a memory-mapped file for readers on the same machine.
+ * <p>
+ * The file holds one slot per {@link PayloadType} with the latest payload of
+ * each state type, and a ring of every payload in publish order. Both are
+ * guarded by seqlocks, so readers never block the writer and can poll without
+ * system calls. Payloads are stored as UTF-8 JSON, the same as the WebSocket
+ * messages.
+ * <p>
+ * There must be only one publisher per file.
+ */
+public class SharedMemoryPublisher {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(SharedMemoryPublisher.class);
+
+	public static final int DEFAULT_SLOT_SIZE = 16 * 1024;
+	public static final int DEFAULT_RING_CAPACITY = 256;
+	public static final int DEFAULT_RING_ENTRY_SIZE = 4 * 1024;
+
+	private final PayloadJsonWriter jsonWriter;
+	private final Utf8JsonWriter json;
+	private final FileChannel channel;
+	private final MappedByteBuffer buffer;
+	private final int slotCount;
+	private final int slotSize;
+	private final int ringStart;
+	private final int ringCapacity;
+	private final int ringEntrySize;
+
+	private long ringHead;
+
+	public SharedMemoryPublisher(Path file, Gson gson) throws IOException {
+		this(file, gson, DEFAULT_SLOT_SIZE, DEFAULT_RING_CAPACITY, DEFAULT_RING_ENTRY_SIZE);
+	}
+
+	public SharedMemoryPublisher(Path file, Gson gson, int slotSize, int ringCapacity, int ringEntrySize)
+			throws IOException {
+		if (Integer.bitCount(ringCapacity) != 1) {
+			throw new IllegalArgumentException("Ring capacity must be a power of two: " + ringCapacity);
+		}
+		if (slotSize % 8 != 0 || ringEntrySize % 8 != 0) {
+			throw new IllegalArgumentException("Slot and ring entry sizes must be multiples of 8");
+		}
+
+		this.jsonWriter = new PayloadJsonWriter(gson);
+		this.json = jsonWriter.newWriter();
+		this.slotCount = PayloadType.values().length;
+		this.slotSize = slotSize;
+		this.ringStart = Layout.ringOffset(slotCount, slotSize);
+		this.ringCapacity = ringCapacity;
+		this.ringEntrySize = ringEntrySize;
+
+		// Never truncate: a reader may still have the old file mapped
+		this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		try {
+			this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+					Layout.fileSize(slotCount, slotSize, ringCapacity, ringEntrySize));
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+		this.buffer.order(Layout.ORDER);
+		initialize();
+	}
+
+	/**
+	 * Lays out an empty file. The epoch is zeroed first and set last, so readers
+	 * see either the old file or the complete new one.
+	 */
+	private void initialize() {
+		// A restart within the same millisecond must still change the epoch
+		long previous = (long) Layout.LONG.get(buffer, Layout.EPOCH_OFFSET);
+		Layout.LONG.setRelease(buffer, Layout.EPOCH_OFFSET, 0L);
+
+		buffer.putInt(Layout.MAGIC_OFFSET, Layout.MAGIC);
+		buffer.putInt(Layout.VERSION_OFFSET, Layout.VERSION);
+		buffer.putInt(Layout.SLOT_COUNT_OFFSET, slotCount);
+		buffer.putInt(Layout.SLOT_SIZE_OFFSET, slotSize);
+		buffer.putInt(Layout.RING_CAPACITY_OFFSET, ringCapacity);
+		buffer.putInt(Layout.RING_ENTRY_SIZE_OFFSET, ringEntrySize);
+		Layout.LONG.set(buffer, Layout.RING_HEAD_OFFSET, 0L);
+
+		for (int i = 0; i < slotCount; i++) {
+			int slot = Layout.HEADER_SIZE + i * slotSize;
+			Layout.LONG.set(buffer, slot + Layout.SLOT_SEQ_OFFSET, 0L);
+			buffer.putInt(slot + Layout.SLOT_LENGTH_OFFSET, 0);
+		}
+		for (int i = 0; i < ringCapacity; i++) {
+			int entry = ringStart + i * ringEntrySize;
+			Layout.LONG.set(buffer, entry + Layout.ENTRY_SEQ_OFFSET, 0L);
+			Layout.LONG.set(buffer, entry + Layout.ENTRY_EVENT_OFFSET, -1L);
+		}
+
+		Layout.LONG.setRelease(buffer, Layout.EPOCH_OFFSET, Math.max(System.currentTimeMillis(), previous + 1));
+	}
+
+	/**
+	 * Stores the payload as the latest of its type, if it is a state type, and
+	 * appends it to the event ring.
+	 */
+	public synchronized void publish(Payload payload) {
+		PayloadType type = payload.getType();
+		json.reset();
+		jsonWriter.write(json, payload);
+		int length = json.length();
+
+		if (type.isState()) {
+			if (length <= slotSize - Layout.SLOT_DATA_OFFSET) {
+				writeSlot(type, length);
+			} else {
+				LOGGER.warn("{} payload of {} bytes does not fit a shared memory slot", type, length);
+			}
+		}
+
+		if (length <= ringEntrySize - Layout.ENTRY_DATA_OFFSET) {
+			appendEvent(type, length);
+		} else {
+			LOGGER.warn("{} payload of {} bytes does not fit the shared memory ring", type, length);
+		}
+	}
+
+	private void writeSlot(PayloadType type, int length) {
+		int slot = Layout.HEADER_SIZE + type.ordinal() * slotSize;
+		long seq = beginWrite(slot + Layout.SLOT_SEQ_OFFSET);
+		buffer.putInt(slot + Layout.SLOT_LENGTH_OFFSET, length);
+		buffer.position(slot + Layout.SLOT_DATA_OFFSET);
+		buffer.put(json.array(), 0, length);
+		Layout.LONG.setRelease(buffer, slot + Layout.SLOT_SEQ_OFFSET, seq + 2);
+	}
+
+	private void appendEvent(PayloadType type, int length) {
+		long event = ringHead;
+		int entry = ringStart + (int) (event & (ringCapacity - 1)) * ringEntrySize;
+		long seq = beginWrite(entry + Layout.ENTRY_SEQ_OFFSET);
+		Layout.LONG.set(buffer, entry + Layout.ENTRY_EVENT_OFFSET, event);
+		buffer.putInt(entry + Layout.ENTRY_TYPE_OFFSET, type.ordinal());
+		buffer.putInt(entry + Layout.ENTRY_LENGTH_OFFSET, length);
+		buffer.position(entry + Layout.ENTRY_DATA_OFFSET);
+		buffer.put(json.array(), 0, length);
+		Layout.LONG.setRelease(buffer, entry + Layout.ENTRY_SEQ_OFFSET, seq + 2);
+
+		ringHead = event + 1;
+		Layout.LONG.setRelease(buffer, Layout.RING_HEAD_OFFSET, ringHead);
+	}
+
+	/**
+	 * Marks a seqlock as being written by making its sequence odd.
+	 *
+	 * @return the sequence before the write
+	 */
+	private long beginWrite(int offset) {
+		long seq = (long) Layout.LONG.get(buffer, offset);
+		Layout.LONG.setOpaque(buffer, offset, seq + 1);
+		VarHandle.storeStoreFence();
+		return seq;
+	}
+
+	public synchronized void close() throws IOException {
+		buffer.force();
+		channel.close();
+	}
+}
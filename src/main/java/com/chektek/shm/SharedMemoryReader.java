@@ -0,0 +1,217 @@
+package com.chektek.shm;
+
+import java.io.IOException;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+import com.chektek.payload.PayloadType;
+
+/**
+ * Reads the file written by a {@link SharedMemoryPublisher} in another process
+ * on the same machine.
+ * <p>
+ * Reads make no system calls unless a state read keeps racing with the writer,
+ * when it yields the CPU for a bounded time before giving up. If the publisher
+ * restarts, the reader notices on its next read and remaps the file. A reader
+ * is not thread safe; use one per thread.
+ */
+public class SharedMemoryReader implements AutoCloseable {
+
+	private static final PayloadType[] TYPES = PayloadType.values();
+
+	/**
+	 * How long a state read waits for a slot that is being written before giving
+	 * up.
+	 */
+	static final long MAX_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+	private static final int SPINS = 100;
+
+	/**
+	 * Receives payloads from the event ring.
+	 */
+	public interface EventListener {
+		void onEvent(long sequence, PayloadType type, String json);
+	}
+
+	private final FileChannel channel;
+
+	private MappedByteBuffer buffer;
+	private ByteBuffer view;
+	private long epoch;
+	private int slotCount;
+	private int slotSize;
+	private int ringStart;
+	private int ringCapacity;
+	private int ringEntrySize;
+	private byte[] scratch;
+
+	private long nextEvent;
+	private long missedEvents;
+
+	public SharedMemoryReader(Path file) throws IOException {
+		this.channel = FileChannel.open(file, StandardOpenOption.READ);
+		try {
+			map();
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+		this.nextEvent = (long) Layout.LONG.getAcquire(buffer, Layout.RING_HEAD_OFFSET);
+	}
+
+	private void map() throws IOException {
+		if (channel.size() < Layout.HEADER_SIZE) {
+			throw new IOException("Not a Rune Deck shared memory file");
+		}
+		ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, Layout.HEADER_SIZE).order(Layout.ORDER);
+		if (header.getInt(Layout.MAGIC_OFFSET) != Layout.MAGIC) {
+			throw new IOException("Not a Rune Deck shared memory file");
+		}
+		if (header.getInt(Layout.VERSION_OFFSET) != Layout.VERSION) {
+			throw new IOException("Unsupported shared memory version: " + header.getInt(Layout.VERSION_OFFSET));
+		}
+
+		slotCount = header.getInt(Layout.SLOT_COUNT_OFFSET);
+		slotSize = header.getInt(Layout.SLOT_SIZE_OFFSET);
+		ringStart = Layout.ringOffset(slotCount, slotSize);
+		ringCapacity = header.getInt(Layout.RING_CAPACITY_OFFSET);
+		ringEntrySize = header.getInt(Layout.RING_ENTRY_SIZE_OFFSET);
+		buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+				Layout.fileSize(slotCount, slotSize, ringCapacity, ringEntrySize));
+		buffer.order(Layout.ORDER);
+		view = buffer.duplicate();
+		epoch = (long) Layout.LONG.getAcquire(buffer, Layout.EPOCH_OFFSET);
+		scratch = new byte[Math.max(slotSize, ringEntrySize)];
+	}
+
+	/**
+	 * Remaps the file if the publisher has restarted since the last read.
+	 *
+	 * @return false while the publisher is still laying out the file
+	 */
+	private boolean checkEpoch() throws IOException {
+		long current = (long) Layout.LONG.getAcquire(buffer, Layout.EPOCH_OFFSET);
+		if (current == epoch && current != 0) {
+			return true;
+		}
+		if (current == 0) {
+			return false;
+		}
+		map();
+		nextEvent = 0;
+		return epoch != 0;
+	}
+
+	/**
+	 * The latest payload of a state type as JSON, or null if none has been
+	 * published. Also null if the slot stays mid-write for
+	 * {@link #MAX_WAIT_NANOS}, as it does if the publisher died while writing it;
+	 * the next read checks for a restarted publisher again.
+	 */
+	public String readState(PayloadType type) throws IOException {
+		if (!checkEpoch() || type.ordinal() >= slotCount) {
+			return null;
+		}
+		int slot = Layout.HEADER_SIZE + type.ordinal() * slotSize;
+		long giveUpAt = 0;
+		for (int attempt = 1; ; attempt++) {
+			long before = (long) Layout.LONG.getAcquire(buffer, slot + Layout.SLOT_SEQ_OFFSET);
+			if (before == 0) {
+				return null;
+			}
+			if ((before & 1) == 0) {
+				int length = buffer.getInt(slot + Layout.SLOT_LENGTH_OFFSET);
+				boolean valid = length >= 0 && length <= slotSize - Layout.SLOT_DATA_OFFSET;
+				if (valid) {
+					copy(slot + Layout.SLOT_DATA_OFFSET, length);
+				}
+				VarHandle.loadLoadFence();
+				if ((long) Layout.LONG.getOpaque(buffer, slot + Layout.SLOT_SEQ_OFFSET) == before && valid) {
+					return new String(scratch, 0, length, StandardCharsets.UTF_8);
+				}
+			}
+
+			// Raced with the writer. Spin briefly, then yield in case it was
+			// descheduled mid-write, and give up if it never finishes
+			if (attempt < SPINS) {
+				Thread.onSpinWait();
+				continue;
+			}
+			long now = System.nanoTime();
+			if (attempt == SPINS) {
+				giveUpAt = now + MAX_WAIT_NANOS;
+			} else if (now - giveUpAt >= 0) {
+				return null;
+			}
+			Thread.yield();
+		}
+	}
+
+	/**
+	 * Delivers every payload published since the last poll, oldest first. Events
+	 * the writer overwrote before they were read are skipped and counted in
+	 * {@link #getMissedEvents()}. The first poll starts at the events published
+	 * after the reader was opened.
+	 *
+	 * @return the number of events delivered
+	 */
+	public int poll(EventListener listener) throws IOException {
+		if (!checkEpoch()) {
+			return 0;
+		}
+		long head = (long) Layout.LONG.getAcquire(buffer, Layout.RING_HEAD_OFFSET);
+		if (head - nextEvent > ringCapacity) {
+			missedEvents += head - ringCapacity - nextEvent;
+			nextEvent = head - ringCapacity;
+		}
+
+		int delivered = 0;
+		for (; nextEvent < head; nextEvent++) {
+			int entry = ringStart + (int) (nextEvent & (ringCapacity - 1)) * ringEntrySize;
+			// Every event before the head was written in full, so the only writes
+			// that can race with this read are of later laps, which replace it.
+			// There is no point retrying
+			long before = (long) Layout.LONG.getAcquire(buffer, entry + Layout.ENTRY_SEQ_OFFSET);
+			long event = (long) Layout.LONG.get(buffer, entry + Layout.ENTRY_EVENT_OFFSET);
+			int type = buffer.getInt(entry + Layout.ENTRY_TYPE_OFFSET);
+			int length = buffer.getInt(entry + Layout.ENTRY_LENGTH_OFFSET);
+			boolean valid = (before & 1) == 0 && event == nextEvent && length >= 0
+					&& length <= ringEntrySize - Layout.ENTRY_DATA_OFFSET;
+			if (valid) {
+				copy(entry + Layout.ENTRY_DATA_OFFSET, length);
+				VarHandle.loadLoadFence();
+				valid = (long) Layout.LONG.getOpaque(buffer, entry + Layout.ENTRY_SEQ_OFFSET) == before;
+			}
+
+			if (!valid) {
+				// Overwritten by a later lap of the ring
+				missedEvents++;
+				continue;
+			}
+			String json = new String(scratch, 0, length, StandardCharsets.UTF_8);
+			listener.onEvent(nextEvent, type >= 0 && type < TYPES.length ? TYPES[type] : null, json);
+			delivered++;
+		}
+		return delivered;
+	}
+
+	public long getMissedEvents() {
+		return missedEvents;
+	}
+
+	private void copy(int offset, int length) {
+		view.position(offset);
+		view.get(scratch, 0, length);
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+}
@@ -0,0 +1,84 @@
+package com.chektek.websocket;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A small pool of direct byte buffers bucketed by power-of-two size classes.
+ * Buffers larger than the biggest class are allocated on the heap and never
+ * pooled, so an occasional oversized message cannot pin a large direct buffer.
+ */
+public class BufferPool {
+
+	private static final int MIN_SHIFT = 10; // 1 KiB
+	private static final int MAX_SHIFT = 20; // 1 MiB
+	private static final int MAX_BUFFERS_PER_CLASS = 64;
+
+	private final SizeClass[] classes = new SizeClass[MAX_SHIFT - MIN_SHIFT + 1];
+
+	public BufferPool() {
+		for (int i = 0; i < classes.length; i++) {
+			classes[i] = new SizeClass();
+		}
+	}
+
+	/**
+	 * Returns a cleared buffer with at least {@code size} bytes of capacity.
+	 */
+	public ByteBuffer acquire(int size) {
+		int index = classIndex(size);
+		if (index < 0) {
+			return ByteBuffer.allocate(size);
+		}
+
+		SizeClass sizeClass = classes[index];
+		ByteBuffer buffer = sizeClass.buffers.poll();
+		if (buffer == null) {
+			return ByteBuffer.allocateDirect(1 << (index + MIN_SHIFT));
+		}
+
+		sizeClass.pooled.decrementAndGet();
+		buffer.clear();
+		return buffer;
+	}
+
+	/**
+	 * Hands a buffer obtained from {@link #acquire(int)} back to the pool.
+	 */
+	public void release(ByteBuffer buffer) {
+		if (buffer == null || !buffer.isDirect()) {
+			return;
+		}
+
+		int capacity = buffer.capacity();
+		int index = classIndex(capacity);
+		if (index < 0 || 1 << (index + MIN_SHIFT) != capacity) {
+			return;
+		}
+
+		SizeClass sizeClass = classes[index];
+		if (sizeClass.pooled.incrementAndGet() > MAX_BUFFERS_PER_CLASS) {
+			sizeClass.pooled.decrementAndGet();
+			return;
+		}
+		sizeClass.buffers.add(buffer);
+	}
+
+	private static int classIndex(int size) {
+		if (size > 1 << MAX_SHIFT) {
+			return -1;
+		}
+		int shift = Math.max(MIN_SHIFT, 32 - Integer.numberOfLeadingZeros(Math.max(size, 1) - 1));
+		return shift - MIN_SHIFT;
+	}
+
+	/**
+	 * The pooled buffers of one size, and how many there are.
+	 */
+	private static final class SizeClass {
+		private final Queue<ByteBuffer> buffers = new ConcurrentLinkedQueue<>();
+		private final AtomicInteger pooled = new AtomicInteger();
+	}
+}
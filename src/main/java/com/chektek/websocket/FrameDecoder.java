@@ -0,0 +1,311 @@
+package com.chektek.websocket;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Incremental RFC 6455 frame decoder owned by a single connection.
+ * <p>
+ * Bytes are fed in as they arrive, in chunks of any size. Frame headers that
+ * straddle two reads are accumulated in a small scratch array, payloads are
+ * unmasked in place, and fragmented messages are reassembled into a reusable
+ * per-connection buffer up to a configured limit. A message that arrives
+ * whole inside a single read is handed out directly from the read buffer
+ * without being copied.
+ * <p>
+ * {@link #decode(ByteBuffer)} is pull based: it returns the opcode of each
+ * completed message or control frame, whose bytes are then available through
+ * {@link #array()}, {@link #offset()} and {@link #length()} until the next call.
+ */
+final class FrameDecoder {
+
+	static final int NEED_MORE = -1;
+
+	static final int OPCODE_CONTINUATION = 0x00;
+	static final int OPCODE_TEXT = 0x01;
+	static final int OPCODE_BINARY = 0x02;
+	static final int OPCODE_CLOSE = 0x08;
+	static final int OPCODE_PING = 0x09;
+	static final int OPCODE_PONG = 0x0A;
+
+	private static final int STATE_HEADER = 0;
+	private static final int STATE_PAYLOAD = 1;
+
+	private static final int INITIAL_MESSAGE_CAPACITY = 4096;
+	private static final int RETAINED_MESSAGE_CAPACITY = 64 * 1024;
+	private static final int MAX_CONTROL_PAYLOAD = 125;
+
+	private final int maxMessageSize;
+	private boolean compressionAllowed;
+
+	private int state = STATE_HEADER;
+	private final byte[] header = new byte[14];
+	private int headerLength;
+
+	private boolean fin;
+	private int rsv;
+	private int frameOpcode;
+	private final byte[] mask = new byte[4];
+	private boolean masked;
+	private int payloadLength;
+	private int payloadRead;
+
+	private int messageOpcode = -1;
+	private int messageRsv;
+	private byte[] message = new byte[INITIAL_MESSAGE_CAPACITY];
+	private int messageLength;
+
+	private final byte[] control = new byte[MAX_CONTROL_PAYLOAD];
+
+	private byte[] resultArray;
+	private int resultOffset;
+	private int resultLength;
+	private int resultRsv;
+
+	FrameDecoder(int maxMessageSize) {
+		this.maxMessageSize = maxMessageSize;
+	}
+
+	/**
+	 * Allows RSV1 on the first frame of a data message, as used by permessage-deflate.
+	 */
+	void setCompressionAllowed(boolean compressionAllowed) {
+		this.compressionAllowed = compressionAllowed;
+	}
+
+	/**
+	 * Consumes bytes from {@code in}, which must be backed by an accessible array,
+	 * until a message or control frame completes or the input runs out.
+	 *
+	 * @return the opcode of the completed message, or {@link #NEED_MORE}
+	 * @throws IOException if the peer violates the protocol or the size limit
+	 */
+	int decode(ByteBuffer in) throws IOException {
+		if (resultArray == message && messageLength > RETAINED_MESSAGE_CAPACITY) {
+			message = new byte[INITIAL_MESSAGE_CAPACITY];
+		}
+		resultArray = null;
+		if (state == STATE_HEADER && messageOpcode == -1) {
+			messageLength = 0;
+		}
+
+		while (in.hasRemaining()) {
+			if (state == STATE_HEADER) {
+				if (!readHeader(in)) {
+					return NEED_MORE;
+				}
+
+				if (isControl(frameOpcode)) {
+					continue;
+				}
+
+				// Fast path: an unfragmented message that is fully buffered is unmasked where it lies
+				if (fin && messageOpcode == -1 && in.remaining() >= payloadLength) {
+					byte[] array = in.array();
+					int start = in.arrayOffset() + in.position();
+					unmask(array, start, payloadLength, 0);
+					in.position(in.position() + payloadLength);
+					state = STATE_HEADER;
+					return complete(array, start, payloadLength, rsv, frameOpcode);
+				}
+
+				if (frameOpcode != OPCODE_CONTINUATION) {
+					messageOpcode = frameOpcode;
+					messageRsv = rsv;
+				}
+				ensureMessageCapacity(messageLength + payloadLength);
+			}
+
+			int result = readPayload(in);
+			if (result != NEED_MORE) {
+				return result;
+			}
+		}
+
+		if (state == STATE_PAYLOAD && payloadRead == payloadLength) {
+			return readPayload(in);
+		}
+		return NEED_MORE;
+	}
+
+	byte[] array() {
+		return resultArray;
+	}
+
+	int offset() {
+		return resultOffset;
+	}
+
+	int length() {
+		return resultLength;
+	}
+
+	/**
+	 * Returns the RSV bits of the first frame of the completed message.
+	 */
+	int rsv() {
+		return resultRsv;
+	}
+
+	private boolean readHeader(ByteBuffer in) throws IOException {
+		if (headerLength < 2) {
+			headerLength += copy(in, header, headerLength, 2 - headerLength);
+			if (headerLength < 2) {
+				return false;
+			}
+		}
+
+		int lengthCode = header[1] & 0x7F;
+		boolean frameMasked = (header[1] & 0x80) != 0;
+		int needed = 2 + (lengthCode == 126 ? 2 : lengthCode == 127 ? 8 : 0) + (frameMasked ? 4 : 0);
+
+		if (headerLength < needed) {
+			headerLength += copy(in, header, headerLength, needed - headerLength);
+			if (headerLength < needed) {
+				return false;
+			}
+		}
+
+		fin = (header[0] & 0x80) != 0;
+		rsv = (header[0] >> 4) & 0x07;
+		frameOpcode = header[0] & 0x0F;
+		masked = frameMasked;
+
+		long length;
+		int offset = 2;
+		if (lengthCode == 126) {
+			length = ((header[2] & 0xFF) << 8) | (header[3] & 0xFF);
+			offset = 4;
+		} else if (lengthCode == 127) {
+			length = 0;
+			for (int i = 0; i < 8; i++) {
+				length = (length << 8) | (header[2 + i] & 0xFF);
+			}
+			offset = 10;
+			if (length < 0) {
+				throw new IOException("Invalid frame length");
+			}
+		} else {
+			length = lengthCode;
+		}
+
+		if (masked) {
+			System.arraycopy(header, offset, mask, 0, 4);
+		}
+		headerLength = 0;
+
+		validate(length);
+
+		payloadLength = (int) length;
+		payloadRead = 0;
+		state = STATE_PAYLOAD;
+		return true;
+	}
+
+	private void validate(long length) throws IOException {
+		if (!masked) {
+			throw new IOException("Client frames must be masked");
+		}
+		boolean compressedStart = rsv == 0x04 && compressionAllowed
+				&& (frameOpcode == OPCODE_TEXT || frameOpcode == OPCODE_BINARY);
+		if (rsv != 0 && !compressedStart) {
+			throw new IOException("Reserved bits set without a negotiated extension");
+		}
+
+		switch (frameOpcode) {
+			case OPCODE_CONTINUATION:
+				if (messageOpcode == -1) {
+					throw new IOException("Continuation frame without a message in progress");
+				}
+				break;
+			case OPCODE_TEXT:
+			case OPCODE_BINARY:
+				if (messageOpcode != -1) {
+					throw new IOException("New message started before previous message finished");
+				}
+				break;
+			case OPCODE_CLOSE:
+			case OPCODE_PING:
+			case OPCODE_PONG:
+				if (!fin || length > MAX_CONTROL_PAYLOAD) {
+					throw new IOException("Invalid control frame");
+				}
+				return;
+			default:
+				throw new IOException("Unknown opcode: " + frameOpcode);
+		}
+
+		if (messageLength + length > maxMessageSize) {
+			throw new IOException("Message exceeds limit of " + maxMessageSize + " bytes");
+		}
+	}
+
+	private int readPayload(ByteBuffer in) {
+		boolean isControlFrame = isControl(frameOpcode);
+		byte[] target = isControlFrame ? control : message;
+		int base = isControlFrame ? 0 : messageLength;
+
+		int count = copy(in, target, base + payloadRead, payloadLength - payloadRead);
+		unmask(target, base + payloadRead, count, payloadRead);
+		payloadRead += count;
+
+		if (payloadRead < payloadLength) {
+			return NEED_MORE;
+		}
+
+		state = STATE_HEADER;
+
+		if (isControlFrame) {
+			return complete(control, 0, payloadLength, rsv, frameOpcode);
+		}
+
+		messageLength += payloadLength;
+		if (!fin) {
+			return NEED_MORE;
+		}
+
+		int opcode = messageOpcode;
+		messageOpcode = -1;
+		return complete(message, 0, messageLength, messageRsv, opcode);
+	}
+
+	private int complete(byte[] array, int offset, int length, int frameRsv, int opcode) {
+		resultArray = array;
+		resultOffset = offset;
+		resultLength = length;
+		resultRsv = frameRsv;
+		return opcode;
+	}
+
+	private void unmask(byte[] data, int offset, int length, int maskIndex) {
+		if (!masked) {
+			return;
+		}
+		for (int i = 0; i < length; i++) {
+			data[offset + i] ^= mask[(maskIndex + i) & 3];
+		}
+	}
+
+	private void ensureMessageCapacity(int capacity) {
+		if (capacity <= message.length) {
+			return;
+		}
+		int newCapacity = message.length;
+		while (newCapacity < capacity) {
+			newCapacity = newCapacity << 1;
+		}
+		byte[] grown = new byte[Math.min(newCapacity, Math.max(capacity, maxMessageSize))];
+		System.arraycopy(message, 0, grown, 0, messageLength);
+		message = grown;
+	}
+
+	private static boolean isControl(int opcode) {
+		return (opcode & 0x08) != 0;
+	}
+
+	private static int copy(ByteBuffer in, byte[] target, int offset, int max) {
+		int count = Math.min(in.remaining(), max);
+		in.get(target, offset, count);
+		return count;
+	}
+}
@@ -0,0 +1,279 @@
+package com.chektek.websocket;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Incremental parser for the HTTP upgrade request that opens a WebSocket
+ * connection (RFC 6455 section 4.2.1).
+ * <p>
+ * Bytes are fed in as they arrive, so a request split across several reads is
+ * fine. Lines are matched directly on the bytes; only the values of the headers
+ * the server needs are turned into strings. Parsing stops at the blank line that
+ * ends the request, leaving anything the client sent after it in the buffer.
+ */
+final class HandshakeParser {
+
+	private static final int INITIAL_CAPACITY = 1024;
+	private static final int MAX_HEADERS = 64;
+
+	private static final byte[] GET = bytes("GET ");
+	private static final byte[] HTTP_1_1 = bytes(" HTTP/1.1");
+	private static final byte[] HOST = bytes("host");
+	private static final byte[] UPGRADE = bytes("upgrade");
+	private static final byte[] CONNECTION = bytes("connection");
+	private static final byte[] WEBSOCKET = bytes("websocket");
+	private static final byte[] KEY = bytes("sec-websocket-key");
+	private static final byte[] VERSION = bytes("sec-websocket-version");
+	private static final byte[] PROTOCOL = bytes("sec-websocket-protocol");
+	private static final byte[] EXTENSIONS = bytes("sec-websocket-extensions");
+	private static final byte[] ORIGIN = bytes("origin");
+
+	private final int maxSize;
+
+	private byte[] buffer;
+	private int length;
+	private int lineStart;
+	private boolean requestLineSeen;
+	private int headerCount;
+
+	private boolean hostSeen;
+	private boolean upgradeWebSocket;
+	private boolean connectionUpgrade;
+	private String key;
+	private String version;
+	private String protocols;
+	private String extensions;
+	private String origin;
+
+	HandshakeParser(int maxSize) {
+		this.maxSize = maxSize;
+		// The limit is checked whenever the buffer fills, so it must never start larger
+		this.buffer = new byte[Math.min(INITIAL_CAPACITY, maxSize)];
+	}
+
+	/**
+	 * Consumes bytes from {@code in} up to the end of the request.
+	 *
+	 * @return true once the request is complete and valid
+	 * @throws InvalidHandshakeException if the request is malformed, too large or
+	 *                                   not a WebSocket upgrade
+	 */
+	boolean parse(ByteBuffer in) throws InvalidHandshakeException {
+		while (in.hasRemaining()) {
+			if (length == buffer.length) {
+				if (length >= maxSize) {
+					throw new InvalidHandshakeException(431, "Handshake exceeds limit of " + maxSize + " bytes");
+				}
+				byte[] grown = new byte[Math.min(buffer.length << 1, maxSize)];
+				System.arraycopy(buffer, 0, grown, 0, length);
+				buffer = grown;
+			}
+
+			byte b = in.get();
+			buffer[length++] = b;
+			if (b != '\n') {
+				continue;
+			}
+
+			int lineEnd = length - 1;
+			if (lineEnd > lineStart && buffer[lineEnd - 1] == '\r') {
+				lineEnd--;
+			}
+			int start = lineStart;
+			lineStart = length;
+
+			if (!requestLineSeen) {
+				parseRequestLine(start, lineEnd);
+			} else if (lineEnd == start) {
+				validate();
+				return true;
+			} else {
+				parseHeader(start, lineEnd);
+			}
+		}
+		return false;
+	}
+
+	String getKey() {
+		return key;
+	}
+
+	/**
+	 * The {@code Sec-WebSocket-Protocol} values, repeated headers joined with commas.
+	 */
+	String getProtocols() {
+		return protocols;
+	}
+
+	/**
+	 * The {@code Sec-WebSocket-Extensions} values, repeated headers joined with commas.
+	 */
+	String getExtensions() {
+		return extensions;
+	}
+
+	String getOrigin() {
+		return origin;
+	}
+
+	private void parseRequestLine(int start, int end) throws InvalidHandshakeException {
+		if (!startsWith(start, end, GET) || !endsWith(start, end, HTTP_1_1)) {
+			throw new InvalidHandshakeException(400, "Expected a GET request over HTTP/1.1");
+		}
+		requestLineSeen = true;
+	}
+
+	private void parseHeader(int start, int end) throws InvalidHandshakeException {
+		if (++headerCount > MAX_HEADERS) {
+			throw new InvalidHandshakeException(431, "Too many headers");
+		}
+
+		int colon = start;
+		while (colon < end && buffer[colon] != ':') {
+			colon++;
+		}
+		if (colon == end || colon == start) {
+			throw new InvalidHandshakeException(400, "Malformed header line");
+		}
+
+		int valueStart = colon + 1;
+		int valueEnd = end;
+		while (valueStart < valueEnd && isWhitespace(buffer[valueStart])) {
+			valueStart++;
+		}
+		while (valueEnd > valueStart && isWhitespace(buffer[valueEnd - 1])) {
+			valueEnd--;
+		}
+
+		if (nameEquals(start, colon, HOST)) {
+			hostSeen = true;
+		} else if (nameEquals(start, colon, UPGRADE)) {
+			upgradeWebSocket |= containsToken(valueStart, valueEnd, WEBSOCKET);
+		} else if (nameEquals(start, colon, CONNECTION)) {
+			connectionUpgrade |= containsToken(valueStart, valueEnd, UPGRADE);
+		} else if (nameEquals(start, colon, KEY)) {
+			if (key != null) {
+				throw new InvalidHandshakeException(400, "Repeated Sec-WebSocket-Key");
+			}
+			key = string(valueStart, valueEnd);
+		} else if (nameEquals(start, colon, VERSION)) {
+			version = string(valueStart, valueEnd);
+		} else if (nameEquals(start, colon, PROTOCOL)) {
+			protocols = join(protocols, valueStart, valueEnd);
+		} else if (nameEquals(start, colon, EXTENSIONS)) {
+			extensions = join(extensions, valueStart, valueEnd);
+		} else if (nameEquals(start, colon, ORIGIN)) {
+			origin = string(valueStart, valueEnd);
+		}
+	}
+
+	private void validate() throws InvalidHandshakeException {
+		if (!hostSeen) {
+			throw new InvalidHandshakeException(400, "Missing Host header");
+		}
+		if (!upgradeWebSocket || !connectionUpgrade) {
+			throw new InvalidHandshakeException(400, "Not a WebSocket upgrade request");
+		}
+		if (!"13".equals(version)) {
+			throw new InvalidHandshakeException(426, "Unsupported WebSocket version: " + version);
+		}
+		// The key is 16 random bytes in base64
+		if (key == null || key.length() != 24) {
+			throw new InvalidHandshakeException(400, "Missing or invalid Sec-WebSocket-Key");
+		}
+	}
+
+	private boolean nameEquals(int start, int end, byte[] lowerCaseName) {
+		if (end - start != lowerCaseName.length) {
+			return false;
+		}
+		for (int i = 0; i < lowerCaseName.length; i++) {
+			if (toLower(buffer[start + i]) != lowerCaseName[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Case-insensitive search for a token in a comma separated header value.
+	 */
+	private boolean containsToken(int start, int end, byte[] lowerCaseToken) {
+		int tokenStart = start;
+		for (int i = start; i <= end; i++) {
+			if (i < end && buffer[i] != ',') {
+				continue;
+			}
+			int s = tokenStart;
+			int e = i;
+			while (s < e && isWhitespace(buffer[s])) {
+				s++;
+			}
+			while (e > s && isWhitespace(buffer[e - 1])) {
+				e--;
+			}
+			if (nameEquals(s, e, lowerCaseToken)) {
+				return true;
+			}
+			tokenStart = i + 1;
+		}
+		return false;
+	}
+
+	private boolean startsWith(int start, int end, byte[] prefix) {
+		if (end - start < prefix.length) {
+			return false;
+		}
+		for (int i = 0; i < prefix.length; i++) {
+			if (buffer[start + i] != prefix[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean endsWith(int start, int end, byte[] suffix) {
+		return end - start >= suffix.length && startsWith(end - suffix.length, end, suffix);
+	}
+
+	private String join(String existing, int start, int end) {
+		String value = string(start, end);
+		return existing == null ? value : existing + ", " + value;
+	}
+
+	private String string(int start, int end) {
+		return new String(buffer, start, end - start, StandardCharsets.ISO_8859_1);
+	}
+
+	private static byte toLower(byte b) {
+		return b >= 'A' && b <= 'Z' ? (byte) (b + ('a' - 'A')) : b;
+	}
+
+	private static boolean isWhitespace(byte b) {
+		return b == ' ' || b == '\t';
+	}
+
+	private static byte[] bytes(String value) {
+		return value.getBytes(StandardCharsets.US_ASCII);
+	}
+
+	/**
+	 * A request that cannot be upgraded, with the HTTP status to answer it with.
+	 */
+	static final class InvalidHandshakeException extends IOException {
+		private static final long serialVersionUID = 1L;
+
+		private final int status;
+
+		InvalidHandshakeException(int status, String message) {
+			super(message);
+			this.status = status;
+		}
+
+		int getStatus() {
+			return status;
+		}
+	}
+}
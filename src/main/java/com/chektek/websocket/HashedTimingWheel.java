@@ -0,0 +1,144 @@
+package com.chektek.websocket;
+
+/**
+ * A single-threaded hashed timing wheel.
+ * <p>
+ * Timeouts are bucketed by the tick they expire on, so scheduling and
+ * cancelling are O(1) and advancing the wheel only touches the buckets whose
+ * ticks have passed. The wheel has no thread of its own; its owner calls
+ * {@link #advance(long)} from its event loop. Precision is one tick, which is
+ * plenty for keepalive and idle timeouts measured in seconds.
+ * <p>
+ * Not thread safe: all methods, including {@link Timeout#cancel()}, must be
+ * called from the owning thread.
+ */
+final class HashedTimingWheel {
+
+	private final long tickNanos;
+	private final Timeout[] buckets;
+	private final int mask;
+	private final long startNanos;
+
+	private long currentTick;
+	private int size;
+
+	HashedTimingWheel(long tickNanos, int wheelSize, long nowNanos) {
+		if (Integer.bitCount(wheelSize) != 1) {
+			throw new IllegalArgumentException("Wheel size must be a power of two: " + wheelSize);
+		}
+		this.tickNanos = tickNanos;
+		this.buckets = new Timeout[wheelSize];
+		this.mask = wheelSize - 1;
+		this.startNanos = nowNanos;
+	}
+
+	long getTickNanos() {
+		return tickNanos;
+	}
+
+	boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Schedules a task to run once at least {@code delayNanos} after {@code nowNanos}.
+	 */
+	Timeout schedule(long delayNanos, long nowNanos, Runnable task) {
+		long deadlineTick = Math.max(currentTick + 1, (nowNanos - startNanos + delayNanos + tickNanos - 1) / tickNanos);
+		Timeout timeout = new Timeout(this, task, deadlineTick);
+		link(timeout);
+		return timeout;
+	}
+
+	/**
+	 * Runs every task whose deadline has passed.
+	 */
+	void advance(long nowNanos) {
+		long targetTick = (nowNanos - startNanos) / tickNanos;
+		if (targetTick <= currentTick) {
+			return;
+		}
+
+		if (targetTick - currentTick >= buckets.length) {
+			// Fell behind by a full rotation; sweep every bucket once
+			currentTick = targetTick;
+			for (int i = 0; i < buckets.length && size > 0; i++) {
+				expire(i);
+			}
+			return;
+		}
+
+		while (currentTick < targetTick) {
+			currentTick++;
+			expire((int) (currentTick & mask));
+		}
+	}
+
+	private void expire(int bucket) {
+		Timeout timeout = buckets[bucket];
+		while (timeout != null) {
+			Timeout next = timeout.next;
+			if (!timeout.cancelled && timeout.deadlineTick <= currentTick) {
+				unlink(timeout);
+				timeout.task.run();
+			}
+			timeout = next;
+		}
+	}
+
+	private void link(Timeout timeout) {
+		int bucket = (int) (timeout.deadlineTick & mask);
+		timeout.next = buckets[bucket];
+		if (timeout.next != null) {
+			timeout.next.prev = timeout;
+		}
+		buckets[bucket] = timeout;
+		timeout.linked = true;
+		size++;
+	}
+
+	private void unlink(Timeout timeout) {
+		if (!timeout.linked) {
+			return;
+		}
+		int bucket = (int) (timeout.deadlineTick & mask);
+		if (timeout.prev != null) {
+			timeout.prev.next = timeout.next;
+		} else {
+			buckets[bucket] = timeout.next;
+		}
+		if (timeout.next != null) {
+			timeout.next.prev = timeout.prev;
+		}
+		// Leave next intact so an in-progress sweep can continue past this node
+		timeout.prev = null;
+		timeout.linked = false;
+		size--;
+	}
+
+	/**
+	 * Handle to a scheduled task.
+	 */
+	static final class Timeout {
+		private final HashedTimingWheel wheel;
+		private final Runnable task;
+		private final long deadlineTick;
+		private Timeout next;
+		private Timeout prev;
+		private boolean linked;
+		private boolean cancelled;
+
+		private Timeout(HashedTimingWheel wheel, Runnable task, long deadlineTick) {
+			this.wheel = wheel;
+			this.task = task;
+			this.deadlineTick = deadlineTick;
+		}
+
+		void cancel() {
+			if (!cancelled) {
+				cancelled = true;
+				wheel.unlink(this);
+			}
+		}
+	}
+}
@@ -0,0 +1,375 @@
+package com.chektek.websocket;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.chektek.metrics.Histogram;
+
+/**
+ * One selector thread and the connections assigned to it.
+ * <p>
+ * All socket reads, writes and interest changes for those connections happen
+ * on this loop's thread. Other threads hand work over with {@link #execute},
+ * which preserves submission order, or ask for a connection's queue to be
+ * flushed with {@link #requestFlush}.
+ * <p>
+ * Each loop also drives a {@link HashedTimingWheel} that sends keepalive pings
+ * and reaps idle or unresponsive connections, so no connection needs a timer of
+ * its own.
+ */
+final class IoLoop {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(IoLoop.class);
+	private static final int READ_BUFFER_SIZE = 64 * 1024;
+	private static final long WHEEL_TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+	private static final int WHEEL_SIZE = 512;
+	private static final long IDLE_SELECT_MILLIS = 1000;
+	private static final byte[] EMPTY = new byte[0];
+
+	private final WebSocketServer server;
+	private final Selector selector;
+	private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+	private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+	private final Queue<WebSocketConnection> pendingFlushes = new ConcurrentLinkedQueue<>();
+	private final List<WebSocketConnection> connections = new ArrayList<>();
+	private final AtomicInteger connectionCount = new AtomicInteger();
+	private final Histogram fanoutNanos;
+	private final HashedTimingWheel timingWheel = new HashedTimingWheel(WHEEL_TICK_NANOS, WHEEL_SIZE, System.nanoTime());
+
+	private volatile Thread thread;
+
+	IoLoop(WebSocketServer server) throws IOException {
+		this.server = server;
+		this.selector = Selector.open();
+		this.fanoutNanos = server.getStats().histogram("ws.broadcastFanoutNanos");
+	}
+
+	/**
+	 * Lets this loop accept connections itself. Only used when no dedicated
+	 * acceptor thread is running, and only before the loop is started.
+	 */
+	void registerAcceptor(ServerSocketChannel serverChannel) throws ClosedChannelException {
+		serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+	}
+
+	/**
+	 * Number of connections assigned to this loop, including ones still being registered.
+	 */
+	int getConnectionCount() {
+		return connectionCount.get();
+	}
+
+	boolean inLoop() {
+		return Thread.currentThread() == thread;
+	}
+
+	void execute(Runnable task) {
+		tasks.add(task);
+		selector.wakeup();
+	}
+
+	/**
+	 * Runs a task on this loop after a delay, to within one timer tick. Must be
+	 * called on the loop thread.
+	 */
+	void schedule(long delayNanos, Runnable task) {
+		timingWheel.schedule(delayNanos, System.nanoTime(), task);
+	}
+
+	/**
+	 * Hands a freshly accepted channel to this loop.
+	 */
+	void adopt(SocketChannel client) {
+		connectionCount.incrementAndGet();
+		execute(() -> register(client));
+	}
+
+	/**
+	 * Called by a connection when its outbound queue goes from idle to pending.
+	 */
+	void requestFlush(WebSocketConnection conn) {
+		pendingFlushes.add(conn);
+		if (!inLoop()) {
+			selector.wakeup();
+		}
+	}
+
+	/**
+	 * Queues a frame on every handshaken connection owned by this loop that matches
+	 * the filter, if any. Must be called on the loop thread.
+	 */
+	void broadcastLocal(OutboundFrame frame, Object conflationKey, Predicate<WebSocketConnection> filter) {
+		long start = System.nanoTime();
+		for (int i = 0; i < connections.size(); i++) {
+			WebSocketConnection conn = connections.get(i);
+			if (conn.isHandshakeComplete() && (filter == null || filter.test(conn))) {
+				try {
+					conn.send(frame, conflationKey);
+				} catch (IOException e) {
+					LOGGER.warn("Error broadcasting to client: " + e.getMessage());
+				}
+			}
+		}
+		fanoutNanos.record(System.nanoTime() - start);
+	}
+
+	void runLoop() {
+		thread = Thread.currentThread();
+
+		while (server.isRunning()) {
+			try {
+				selector.select(timingWheel.isEmpty() ? IDLE_SELECT_MILLIS
+						: TimeUnit.NANOSECONDS.toMillis(timingWheel.getTickNanos()));
+				timingWheel.advance(System.nanoTime());
+				runTasks();
+				processSelectedKeys();
+				processPendingFlushes();
+			} catch (IOException e) {
+				if (server.isRunning()) {
+					LOGGER.error("Error in server loop: " + e.getMessage());
+				}
+			} catch (RuntimeException e) {
+				LOGGER.error("Unexpected error in server loop", e);
+			}
+		}
+
+		try {
+			selector.close();
+		} catch (IOException e) {
+			// Ignore
+		}
+	}
+
+	void wakeup() {
+		selector.wakeup();
+	}
+
+	/**
+	 * Forgets a connection that the server has closed. Must be called on the loop thread.
+	 */
+	void remove(WebSocketConnection conn) {
+		conn.setKeepalive(null);
+		if (connections.remove(conn)) {
+			connectionCount.decrementAndGet();
+		}
+	}
+
+	private void register(SocketChannel client) {
+		try {
+			client.configureBlocking(false);
+			SelectionKey key = client.register(selector, SelectionKey.OP_READ);
+			WebSocketConnection conn = new WebSocketConnection(client, server, this);
+			key.attach(conn);
+			connections.add(conn);
+			server.registerConnection(conn);
+			scheduleKeepalive(conn, System.nanoTime());
+			LOGGER.info("Client connected: " + client.getRemoteAddress());
+		} catch (IOException e) {
+			connectionCount.decrementAndGet();
+			LOGGER.warn("Failed to register client: " + e.getMessage());
+			try {
+				client.close();
+			} catch (IOException ignored) {
+				// Ignore
+			}
+		}
+	}
+
+	/**
+	 * Checks a connection for a stalled handshake, idleness, lag and a missing pong,
+	 * pings it when it has been quiet for a ping interval, and schedules the next
+	 * check.
+	 */
+	private void checkKeepalive(WebSocketConnection conn) {
+		if (!conn.getChannel().isOpen()) {
+			return;
+		}
+
+		long now = System.nanoTime();
+		long idleTimeout = TimeUnit.MILLISECONDS.toNanos(server.getIdleTimeoutMillis());
+		long pongTimeout = TimeUnit.MILLISECONDS.toNanos(server.getPongTimeoutMillis());
+		long pingInterval = TimeUnit.MILLISECONDS.toNanos(server.getPingIntervalMillis());
+		long handshakeTimeout = TimeUnit.MILLISECONDS.toNanos(server.getHandshakeTimeoutMillis());
+		long quiet = now - conn.getLastSeenNanos();
+
+		if (!conn.isHandshakeComplete() && handshakeTimeout > 0
+				&& now - conn.getConnectedNanos() >= handshakeTimeout) {
+			LOGGER.info("Closing client that did not complete its handshake");
+			server.closeConnection(conn);
+			return;
+		}
+
+		if (idleTimeout > 0 && quiet >= idleTimeout) {
+			LOGGER.info("Closing idle client after " + TimeUnit.NANOSECONDS.toSeconds(quiet) + " s");
+			server.closeConnection(conn);
+			return;
+		}
+
+		if (conn.isAwaitingPong() && pongTimeout > 0 && now - conn.getPingSentNanos() >= pongTimeout) {
+			LOGGER.info("Closing client that did not answer a ping");
+			server.closeConnection(conn);
+			return;
+		}
+
+		if (conn.isLagging(now)) {
+			LOGGER.warn("Closing client that stayed over its lag budget");
+			server.closeConnection(conn);
+			return;
+		}
+
+		if (pingInterval > 0 && conn.isHandshakeComplete() && !conn.isAwaitingPong() && quiet >= pingInterval) {
+			conn.pingSent(now);
+			OutboundFrame ping = OutboundFrame.of(FrameDecoder.OPCODE_PING, EMPTY);
+			try {
+				conn.send(ping);
+			} catch (IOException e) {
+				// Already scheduled for closing by the queue
+			} finally {
+				ping.release();
+			}
+		}
+
+		scheduleKeepalive(conn, now);
+	}
+
+	private void scheduleKeepalive(WebSocketConnection conn, long now) {
+		long next = Long.MAX_VALUE;
+		long idleTimeout = TimeUnit.MILLISECONDS.toNanos(server.getIdleTimeoutMillis());
+		long pongTimeout = TimeUnit.MILLISECONDS.toNanos(server.getPongTimeoutMillis());
+		long pingInterval = TimeUnit.MILLISECONDS.toNanos(server.getPingIntervalMillis());
+		long lagBudget = TimeUnit.MILLISECONDS.toNanos(server.getMaxLagMillis());
+		long handshakeTimeout = TimeUnit.MILLISECONDS.toNanos(server.getHandshakeTimeoutMillis());
+		long quiet = now - conn.getLastSeenNanos();
+
+		if (!conn.isHandshakeComplete() && handshakeTimeout > 0) {
+			next = Math.min(next, handshakeTimeout - (now - conn.getConnectedNanos()));
+		}
+		if (idleTimeout > 0) {
+			next = Math.min(next, idleTimeout - quiet);
+		}
+		if (conn.isAwaitingPong() && pongTimeout > 0) {
+			next = Math.min(next, pongTimeout - (now - conn.getPingSentNanos()));
+		} else if (pingInterval > 0) {
+			next = Math.min(next, pingInterval - quiet);
+		}
+		if (lagBudget > 0) {
+			next = Math.min(next, lagBudget);
+		}
+		if (next == Long.MAX_VALUE) {
+			return;
+		}
+
+		conn.setKeepalive(timingWheel.schedule(Math.max(next, 0), now, () -> checkKeepalive(conn)));
+	}
+
+	private void runTasks() {
+		Runnable task;
+		while ((task = tasks.poll()) != null) {
+			try {
+				task.run();
+			} catch (RuntimeException e) {
+				LOGGER.error("Error running server task", e);
+			}
+		}
+	}
+
+	private void processSelectedKeys() throws IOException {
+		Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+
+		while (keys.hasNext()) {
+			SelectionKey key = keys.next();
+			keys.remove();
+
+			if (!key.isValid()) {
+				continue;
+			}
+
+			if (key.isAcceptable()) {
+				server.accept((ServerSocketChannel) key.channel());
+				continue;
+			}
+
+			WebSocketConnection conn = (WebSocketConnection) key.attachment();
+			if (conn == null) {
+				continue;
+			}
+
+			if (key.isReadable()) {
+				read(conn);
+			}
+
+			if (key.isValid() && key.isWritable()) {
+				flush(conn, key);
+			}
+		}
+	}
+
+	private void read(WebSocketConnection conn) {
+		SocketChannel client = conn.getChannel();
+		ByteBuffer buffer = readBuffer;
+		buffer.clear();
+		int bytesRead;
+
+		try {
+			bytesRead = client.read(buffer);
+		} catch (IOException e) {
+			server.closeConnection(conn);
+			return;
+		}
+
+		if (bytesRead == -1) {
+			server.closeConnection(conn);
+			return;
+		}
+
+		buffer.flip();
+		conn.seen(System.nanoTime(), bytesRead);
+		server.handleRead(conn, buffer);
+	}
+
+	private void processPendingFlushes() {
+		WebSocketConnection conn;
+		while ((conn = pendingFlushes.poll()) != null) {
+			conn.clearFlushScheduled();
+			SelectionKey key = conn.getChannel().keyFor(selector);
+			if (key == null || !key.isValid()) {
+				continue;
+			}
+			flush(conn, key);
+		}
+	}
+
+	private void flush(WebSocketConnection conn, SelectionKey key) {
+		if (conn.isCloseRequested()) {
+			LOGGER.warn("Closing slow client with " + conn.getOutboundBytes() + " bytes queued");
+			server.closeConnection(conn);
+			return;
+		}
+
+		try {
+			if (conn.flush()) {
+				key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+			} else {
+				key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+			}
+		} catch (IOException e) {
+			server.closeConnection(conn);
+		}
+	}
+}
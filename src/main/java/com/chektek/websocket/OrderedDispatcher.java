@@ -0,0 +1,141 @@
+package com.chektek.websocket;
+
+import java.lang.reflect.Method;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs connection callbacks off the IO threads while keeping them in order per
+ * connection.
+ * <p>
+ * Every connection owns a {@link Mailbox}. Tasks for one connection run one at a
+ * time in submission order, while different connections run in parallel on the
+ * shared executor. A mailbox occupies at most one executor slot at a time, so a
+ * burst from one client cannot starve the others.
+ * <p>
+ * Callbacks never run on the thread that submits them, which is usually an IO
+ * loop. When the executor refuses a mailbox the pending tasks are dropped and
+ * {@link #dispatch} reports it, leaving the caller to close the connection.
+ */
+final class OrderedDispatcher {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(OrderedDispatcher.class);
+	private static final int MAX_TASKS_PER_TURN = 64;
+
+	private final ExecutorService executor;
+	private final boolean ownsExecutor;
+
+	OrderedDispatcher(ExecutorService executor, boolean ownsExecutor) {
+		this.executor = executor;
+		this.ownsExecutor = ownsExecutor;
+	}
+
+	/**
+	 * Creates the default executor: virtual threads when the runtime supports them
+	 * (JDK 21+), otherwise a small bounded pool of daemon threads that rejects work
+	 * once its queue is full.
+	 */
+	static ExecutorService createDefaultExecutor() {
+		try {
+			Method factory = java.util.concurrent.Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) factory.invoke(null);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			// Older runtime, fall back to platform threads
+		}
+
+		int threads = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+		AtomicInteger threadNumber = new AtomicInteger();
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<>(1024), runnable -> {
+					Thread thread = new Thread(runnable, "RuneDeck-Dispatch-" + threadNumber.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}, new ThreadPoolExecutor.AbortPolicy());
+		pool.allowCoreThreadTimeOut(true);
+		return pool;
+	}
+
+	/**
+	 * Queues a task on a connection's mailbox.
+	 *
+	 * @param limit the maximum number of pending tasks, or 0 for no limit
+	 * @return false if the mailbox is already at its limit or the executor refused
+	 *         it, in which case the task was dropped
+	 */
+	boolean dispatch(Mailbox mailbox, Runnable task, int limit) {
+		if (limit > 0 && mailbox.size.get() >= limit) {
+			return false;
+		}
+
+		mailbox.tasks.add(task);
+		if (mailbox.size.getAndIncrement() == 0) {
+			try {
+				executor.execute(() -> drain(mailbox));
+			} catch (RejectedExecutionException e) {
+				// Nothing is draining this mailbox, so its tasks can be discarded here
+				while (mailbox.tasks.poll() != null) {
+					mailbox.size.decrementAndGet();
+				}
+				LOGGER.debug("Dispatcher rejected callback; dropping it");
+				return false;
+			}
+		}
+		return true;
+	}
+
+	void shutdown() {
+		if (ownsExecutor) {
+			executor.shutdown();
+		}
+	}
+
+	private void drain(Mailbox mailbox) {
+		while (true) {
+			for (int i = 0; i < MAX_TASKS_PER_TURN; i++) {
+				Runnable task = mailbox.tasks.poll();
+				try {
+					task.run();
+				} catch (RuntimeException e) {
+					LOGGER.error("Error dispatching websocket callback", e);
+				}
+
+				if (mailbox.size.decrementAndGet() == 0) {
+					return;
+				}
+			}
+
+			// Yield the thread to other connections and continue later
+			try {
+				executor.execute(() -> drain(mailbox));
+				return;
+			} catch (RejectedExecutionException e) {
+				if (executor.isShutdown()) {
+					LOGGER.debug("Dispatcher is shut down; dropping callbacks");
+					return;
+				}
+				// The queue is full; this is already a dispatch thread, so keep going here
+			}
+		}
+	}
+
+	/**
+	 * Pending callbacks for a single connection.
+	 */
+	static final class Mailbox {
+		private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+		private final AtomicInteger size = new AtomicInteger();
+
+		int size() {
+			return size.get();
+		}
+	}
+}
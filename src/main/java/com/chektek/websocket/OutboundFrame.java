@@ -0,0 +1,192 @@
+package com.chektek.websocket;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An encoded WebSocket frame that can be queued on many connections at once.
+ * <p>
+ * The header and payload are kept in separate buffers and written with a
+ * gathering write, so the payload is never copied into a per-connection frame.
+ * Each connection writes from its own duplicate of the buffers, and the payload
+ * buffer is handed back to its {@link BufferPool} when the last reference is
+ * released.
+ */
+public class OutboundFrame {
+
+	private static final ThreadLocal<CharsetEncoder> UTF8_ENCODER = ThreadLocal
+			.withInitial(() -> StandardCharsets.UTF_8.newEncoder()
+					.onMalformedInput(CodingErrorAction.REPLACE)
+					.onUnmappableCharacter(CodingErrorAction.REPLACE));
+
+	private final ByteBuffer header;
+	private final ByteBuffer payload;
+	private final int opcode;
+	private final BufferPool pool;
+	private final AtomicInteger refCount = new AtomicInteger(1);
+
+	private OutboundFrame deflated;
+
+	OutboundFrame(ByteBuffer header, ByteBuffer payload, int opcode, BufferPool pool) {
+		this.header = header;
+		this.payload = payload;
+		this.opcode = opcode;
+		this.pool = pool;
+	}
+
+	/**
+	 * Encodes a text message as a single UTF-8 text frame backed by a pooled buffer.
+	 */
+	public static OutboundFrame text(String message, BufferPool pool) {
+		CharsetEncoder encoder = UTF8_ENCODER.get();
+		ByteBuffer payload = pool.acquire(utf8Length(message));
+
+		encoder.reset();
+		CoderResult result = encoder.encode(CharBuffer.wrap(message), payload, true);
+		if (!result.isUnderflow()) {
+			pool.release(payload);
+			throw new IllegalStateException("UTF-8 encoding overflowed its buffer: " + result);
+		}
+		encoder.flush(payload);
+		payload.flip();
+
+		return new OutboundFrame(WebSocketServer.createHeader(0x01, payload.remaining(), false), payload, 0x01, pool);
+	}
+
+	/**
+	 * The number of bytes {@code message} encodes to in UTF-8, counting each
+	 * unpaired surrogate as the one-byte replacement the encoder writes for it.
+	 * Sizing the buffer by this rather than the worst case of three bytes a char
+	 * keeps mostly ASCII messages in the smallest size class that fits.
+	 */
+	static int utf8Length(String message) {
+		int length = message.length();
+		int bytes = length;
+		for (int i = 0; i < length; i++) {
+			char c = message.charAt(i);
+			if (c < 0x80) {
+				continue;
+			}
+			if (c < 0x800) {
+				bytes += 1;
+			} else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(message.charAt(i + 1))) {
+				// Four bytes for the pair
+				bytes += 2;
+				i++;
+			} else if (!Character.isSurrogate(c)) {
+				bytes += 2;
+			}
+		}
+		return bytes;
+	}
+
+	/**
+	 * Copies text that is already UTF-8 into a single text frame backed by a
+	 * pooled buffer.
+	 */
+	public static OutboundFrame text(byte[] utf8, int length, BufferPool pool) {
+		ByteBuffer payload = pool.acquire(length);
+		payload.put(utf8, 0, length);
+		payload.flip();
+
+		return new OutboundFrame(WebSocketServer.createHeader(0x01, length, false), payload, 0x01, pool);
+	}
+
+	/**
+	 * Copies an encoded binary message into a single binary frame backed by a
+	 * pooled buffer.
+	 */
+	public static OutboundFrame binary(byte[] data, int length, BufferPool pool) {
+		ByteBuffer payload = pool.acquire(length);
+		payload.put(data, 0, length);
+		payload.flip();
+
+		return new OutboundFrame(WebSocketServer.createHeader(0x02, length, false), payload, 0x02, pool);
+	}
+
+	/**
+	 * Wraps an unpooled payload in a frame with the given opcode.
+	 */
+	public static OutboundFrame of(int opcode, byte[] payload) {
+		return new OutboundFrame(WebSocketServer.createHeader(opcode, payload.length, false), ByteBuffer.wrap(payload), opcode,
+				null);
+	}
+
+	/**
+	 * Wraps raw bytes that are written as-is, without a WebSocket header.
+	 */
+	static OutboundFrame raw(byte[] bytes) {
+		return new OutboundFrame(ByteBuffer.allocate(0), ByteBuffer.wrap(bytes), -1, null);
+	}
+
+	public int length() {
+		return header.remaining() + payload.remaining();
+	}
+
+	int opcode() {
+		return opcode;
+	}
+
+	/**
+	 * True for text and binary frames, the only frames an extension may transform.
+	 */
+	boolean isData() {
+		return opcode == 0x01 || opcode == 0x02;
+	}
+
+	ByteBuffer payload() {
+		return payload.duplicate();
+	}
+
+	/**
+	 * Returns a permessage-deflate compressed copy of this frame without context
+	 * takeover. It is computed once and shared by every connection that negotiated
+	 * stateless compression; the caller receives its own reference.
+	 */
+	synchronized OutboundFrame deflated(BufferPool outputPool) {
+		if (deflated == null) {
+			deflated = PerMessageDeflate.compressStateless(this, outputPool);
+		}
+		return deflated.retain();
+	}
+
+	/**
+	 * Returns independent read cursors over this frame's buffers.
+	 */
+	ByteBuffer[] newCursor() {
+		return new ByteBuffer[] { header.duplicate(), payload.duplicate() };
+	}
+
+	public OutboundFrame retain() {
+		int previous;
+		do {
+			previous = refCount.get();
+			if (previous <= 0) {
+				throw new IllegalStateException("Frame already released");
+			}
+		} while (!refCount.compareAndSet(previous, previous + 1));
+		return this;
+	}
+
+	public void release() {
+		int remaining = refCount.decrementAndGet();
+		if (remaining == 0) {
+			if (pool != null) {
+				pool.release(payload);
+			}
+			synchronized (this) {
+				if (deflated != null) {
+					deflated.release();
+					deflated = null;
+				}
+			}
+		} else if (remaining < 0) {
+			throw new IllegalStateException("Frame released too many times");
+		}
+	}
+}
@@ -0,0 +1,245 @@
+package com.chektek.websocket;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Per-connection state for the permessage-deflate extension (RFC 7692).
+ * <p>
+ * Negotiation is handled by {@link #negotiate(String)}, which picks the first
+ * acceptable offer from a {@code Sec-WebSocket-Extensions} header. Window bits
+ * can only be honoured at the default of 15 because {@link Deflater} does not
+ * expose a smaller window, so offers that restrict the server window are declined.
+ * A smaller client window needs no special handling on our side, as an inflater
+ * with the full window can read any smaller one.
+ */
+final class PerMessageDeflate {
+
+	static final String EXTENSION_NAME = "permessage-deflate";
+
+	private static final int COMPRESSION_LEVEL = 6;
+	private static final byte[] EMPTY_BLOCK_TAIL = { 0x00, 0x00, (byte) 0xFF, (byte) 0xFF };
+	private static final ThreadLocal<Deflater> SHARED_DEFLATER = ThreadLocal
+			.withInitial(() -> new Deflater(COMPRESSION_LEVEL, true));
+
+	private final boolean serverNoContextTakeover;
+	private final boolean clientNoContextTakeover;
+	private final String responseHeader;
+
+	private Deflater deflater;
+	private Inflater inflater;
+	private byte[] inflated = new byte[4096];
+
+	private PerMessageDeflate(boolean serverNoContextTakeover, boolean clientNoContextTakeover,
+			boolean serverMaxWindowBits) {
+		this.serverNoContextTakeover = serverNoContextTakeover;
+		this.clientNoContextTakeover = clientNoContextTakeover;
+		this.responseHeader = EXTENSION_NAME
+				+ (serverNoContextTakeover ? "; server_no_context_takeover" : "")
+				+ (clientNoContextTakeover ? "; client_no_context_takeover" : "")
+				+ (serverMaxWindowBits ? "; server_max_window_bits=15" : "");
+	}
+
+	/**
+	 * Picks the first permessage-deflate offer this server can honour. Offers that
+	 * repeat a parameter are declined, as RFC 7692 section 7.1 requires, and an
+	 * offered {@code server_max_window_bits} is echoed back in the response.
+	 *
+	 * @param header the raw {@code Sec-WebSocket-Extensions} value, may be null
+	 * @return the negotiated state, or null if no offer was acceptable
+	 */
+	static PerMessageDeflate negotiate(String header) {
+		if (header == null) {
+			return null;
+		}
+
+		for (String offer : header.split(",")) {
+			String[] params = offer.split(";");
+			if (!params[0].trim().equalsIgnoreCase(EXTENSION_NAME)) {
+				continue;
+			}
+
+			boolean serverNoContextTakeover = false;
+			boolean clientNoContextTakeover = false;
+			boolean serverMaxWindowBits = false;
+			boolean acceptable = true;
+			Set<String> seen = new HashSet<>();
+
+			for (int i = 1; i < params.length && acceptable; i++) {
+				String param = params[i].trim();
+				int equals = param.indexOf('=');
+				String name = (equals < 0 ? param : param.substring(0, equals)).trim().toLowerCase();
+				String value = equals < 0 ? null : param.substring(equals + 1).trim().replace("\"", "");
+				if (!seen.add(name)) {
+					acceptable = false;
+					break;
+				}
+
+				switch (name) {
+					case "server_no_context_takeover":
+						serverNoContextTakeover = true;
+						break;
+					case "client_no_context_takeover":
+						clientNoContextTakeover = true;
+						break;
+					case "server_max_window_bits":
+						acceptable = "15".equals(value);
+						serverMaxWindowBits = true;
+						break;
+					case "client_max_window_bits":
+						acceptable = value == null || isWindowBits(value);
+						break;
+					default:
+						acceptable = false;
+						break;
+				}
+			}
+
+			if (acceptable) {
+				return new PerMessageDeflate(serverNoContextTakeover, clientNoContextTakeover, serverMaxWindowBits);
+			}
+		}
+
+		return null;
+	}
+
+	String getResponseHeader() {
+		return responseHeader;
+	}
+
+	/**
+	 * True when each outbound message is compressed independently, which makes the
+	 * compressed bytes identical for every connection and therefore shareable.
+	 */
+	boolean isStateless() {
+		return serverNoContextTakeover;
+	}
+
+	/**
+	 * Compresses a message with this connection's sliding window. The caller must
+	 * serialize calls with the order in which the results are queued.
+	 */
+	OutboundFrame compress(OutboundFrame frame, BufferPool pool) {
+		if (deflater == null) {
+			deflater = new Deflater(COMPRESSION_LEVEL, true);
+		}
+		OutboundFrame compressed = deflate(deflater, frame, pool);
+		if (serverNoContextTakeover) {
+			deflater.reset();
+		}
+		return compressed;
+	}
+
+	/**
+	 * Compresses a message without any retained context, using a deflater local to
+	 * the calling thread.
+	 */
+	static OutboundFrame compressStateless(OutboundFrame frame, BufferPool pool) {
+		Deflater shared = SHARED_DEFLATER.get();
+		try {
+			return deflate(shared, frame, pool);
+		} finally {
+			shared.reset();
+		}
+	}
+
+	/**
+	 * Inflates a compressed message into a buffer owned by this connection, which
+	 * stays valid until the next call.
+	 *
+	 * @return the number of bytes written to {@link #inflatedBuffer()}
+	 */
+	int decompress(byte[] data, int offset, int length, int maxSize) throws IOException {
+		if (inflater == null) {
+			inflater = new Inflater(true);
+		}
+
+		int size = 0;
+		try {
+			inflater.setInput(data, offset, length);
+			size = inflateAll(size, maxSize);
+			inflater.setInput(EMPTY_BLOCK_TAIL);
+			size = inflateAll(size, maxSize);
+		} catch (DataFormatException e) {
+			throw new IOException("Invalid compressed message: " + e.getMessage());
+		}
+
+		if (clientNoContextTakeover) {
+			inflater.reset();
+		}
+		return size;
+	}
+
+	byte[] inflatedBuffer() {
+		return inflated;
+	}
+
+	void close() {
+		if (deflater != null) {
+			deflater.end();
+		}
+		if (inflater != null) {
+			inflater.end();
+		}
+	}
+
+	private int inflateAll(int size, int maxSize) throws DataFormatException, IOException {
+		while (true) {
+			if (size == inflated.length) {
+				if (inflater.needsInput() || inflater.finished()) {
+					return size;
+				}
+				if (size >= maxSize) {
+					throw new IOException("Message exceeds limit of " + maxSize + " bytes");
+				}
+				byte[] grown = new byte[Math.min(inflated.length << 1, maxSize)];
+				System.arraycopy(inflated, 0, grown, 0, size);
+				inflated = grown;
+			}
+
+			int count = inflater.inflate(inflated, size, inflated.length - size);
+			size += count;
+			if (count == 0 && (inflater.needsInput() || inflater.finished())) {
+				return size;
+			}
+		}
+	}
+
+	private static OutboundFrame deflate(Deflater deflater, OutboundFrame frame, BufferPool pool) {
+		ByteBuffer input = frame.payload();
+		ByteBuffer output = pool.acquire(input.remaining() + 64);
+		deflater.setInput(input);
+
+		while (true) {
+			deflater.deflate(output, Deflater.SYNC_FLUSH);
+			if (output.hasRemaining()) {
+				break;
+			}
+			ByteBuffer grown = pool.acquire(output.capacity() << 1);
+			output.flip();
+			grown.put(output);
+			pool.release(output);
+			output = grown;
+		}
+
+		// A sync flush always ends with the empty block tail, which the extension omits
+		output.flip();
+		output.limit(output.limit() - EMPTY_BLOCK_TAIL.length);
+		return new OutboundFrame(WebSocketServer.createHeader(frame.opcode(), output.remaining(), true),
+				output, frame.opcode(), pool);
+	}
+
+	private static boolean isWindowBits(String value) {
+		try {
+			int bits = Integer.parseInt(value);
+			return bits >= 8 && bits <= 15;
+		} catch (NumberFormatException e) {
+			return false;
+		}
+	}
+}
@@ -4,29 +4,165 @@ import java.io.IOException;
 import java.net.SocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.chektek.metrics.Histogram;
 
 /**
  * Represents a single WebSocket connection to a client.
+ * <p>
+ * Outbound frames are never written on the calling thread. They are placed on a
+ * bounded queue owned by this connection and drained by the server's selector
+ * loop, which resumes partially written frames once the socket becomes writable.
+ * Queued {@link OutboundFrame}s may be shared with other connections; each entry
+ * keeps its own cursor and releases its reference once fully written. Frames
+ * sent with a conflation key replace their unsent predecessor, which bounds the
+ * queue for a slow client to one frame per key plus the pending events.
  */
 public class WebSocketConnection {
 
     private final SocketChannel channel;
-    private boolean handshakeComplete = false;
+    private final WebSocketServer server;
+    private final IoLoop loop;
+    private final int maxOutboundBytes;
+    private final long maxLagNanos;
+    private final LongAdder totalBytesIn;
+    private final LongAdder totalBytesOut;
+    private final LongAdder totalFramesIn;
+    private final LongAdder totalFramesOut;
+    private final LongAdder totalConflated;
+    private final Histogram queueDepth;
+    private final FrameDecoder decoder;
+    private final OrderedDispatcher.Mailbox mailbox = new OrderedDispatcher.Mailbox();
+    private PerMessageDeflate deflate;
+    private volatile String subprotocol;
+    private volatile String origin;
+    private volatile Object attachment;
+    private HandshakeParser handshakeParser;
+
+    private final long connectedNanos = System.nanoTime();
+    private long lastSeenNanos = connectedNanos;
+    private long pingSentNanos;
+    private boolean awaitingPong = false;
+    private HashedTimingWheel.Timeout keepalive;
+    private final ArrayDeque<QueuedFrame> outbound = new ArrayDeque<>();
+    private final Map<Object, QueuedFrame> conflatable = new HashMap<>();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+
+    private int outboundBytes = 0;
+
+    // Written only by the IO loop, read by anyone
+    private volatile long bytesIn;
+    private volatile long bytesOut;
+    private volatile long framesIn;
+    private volatile long framesOut;
+    private volatile boolean closeRequested = false;
+    private volatile boolean handshakeComplete = false;
 
-    public WebSocketConnection(SocketChannel channel) {
+    WebSocketConnection(SocketChannel channel, WebSocketServer server, IoLoop loop) {
         this.channel = channel;
+        this.server = server;
+        this.loop = loop;
+        this.maxOutboundBytes = server.getMaxOutboundBytes();
+        this.maxLagNanos = TimeUnit.MILLISECONDS.toNanos(server.getMaxLagMillis());
+        this.decoder = new FrameDecoder(server.getMaxMessageSize());
+        this.handshakeParser = new HandshakeParser(server.getMaxHandshakeBytes());
+        this.totalBytesIn = server.getStats().counter("ws.bytesIn");
+        this.totalBytesOut = server.getStats().counter("ws.bytesOut");
+        this.totalFramesIn = server.getStats().counter("ws.framesIn");
+        this.totalFramesOut = server.getStats().counter("ws.framesOut");
+        this.totalConflated = server.getStats().counter("ws.framesConflated");
+        this.queueDepth = server.getStats().histogram("ws.queueDepthFrames");
     }
 
     public SocketChannel getChannel() {
         return channel;
     }
 
+    IoLoop getLoop() {
+        return loop;
+    }
+
+    OrderedDispatcher.Mailbox getMailbox() {
+        return mailbox;
+    }
+
+    /**
+     * Number of callbacks (messages, open, close) waiting to be dispatched.
+     */
+    public int getPendingMessages() {
+        return mailbox.size();
+    }
+
+    FrameDecoder getDecoder() {
+        return decoder;
+    }
+
+    PerMessageDeflate getPerMessageDeflate() {
+        return deflate;
+    }
+
+    void setPerMessageDeflate(PerMessageDeflate deflate) {
+        this.deflate = deflate;
+        decoder.setCompressionAllowed(deflate != null);
+    }
+
+    public boolean isCompressionEnabled() {
+        return deflate != null;
+    }
+
+    /**
+     * Application state associated with this connection, or null.
+     */
+    public Object getAttachment() {
+        return attachment;
+    }
+
+    public void setAttachment(Object attachment) {
+        this.attachment = attachment;
+    }
+
+    HandshakeParser getHandshakeParser() {
+        return handshakeParser;
+    }
+
+    /**
+     * The {@code Origin} header of the upgrade request, or null if the client sent
+     * none (non-browser clients usually do not).
+     */
+    public String getOrigin() {
+        return origin;
+    }
+
+    void setOrigin(String origin) {
+        this.origin = origin;
+    }
+
+    /**
+     * The negotiated {@code Sec-WebSocket-Protocol}, or null if none was agreed.
+     */
+    public String getSubprotocol() {
+        return subprotocol;
+    }
+
+    void setSubprotocol(String subprotocol) {
+        this.subprotocol = subprotocol;
+    }
+
     public boolean isHandshakeComplete() {
         return handshakeComplete;
     }
 
     public void setHandshakeComplete(boolean complete) {
         this.handshakeComplete = complete;
+        if (complete) {
+            handshakeParser = null;
+        }
     }
 
     public SocketAddress getRemoteAddress() throws IOException {
@@ -34,23 +170,391 @@ public class WebSocketConnection {
     }
 
     public void send(String message) throws IOException {
-        byte[] payload = message.getBytes();
-        byte[] frame = WebSocketServer.createFrame(0x01, payload); // 0x01 = text frame
-        channel.write(ByteBuffer.wrap(frame));
+        OutboundFrame frame = OutboundFrame.text(message, server.getBufferPool());
+        try {
+            send(frame);
+        } finally {
+            frame.release();
+        }
+    }
+
+    /**
+     * Runs a task on this connection's IO loop, the thread that queues and writes
+     * its frames. Runs it right away if already on that thread.
+     */
+    public void execute(Runnable task) {
+        if (loop.inLoop()) {
+            task.run();
+        } else {
+            loop.execute(task);
+        }
+    }
+
+    /**
+     * Runs a task on this connection's IO loop once {@code delayNanos} have passed,
+     * to within the loop's timer tick of 100 ms. The task runs even if the
+     * connection has closed by then.
+     */
+    public void schedule(long delayNanos, Runnable task) {
+        execute(() -> loop.schedule(delayNanos, task));
+    }
+
+    /**
+     * Queues a frame for delivery by the selector loop. The connection takes its own
+     * reference to the frame, so the caller keeps (and must release) theirs.
+     *
+     * @throws IOException if the connection is closing or its outbound queue is full;
+     *                     in the latter case the connection is scheduled for closing
+     * @see #send(OutboundFrame, Object)
+     */
+    public void send(OutboundFrame frame) throws IOException {
+        send(frame, null);
+    }
+
+    /**
+     * Queues a frame for delivery by the selector loop, optionally conflating it with
+     * an earlier frame. The connection takes its own reference to the frame, so the
+     * caller keeps (and must release) theirs.
+     * <p>
+     * A frame with a non-null {@code conflationKey} replaces any frame queued under
+     * the same key that has not started writing yet, keeping that frame's place in
+     * the queue. Frames without a key are events: they are always delivered, in
+     * order, and nothing queued before an event is replaced by a later frame.
+     * <p>
+     * If permessage-deflate was negotiated, data frames above the server's
+     * compression threshold are compressed when they reach the head of the queue,
+     * so conflated frames never enter the compression context.
+     * <p>
+     * When called from a thread other than this connection's IO loop, the frame is
+     * handed to the loop and queued there, in submission order with broadcasts.
+     * Failures are then reported by closing the connection rather than by throwing.
+     *
+     * @throws IOException if the connection is closing, its outbound queue is full or
+     *                     it has lagged beyond the server's budget; in the latter cases
+     *                     the connection is scheduled for closing
+     */
+    public void send(OutboundFrame frame, Object conflationKey) throws IOException {
+        if (closeRequested || !channel.isOpen()) {
+            throw new IOException("Connection is closed");
+        }
+
+        if (!loop.inLoop()) {
+            frame.retain();
+            loop.execute(() -> {
+                try {
+                    send(frame, conflationKey);
+                } catch (IOException e) {
+                    // Already scheduled for closing by enqueue
+                } finally {
+                    frame.release();
+                }
+            });
+            return;
+        }
+
+        enqueue(frame, conflationKey);
+    }
+
+    private void enqueue(OutboundFrame frame, Object conflationKey) throws IOException {
+        int length = frame.length();
+        long now = System.nanoTime();
+        OutboundFrame replaced = null;
+        String failure = null;
+
+        synchronized (outbound) {
+            QueuedFrame head = outbound.peekFirst();
+            QueuedFrame existing = conflationKey != null ? conflatable.get(conflationKey) : null;
+            int growth = existing != null ? length - existing.frame.length() : length;
+
+            if (outboundBytes + growth > maxOutboundBytes) {
+                failure = "Outbound queue full (" + maxOutboundBytes + " bytes)";
+            } else if (maxLagNanos > 0 && head != null && now - head.queuedAt > maxLagNanos) {
+                failure = "Client lagging by more than " + TimeUnit.NANOSECONDS.toMillis(maxLagNanos) + " ms";
+            } else if (existing != null) {
+                totalConflated.increment();
+                replaced = existing.frame;
+                existing.frame = frame.retain();
+                outboundBytes += growth;
+            } else {
+                QueuedFrame queued = new QueuedFrame(frame.retain(), conflationKey, now);
+                outbound.addLast(queued);
+                queueDepth.record(outbound.size());
+                outboundBytes += length;
+                if (conflationKey != null) {
+                    conflatable.put(conflationKey, queued);
+                } else {
+                    // Later state must not overtake an event
+                    conflatable.clear();
+                }
+            }
+        }
+
+        if (replaced != null) {
+            replaced.release();
+        }
+
+        if (failure != null) {
+            closeRequested = true;
+        }
+
+        scheduleFlush();
+
+        if (failure != null) {
+            throw new IOException(failure + "; closing slow client");
+        }
+    }
+
+    /**
+     * Writes as much of the outbound queue as the socket accepts without blocking.
+     * Must only be called from the selector loop.
+     *
+     * @return true if the queue was fully drained
+     */
+    boolean flush() throws IOException {
+        while (true) {
+            QueuedFrame head;
+            synchronized (outbound) {
+                head = outbound.peekFirst();
+                if (head != null && head.buffers == null) {
+                    if (head.key != null && conflatable.get(head.key) == head) {
+                        conflatable.remove(head.key);
+                    }
+                    outboundBytes += head.start(compress(head.frame));
+                }
+            }
+            if (head == null) {
+                return true;
+            }
+
+            long written = channel.write(head.buffers);
+            head.remaining -= written;
+            bytesOut += written;
+            totalBytesOut.add(written);
+            if (head.remaining > 0) {
+                synchronized (outbound) {
+                    outboundBytes -= written;
+                }
+                return false;
+            }
+
+            synchronized (outbound) {
+                if (outbound.peekFirst() != head) {
+                    // Discarded concurrently by close()
+                    return true;
+                }
+                outbound.pollFirst();
+                outboundBytes -= written;
+            }
+            framesOut++;
+            totalFramesOut.increment();
+            head.frame.release();
+        }
+    }
+
+    /**
+     * Returns the frame to put on the wire for a queued frame, compressing it if
+     * permessage-deflate applies. The returned frame carries a reference the
+     * caller owns; the original frame's reference is consumed.
+     */
+    private OutboundFrame compress(OutboundFrame frame) {
+        PerMessageDeflate deflate = this.deflate;
+        if (deflate == null || !frame.isData() || frame.length() < server.getCompressionThreshold()) {
+            return frame;
+        }
+
+        OutboundFrame compressed;
+        if (deflate.isStateless()) {
+            compressed = frame.deflated(server.getBufferPool());
+        } else {
+            synchronized (deflate) {
+                compressed = deflate.compress(frame, server.getBufferPool());
+            }
+        }
+        frame.release();
+        return compressed;
+    }
+
+    /**
+     * Drops everything still queued, releases the frames it referenced and frees
+     * any native compression state.
+     */
+    void discardOutbound() {
+        synchronized (outbound) {
+            QueuedFrame queued;
+            while ((queued = outbound.pollFirst()) != null) {
+                queued.frame.release();
+            }
+            conflatable.clear();
+            outboundBytes = 0;
+        }
+
+        PerMessageDeflate deflate = this.deflate;
+        if (deflate != null) {
+            synchronized (deflate) {
+                deflate.close();
+            }
+        }
+    }
+
+    /**
+     * Records inbound traffic, which counts as proof of life. Called on the IO loop.
+     */
+    void seen(long nowNanos, int bytes) {
+        lastSeenNanos = nowNanos;
+        bytesIn += bytes;
+        totalBytesIn.add(bytes);
+    }
+
+    /**
+     * Counts a decoded message or control frame. Called on the IO loop.
+     */
+    void frameReceived() {
+        framesIn++;
+        totalFramesIn.increment();
+    }
+
+    public long getBytesIn() {
+        return bytesIn;
+    }
+
+    public long getBytesOut() {
+        return bytesOut;
+    }
+
+    /**
+     * Messages and control frames received, counting a fragmented message once.
+     */
+    public long getFramesIn() {
+        return framesIn;
+    }
+
+    public long getFramesOut() {
+        return framesOut;
+    }
+
+    public int getQueuedFrames() {
+        synchronized (outbound) {
+            return outbound.size();
+        }
+    }
+
+    long getConnectedNanos() {
+        return connectedNanos;
+    }
+
+    long getLastSeenNanos() {
+        return lastSeenNanos;
+    }
+
+    void pingSent(long nowNanos) {
+        pingSentNanos = nowNanos;
+        awaitingPong = true;
+    }
+
+    void pongReceived() {
+        awaitingPong = false;
+    }
+
+    boolean isAwaitingPong() {
+        return awaitingPong;
+    }
+
+    long getPingSentNanos() {
+        return pingSentNanos;
+    }
+
+    /**
+     * Replaces the pending keepalive check, cancelling the previous one.
+     */
+    void setKeepalive(HashedTimingWheel.Timeout keepalive) {
+        if (this.keepalive != null) {
+            this.keepalive.cancel();
+        }
+        this.keepalive = keepalive;
+    }
+
+    /**
+     * True if the oldest unsent frame has waited longer than the lag budget.
+     */
+    boolean isLagging(long nowNanos) {
+        if (maxLagNanos <= 0) {
+            return false;
+        }
+        synchronized (outbound) {
+            QueuedFrame head = outbound.peekFirst();
+            return head != null && nowNanos - head.queuedAt > maxLagNanos;
+        }
+    }
+
+    /**
+     * Clears the scheduled flag so that the next enqueue wakes the selector again.
+     * Called by the selector loop before it flushes this connection.
+     */
+    void clearFlushScheduled() {
+        flushScheduled.set(false);
+    }
+
+    boolean isCloseRequested() {
+        return closeRequested;
+    }
+
+    public int getOutboundBytes() {
+        synchronized (outbound) {
+            return outboundBytes;
+        }
+    }
+
+    private void scheduleFlush() {
+        if (flushScheduled.compareAndSet(false, true)) {
+            loop.requestFlush(this);
+        }
     }
 
     public void close() throws IOException {
-        // Send close frame
+        // Send close frame, but only if it cannot interleave with a partially written frame
         byte[] closeFrame = WebSocketServer.createFrame(0x08, new byte[0]);
         try {
-            channel.write(ByteBuffer.wrap(closeFrame));
+            synchronized (outbound) {
+                if (outbound.isEmpty()) {
+                    channel.write(ByteBuffer.wrap(closeFrame));
+                }
+            }
         } catch (IOException e) {
             // Ignore - connection may already be closed
         }
+        discardOutbound();
         channel.close();
     }
 
     public boolean isOpen() {
         return channel.isOpen() && handshakeComplete;
     }
+
+    private static final class QueuedFrame {
+        private final Object key;
+        private final long queuedAt;
+        private OutboundFrame frame;
+        private ByteBuffer[] buffers;
+        private long remaining;
+
+        private QueuedFrame(OutboundFrame frame, Object key, long queuedAt) {
+            this.frame = frame;
+            this.key = key;
+            this.queuedAt = queuedAt;
+        }
+
+        /**
+         * Fixes the bytes this entry will write, after which it can no longer be
+         * conflated.
+         *
+         * @return the change in queued bytes
+         */
+        private int start(OutboundFrame wireFrame) {
+            int delta = wireFrame.length() - frame.length();
+            frame = wireFrame;
+            buffers = wireFrame.newCursor();
+            remaining = wireFrame.length();
+            return delta;
+        }
+    }
 }
@@ -3,40 +3,87 @@ package com.chektek.websocket;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
-import java.nio.channels.SelectionKey;
-import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
 import java.util.Base64;
-import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.chektek.metrics.StatsRegistry;
+
 /**
  * A minimal WebSocket server implementation using raw Java NIO.
  * Implements RFC 6455 WebSocket protocol.
+ * <p>
+ * By default a single {@link IoLoop} accepts connections and performs all I/O.
+ * With {@link #setIoThreads(int)} set above one the server runs in reactor mode:
+ * a dedicated acceptor thread hands each new connection to one of several IO
+ * loops, and broadcasts are fanned out by every loop to its own connections.
  */
 public abstract class WebSocketServer {
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(WebSocketServer.class);
 	private static final String WEBSOCKET_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+	private static final int DEFAULT_MAX_OUTBOUND_BYTES = 4 * 1024 * 1024;
+	private static final int DEFAULT_MAX_MESSAGE_SIZE = 1024 * 1024;
+	private static final int DEFAULT_COMPRESSION_THRESHOLD = 256;
+	private static final int DEFAULT_MAX_PENDING_MESSAGES = 256;
+	private static final long DEFAULT_MAX_LAG_MILLIS = 30_000;
+	private static final long DEFAULT_PING_INTERVAL_MILLIS = 15_000;
+	private static final long DEFAULT_PONG_TIMEOUT_MILLIS = 10_000;
+	private static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 60_000;
+	private static final long DEFAULT_HANDSHAKE_TIMEOUT_MILLIS = 5_000;
+	private static final int DEFAULT_MAX_HANDSHAKE_BYTES = 8 * 1024;
+
+	/**
+	 * How the acceptor picks an IO loop for a new connection in reactor mode.
+	 */
+	public enum LoadBalancing {
+		ROUND_ROBIN,
+		LEAST_CONNECTIONS
+	}
 
 	private final int port;
 	private final Map<SocketChannel, WebSocketConnection> connections = new ConcurrentHashMap<>();
 	private final AtomicBoolean running = new AtomicBoolean(false);
-	private final ExecutorService executor = Executors.newSingleThreadExecutor();
+	private final BufferPool bufferPool = new BufferPool();
+	private final AtomicInteger nextLoop = new AtomicInteger();
+	private final StatsRegistry stats = new StatsRegistry();
+
+	private int maxOutboundBytes = DEFAULT_MAX_OUTBOUND_BYTES;
+	private int maxMessageSize = DEFAULT_MAX_MESSAGE_SIZE;
+	private boolean perMessageDeflateEnabled = true;
+	private List<String> subprotocols = List.of();
+	private int compressionThreshold = DEFAULT_COMPRESSION_THRESHOLD;
+	private int ioThreads = 1;
+	private LoadBalancing loadBalancing = LoadBalancing.ROUND_ROBIN;
+	private ExecutorService dispatchExecutor;
+	private int maxPendingMessages = DEFAULT_MAX_PENDING_MESSAGES;
+	private long maxLagMillis = DEFAULT_MAX_LAG_MILLIS;
+	private long pingIntervalMillis = DEFAULT_PING_INTERVAL_MILLIS;
+	private long pongTimeoutMillis = DEFAULT_PONG_TIMEOUT_MILLIS;
+	private long idleTimeoutMillis = DEFAULT_IDLE_TIMEOUT_MILLIS;
+	private long handshakeTimeoutMillis = DEFAULT_HANDSHAKE_TIMEOUT_MILLIS;
+	private int maxHandshakeBytes = DEFAULT_MAX_HANDSHAKE_BYTES;
 
 	private ServerSocketChannel serverChannel;
-	private Selector selector;
+	private ExecutorService executor;
+	private IoLoop[] loops = new IoLoop[0];
+	private OrderedDispatcher dispatcher;
 
 	public WebSocketServer(int port) {
 		this.port = port;
@@ -47,14 +94,39 @@ public abstract class WebSocketServer {
 			return;
 		}
 
-		selector = Selector.open();
+		dispatcher = dispatchExecutor != null
+				? new OrderedDispatcher(dispatchExecutor, false)
+				: new OrderedDispatcher(OrderedDispatcher.createDefaultExecutor(), true);
+
+		boolean reactorMode = ioThreads > 1;
+		IoLoop[] newLoops = new IoLoop[ioThreads];
+		for (int i = 0; i < newLoops.length; i++) {
+			newLoops[i] = new IoLoop(this);
+		}
+		loops = newLoops;
+
 		serverChannel = ServerSocketChannel.open();
-		serverChannel.configureBlocking(false);
 		serverChannel.socket().setReuseAddress(true);
 		serverChannel.socket().bind(new InetSocketAddress(port));
-		serverChannel.register(selector, SelectionKey.OP_ACCEPT);
 
-		executor.submit(this::runLoop);
+		AtomicInteger threadNumber = new AtomicInteger();
+		executor = Executors.newFixedThreadPool(loops.length + (reactorMode ? 1 : 0), runnable -> {
+			Thread thread = new Thread(runnable, "RuneDeck-WebSocket-" + threadNumber.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		if (reactorMode) {
+			serverChannel.configureBlocking(true);
+			executor.submit(this::acceptLoop);
+		} else {
+			serverChannel.configureBlocking(false);
+			loops[0].registerAcceptor(serverChannel);
+		}
+
+		for (IoLoop loop : loops) {
+			executor.submit(loop::runLoop);
+		}
 		onStart();
 	}
 
@@ -70,142 +142,467 @@ public abstract class WebSocketServer {
 		}
 		connections.clear();
 
-		if (selector != null) {
-			selector.wakeup();
-			selector.close();
-		}
 		if (serverChannel != null) {
 			serverChannel.close();
 		}
-		executor.shutdown();
+		for (IoLoop loop : loops) {
+			loop.wakeup();
+		}
+		if (executor != null) {
+			executor.shutdown();
+		}
+		if (dispatcher != null) {
+			dispatcher.shutdown();
+		}
+	}
+
+	boolean isRunning() {
+		return running.get();
 	}
 
 	public int getPort() {
 		return port;
 	}
 
+	/**
+	 * Counters and histograms for this server. Subclasses may add their own.
+	 */
+	public StatsRegistry getStats() {
+		return stats;
+	}
+
+	public BufferPool getBufferPool() {
+		return bufferPool;
+	}
+
+	public int getMaxOutboundBytes() {
+		return maxOutboundBytes;
+	}
+
+	/**
+	 * Sets the per-connection limit on queued, unsent bytes. A client that falls
+	 * further behind than this is disconnected. Applies to connections accepted
+	 * after the call.
+	 */
+	public void setMaxOutboundBytes(int maxOutboundBytes) {
+		this.maxOutboundBytes = maxOutboundBytes;
+	}
+
+	public long getMaxLagMillis() {
+		return maxLagMillis;
+	}
+
+	/**
+	 * Sets how long the oldest unsent frame may wait in a client's queue before the
+	 * client is disconnected as too slow. Zero disables the check. Applies to
+	 * connections accepted after the call.
+	 */
+	public void setMaxLagMillis(long maxLagMillis) {
+		this.maxLagMillis = maxLagMillis;
+	}
+
+	public long getPingIntervalMillis() {
+		return pingIntervalMillis;
+	}
+
+	/**
+	 * Sets how long a connection may be silent before the server pings it. Zero
+	 * disables server pings.
+	 */
+	public void setPingIntervalMillis(long pingIntervalMillis) {
+		this.pingIntervalMillis = pingIntervalMillis;
+	}
+
+	public long getPongTimeoutMillis() {
+		return pongTimeoutMillis;
+	}
+
+	/**
+	 * Sets how long the server waits for the pong answering its ping before it
+	 * closes the connection. Zero disables the check.
+	 */
+	public void setPongTimeoutMillis(long pongTimeoutMillis) {
+		this.pongTimeoutMillis = pongTimeoutMillis;
+	}
+
+	public long getIdleTimeoutMillis() {
+		return idleTimeoutMillis;
+	}
+
+	/**
+	 * Sets how long a connection may go without sending anything, pongs included,
+	 * before it is closed. Zero disables the check.
+	 */
+	public void setIdleTimeoutMillis(long idleTimeoutMillis) {
+		this.idleTimeoutMillis = idleTimeoutMillis;
+	}
+
+	public long getHandshakeTimeoutMillis() {
+		return handshakeTimeoutMillis;
+	}
+
+	/**
+	 * Sets how long a new connection may take to complete its upgrade request
+	 * before it is closed. Zero disables the check.
+	 */
+	public void setHandshakeTimeoutMillis(long handshakeTimeoutMillis) {
+		this.handshakeTimeoutMillis = handshakeTimeoutMillis;
+	}
+
+	public int getMaxHandshakeBytes() {
+		return maxHandshakeBytes;
+	}
+
+	/**
+	 * Sets the largest upgrade request, request line and headers included, that a
+	 * client may send.
+	 */
+	public void setMaxHandshakeBytes(int maxHandshakeBytes) {
+		this.maxHandshakeBytes = maxHandshakeBytes;
+	}
+
+	public int getMaxMessageSize() {
+		return maxMessageSize;
+	}
+
+	/**
+	 * Sets the largest client message, after reassembly of fragments, that will be
+	 * accepted. Larger messages close the connection. Applies to connections
+	 * accepted after the call.
+	 */
+	public void setMaxMessageSize(int maxMessageSize) {
+		this.maxMessageSize = maxMessageSize;
+	}
+
+	public boolean isPerMessageDeflateEnabled() {
+		return perMessageDeflateEnabled;
+	}
+
+	/**
+	 * Enables or disables negotiation of permessage-deflate for new connections.
+	 */
+	public void setPerMessageDeflateEnabled(boolean perMessageDeflateEnabled) {
+		this.perMessageDeflateEnabled = perMessageDeflateEnabled;
+	}
+
+	public List<String> getSubprotocols() {
+		return subprotocols;
+	}
+
+	/**
+	 * Sets the {@code Sec-WebSocket-Protocol} values this server accepts. A client
+	 * gets the first protocol it offers that is in this list, or none at all.
+	 */
+	public void setSubprotocols(List<String> subprotocols) {
+		this.subprotocols = List.copyOf(subprotocols);
+	}
+
+	public int getCompressionThreshold() {
+		return compressionThreshold;
+	}
+
+	/**
+	 * Sets the frame size in bytes below which messages are sent uncompressed even
+	 * when permessage-deflate was negotiated.
+	 */
+	public void setCompressionThreshold(int compressionThreshold) {
+		this.compressionThreshold = compressionThreshold;
+	}
+
+	public int getIoThreads() {
+		return ioThreads;
+	}
+
+	/**
+	 * Sets the number of IO loops. One (the default) keeps accept and all I/O on a
+	 * single thread; more enables reactor mode with a separate acceptor thread.
+	 * Takes effect on the next {@link #start()}.
+	 */
+	public void setIoThreads(int ioThreads) {
+		this.ioThreads = Math.max(1, ioThreads);
+	}
+
+	public LoadBalancing getLoadBalancing() {
+		return loadBalancing;
+	}
+
+	public void setLoadBalancing(LoadBalancing loadBalancing) {
+		this.loadBalancing = loadBalancing;
+	}
+
+	/**
+	 * Sets the executor that runs {@link #onOpen}, {@link #onMessage},
+	 * {@link #onClose} and {@link #onError}. Callbacks for one connection always run
+	 * one at a time and in order. When unset, the server uses virtual threads on
+	 * JDK 21+ and a small bounded pool otherwise. A supplied executor is not shut
+	 * down by {@link #stop()}. Takes effect on the next {@link #start()}.
+	 */
+	public void setDispatchExecutor(ExecutorService dispatchExecutor) {
+		this.dispatchExecutor = dispatchExecutor;
+	}
+
+	public int getMaxPendingMessages() {
+		return maxPendingMessages;
+	}
+
+	/**
+	 * Sets how many messages from one client may wait for dispatch before the
+	 * client is disconnected for flooding the server.
+	 */
+	public void setMaxPendingMessages(int maxPendingMessages) {
+		this.maxPendingMessages = maxPendingMessages;
+	}
+
+	/**
+	 * Sends a text message to every connected client. The message is encoded and
+	 * framed once, and the same frame is shared by all connections.
+	 */
 	public void broadcast(String message) {
-		for (WebSocketConnection conn : connections.values()) {
-			if (conn.isHandshakeComplete()) {
+		broadcast(message, null);
+	}
+
+	/**
+	 * Sends a text message to every connected client, replacing any unsent message
+	 * with the same conflation key.
+	 *
+	 * @see WebSocketConnection#send(OutboundFrame, Object)
+	 */
+	public void broadcast(String message, Object conflationKey) {
+		OutboundFrame frame = OutboundFrame.text(message, bufferPool);
+		try {
+			broadcast(frame, conflationKey);
+		} finally {
+			frame.release();
+		}
+	}
+
+	public void broadcast(OutboundFrame frame) {
+		broadcast(frame, null);
+	}
+
+	/**
+	 * Queues an already encoded frame on every connected client. Each IO loop fans
+	 * the frame out to its own connections, so the caller only hands it over. The
+	 * caller keeps its own reference to the frame.
+	 */
+	public void broadcast(OutboundFrame frame, Object conflationKey) {
+		broadcast(frame, conflationKey, null);
+	}
+
+	/**
+	 * Queues an already encoded frame on every connected client accepted by
+	 * {@code filter}, or on every client if the filter is null. The filter runs on
+	 * the IO loops.
+	 */
+	public void broadcast(OutboundFrame frame, Object conflationKey, Predicate<WebSocketConnection> filter) {
+		for (IoLoop loop : loops) {
+			if (loop.getConnectionCount() == 0) {
+				continue;
+			}
+
+			frame.retain();
+			loop.execute(() -> {
 				try {
-					conn.send(message);
-				} catch (IOException e) {
-					LOGGER.warn("Error broadcasting to client: " + e.getMessage());
+					loop.broadcastLocal(frame, conflationKey, filter);
+				} finally {
+					frame.release();
 				}
-			}
+			});
 		}
 	}
 
+	/**
+	 * Runs {@code callback} on the dispatcher once {@code delayNanos} have passed,
+	 * in order with the connection's other callbacks. It is skipped if the
+	 * connection has closed by then.
+	 */
+	public void schedule(WebSocketConnection conn, long delayNanos, Runnable callback) {
+		conn.schedule(delayNanos, () -> {
+			if (conn.isOpen()) {
+				dispatch(conn, callback);
+			}
+		});
+	}
+
 	public Set<WebSocketConnection> getConnections() {
 		return Set.copyOf(connections.values());
 	}
 
-	private void runLoop() {
+	/**
+	 * True if any connected client matches {@code filter}. Unlike
+	 * {@link #getConnections()} this does not copy the connection set.
+	 */
+	public boolean hasConnection(Predicate<WebSocketConnection> filter) {
+		for (WebSocketConnection conn : connections.values()) {
+			if (filter.test(conn)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Blocking accept loop used in reactor mode.
+	 */
+	private void acceptLoop() {
 		while (running.get()) {
 			try {
-				selector.select(1000);
-				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
-
-				while (keys.hasNext()) {
-					SelectionKey key = keys.next();
-					keys.remove();
-
-					if (!key.isValid()) {
-						continue;
-					}
-
-					if (key.isAcceptable()) {
-						accept(key);
-					} else if (key.isReadable()) {
-						read(key);
-					}
+				SocketChannel client = serverChannel.accept();
+				if (client != null) {
+					chooseLoop().adopt(client);
 				}
 			} catch (IOException e) {
 				if (running.get()) {
-					LOGGER.error("Error in server loop: " + e.getMessage());
+					LOGGER.error("Error accepting connection: " + e.getMessage());
 				}
 			}
 		}
 	}
 
-	private void accept(SelectionKey key) throws IOException {
-		ServerSocketChannel server = (ServerSocketChannel) key.channel();
-		SocketChannel client = server.accept();
-		client.configureBlocking(false);
-		client.register(selector, SelectionKey.OP_READ);
-
-		WebSocketConnection conn = new WebSocketConnection(client);
-		connections.put(client, conn);
-		LOGGER.info("Client connected: " + client.getRemoteAddress());
+	/**
+	 * Accepts a pending connection on a non-blocking server channel. Called by the
+	 * IO loop that owns the channel when no dedicated acceptor is running.
+	 */
+	void accept(ServerSocketChannel channel) throws IOException {
+		SocketChannel client = channel.accept();
+		if (client != null) {
+			chooseLoop().adopt(client);
+		}
 	}
 
-	private void read(SelectionKey key) {
-		SocketChannel client = (SocketChannel) key.channel();
-		WebSocketConnection conn = connections.get(client);
-
-		if (conn == null) {
-			return;
+	private IoLoop chooseLoop() {
+		IoLoop[] current = loops;
+		if (current.length == 1) {
+			return current[0];
 		}
 
-		ByteBuffer buffer = ByteBuffer.allocate(8192);
-		int bytesRead;
-
-		try {
-			bytesRead = client.read(buffer);
-		} catch (IOException e) {
-			closeConnection(client, conn);
-			return;
+		if (loadBalancing == LoadBalancing.LEAST_CONNECTIONS) {
+			IoLoop best = current[0];
+			for (IoLoop loop : current) {
+				if (loop.getConnectionCount() < best.getConnectionCount()) {
+					best = loop;
+				}
+			}
+			return best;
 		}
 
-		if (bytesRead == -1) {
-			closeConnection(client, conn);
-			return;
-		}
+		return current[Math.floorMod(nextLoop.getAndIncrement(), current.length)];
+	}
 
-		buffer.flip();
-		byte[] data = new byte[buffer.remaining()];
-		buffer.get(data);
+	void registerConnection(WebSocketConnection conn) {
+		connections.put(conn.getChannel(), conn);
+	}
 
+	/**
+	 * Handles bytes read from a connection. Called on the connection's IO loop.
+	 */
+	void handleRead(WebSocketConnection conn, ByteBuffer buffer) {
 		try {
 			if (!conn.isHandshakeComplete()) {
-				handleHandshake(conn, new String(data));
-			} else {
-				handleFrame(conn, data);
+				HandshakeParser parser = conn.getHandshakeParser();
+				if (!parser.parse(buffer)) {
+					return;
+				}
+				handleHandshake(conn, parser);
+				if (!buffer.hasRemaining()) {
+					return;
+				}
 			}
+			handleFrames(conn, buffer);
+		} catch (HandshakeParser.InvalidHandshakeException e) {
+			LOGGER.warn("Rejected handshake: " + e.getMessage());
+			rejectHandshake(conn, e.getStatus());
+			closeConnection(conn);
 		} catch (Exception e) {
 			LOGGER.error("Error handling data: " + e.getMessage());
-			onError(conn, e);
-			closeConnection(client, conn);
+			dispatch(conn, () -> onError(conn, e));
+			closeConnection(conn);
+		}
+	}
+
+	private void dispatch(WebSocketConnection conn, Runnable callback) {
+		if (!dispatcher.dispatch(conn.getMailbox(), callback, 0)) {
+			LOGGER.warn("Dispatcher is saturated; closing client");
+			closeConnection(conn);
 		}
 	}
 
-	private void handleHandshake(WebSocketConnection conn, String request) throws IOException {
-		String key = extractWebSocketKey(request);
-		if (key == null) {
-			throw new IOException("Invalid WebSocket handshake: missing Sec-WebSocket-Key");
+	private void handleHandshake(WebSocketConnection conn, HandshakeParser request) throws IOException {
+		PerMessageDeflate deflate = null;
+		if (perMessageDeflateEnabled) {
+			deflate = PerMessageDeflate.negotiate(request.getExtensions());
 		}
+		String subprotocol = selectSubprotocol(request.getProtocols());
 
-		String acceptKey = generateAcceptKey(key);
+		String acceptKey = generateAcceptKey(request.getKey());
 		String response = "HTTP/1.1 101 Switching Protocols\r\n" +
 				"Upgrade: websocket\r\n" +
 				"Connection: Upgrade\r\n" +
-				"Sec-WebSocket-Accept: " + acceptKey + "\r\n\r\n";
+				"Sec-WebSocket-Accept: " + acceptKey + "\r\n" +
+				(deflate != null ? "Sec-WebSocket-Extensions: " + deflate.getResponseHeader() + "\r\n" : "") +
+				(subprotocol != null ? "Sec-WebSocket-Protocol: " + subprotocol + "\r\n" : "") +
+				"\r\n";
 
-		conn.getChannel().write(ByteBuffer.wrap(response.getBytes()));
+		OutboundFrame frame = OutboundFrame.raw(response.getBytes(StandardCharsets.US_ASCII));
+		try {
+			conn.send(frame);
+		} finally {
+			frame.release();
+		}
+		conn.setPerMessageDeflate(deflate);
+		conn.setSubprotocol(subprotocol);
+		conn.setOrigin(request.getOrigin());
 		conn.setHandshakeComplete(true);
-		onOpen(conn);
+		dispatch(conn, () -> onOpen(conn));
 	}
 
-	private String extractWebSocketKey(String request) {
-		for (String line : request.split("\r\n")) {
-			if (line.toLowerCase().startsWith("sec-websocket-key:")) {
-				return line.substring(18).trim();
+	/**
+	 * Picks the first offered subprotocol that this server supports.
+	 */
+	private String selectSubprotocol(String header) {
+		if (header == null) {
+			return null;
+		}
+		for (String offer : header.split(",")) {
+			String protocol = offer.trim();
+			if (subprotocols.contains(protocol)) {
+				return protocol;
 			}
 		}
 		return null;
 	}
 
-	private String generateAcceptKey(String key) {
+	/**
+	 * Answers a request that cannot be upgraded with a bare HTTP error. Nothing has
+	 * been queued on the connection yet, so the few bytes are written directly and
+	 * on a best-effort basis.
+	 */
+	private void rejectHandshake(WebSocketConnection conn, int status) {
+		String reason;
+		switch (status) {
+			case 426:
+				reason = "Upgrade Required";
+				break;
+			case 431:
+				reason = "Request Header Fields Too Large";
+				break;
+			default:
+				reason = "Bad Request";
+				break;
+		}
+		String response = "HTTP/1.1 " + status + " " + reason + "\r\n" +
+				(status == 426 ? "Sec-WebSocket-Version: 13\r\n" : "") +
+				"Connection: close\r\n" +
+				"Content-Length: 0\r\n" +
+				"\r\n";
+		try {
+			conn.getChannel().write(ByteBuffer.wrap(response.getBytes(StandardCharsets.US_ASCII)));
+		} catch (IOException e) {
+			// The connection is closed next either way
+		}
+	}
+
+	static String generateAcceptKey(String key) {
 		try {
 			String combined = key + WEBSOCKET_GUID;
 			MessageDigest digest = MessageDigest.getInstance("SHA-1");
@@ -216,83 +613,75 @@ public abstract class WebSocketServer {
 		}
 	}
 
-	private void handleFrame(WebSocketConnection conn, byte[] data) throws IOException {
-		if (data.length < 2) {
-			return;
-		}
-
-		int offset = 0;
-		while (offset < data.length) {
-			int frameStart = offset;
-
-			if (data.length - offset < 2)
-				break;
-
-			int firstByte = data[offset] & 0xFF;
-			int secondByte = data[offset + 1] & 0xFF;
-			offset += 2;
-
-			int opcode = firstByte & 0x0F;
-			boolean masked = (secondByte & 0x80) != 0;
-			int payloadLength = secondByte & 0x7F;
-
-			if (payloadLength == 126) {
-				if (data.length - offset < 2)
-					break;
-				payloadLength = ((data[offset] & 0xFF) << 8) | (data[offset + 1] & 0xFF);
-				offset += 2;
-			} else if (payloadLength == 127) {
-				if (data.length - offset < 8)
-					break;
-				payloadLength = 0;
-				for (int i = 0; i < 8; i++) {
-					payloadLength = (payloadLength << 8) | (data[offset + i] & 0xFF);
-				}
-				offset += 8;
-			}
-
-			byte[] maskKey = null;
-			if (masked) {
-				if (data.length - offset < 4)
-					break;
-				maskKey = new byte[4];
-				System.arraycopy(data, offset, maskKey, 0, 4);
-				offset += 4;
-			}
-
-			if (data.length - offset < payloadLength)
-				break;
-
-			byte[] payload = new byte[payloadLength];
-			System.arraycopy(data, offset, payload, 0, payloadLength);
-			offset += payloadLength;
-
-			if (masked && maskKey != null) {
-				for (int i = 0; i < payload.length; i++) {
-					payload[i] ^= maskKey[i % 4];
-				}
-			}
+	private void handleFrames(WebSocketConnection conn, ByteBuffer buffer) throws IOException {
+		FrameDecoder decoder = conn.getDecoder();
+		int opcode;
 
+		while ((opcode = decoder.decode(buffer)) != FrameDecoder.NEED_MORE) {
+			conn.frameReceived();
 			switch (opcode) {
-				case 0x01: // Text frame
-					onMessage(conn, new String(payload));
+				case FrameDecoder.OPCODE_TEXT:
+					String message;
+					if ((decoder.rsv() & 0x04) != 0) {
+						PerMessageDeflate deflate = conn.getPerMessageDeflate();
+						int length = deflate.decompress(decoder.array(), decoder.offset(), decoder.length(), maxMessageSize);
+						message = new String(deflate.inflatedBuffer(), 0, length, StandardCharsets.UTF_8);
+					} else {
+						message = new String(decoder.array(), decoder.offset(), decoder.length(), StandardCharsets.UTF_8);
+					}
+
+					if (!dispatcher.dispatch(conn.getMailbox(), () -> onMessage(conn, message), maxPendingMessages)) {
+						LOGGER.warn("Closing client with " + conn.getPendingMessages() + " undispatched messages");
+						closeConnection(conn);
+						return;
+					}
 					break;
-				case 0x08: // Close frame
-					closeConnection(conn.getChannel(), conn);
+				case FrameDecoder.OPCODE_CLOSE:
+					closeConnection(conn);
 					return;
-				case 0x09: // Ping frame
-					sendPong(conn, payload);
+				case FrameDecoder.OPCODE_PING:
+					sendPong(conn, Arrays.copyOfRange(decoder.array(), decoder.offset(), decoder.offset() + decoder.length()));
+					break;
+				case FrameDecoder.OPCODE_PONG:
+					conn.pongReceived();
 					break;
-				case 0x0A: // Pong frame
-					// Ignore pongs
+				default:
+					// Binary messages are not used by any client
 					break;
 			}
 		}
 	}
 
 	private void sendPong(WebSocketConnection conn, byte[] payload) throws IOException {
-		byte[] frame = createFrame(0x0A, payload);
-		conn.getChannel().write(ByteBuffer.wrap(frame));
+		OutboundFrame frame = OutboundFrame.of(0x0A, payload);
+		try {
+			conn.send(frame);
+		} finally {
+			frame.release();
+		}
+	}
+
+	/**
+	 * Builds just the header of an unmasked, final frame with the given payload length.
+	 */
+	static ByteBuffer createHeader(int opcode, int payloadLength, boolean compressed) {
+		ByteBuffer header;
+
+		if (payloadLength <= 125) {
+			header = ByteBuffer.allocate(2);
+			header.put(1, (byte) payloadLength);
+		} else if (payloadLength <= 65535) {
+			header = ByteBuffer.allocate(4);
+			header.put(1, (byte) 126);
+			header.putShort(2, (short) payloadLength);
+		} else {
+			header = ByteBuffer.allocate(10);
+			header.put(1, (byte) 127);
+			header.putLong(2, payloadLength);
+		}
+
+		header.put(0, (byte) (0x80 | (compressed ? 0x40 : 0) | opcode)); // FIN + RSV1 + opcode
+		return header;
 	}
 
 	static byte[] createFrame(int opcode, byte[] payload) {
@@ -320,14 +709,22 @@ public abstract class WebSocketServer {
 		return frame;
 	}
 
-	private void closeConnection(SocketChannel client, WebSocketConnection conn) {
-		connections.remove(client);
+	/**
+	 * Closes a connection and notifies the subclass. Called on the connection's IO loop.
+	 */
+	void closeConnection(WebSocketConnection conn) {
+		SocketChannel client = conn.getChannel();
+		conn.getLoop().remove(conn);
+		if (connections.remove(client) == null) {
+			return;
+		}
+		conn.discardOutbound();
 		try {
 			client.close();
 		} catch (IOException e) {
 			// Ignore
 		}
-		onClose(conn);
+		dispatch(conn, () -> onClose(conn));
 	}
 
 	// Abstract methods for subclasses to implement
@@ -0,0 +1,167 @@
+package com.chektek;
+
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.chektek.payload.EquipmentPayload;
+import com.chektek.payload.GrandExchangePayload;
+import com.chektek.payload.Payload;
+import com.google.gson.Gson;
+import net.runelite.api.Client;
+import net.runelite.api.GrandExchangeOffer;
+import net.runelite.api.GrandExchangeOfferState;
+import net.runelite.api.Player;
+import net.runelite.api.PlayerComposition;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DeltaTrackerTest {
+
+	private final DeltaTracker tracker = new DeltaTracker(new Gson());
+
+	@Test
+	public void startsWithSnapshot() {
+		DeltaTracker.Update update = tracker.update(equipment(1, 2, 3));
+
+		Assert.assertTrue(update.isChanged());
+		Assert.assertNull(update.getDelta());
+		Assert.assertEquals(1, update.getSnapshot().getVersion());
+		Assert.assertTrue(update.getSnapshot().isSnapshot());
+		Assert.assertEquals("{\"playerEquipmentIds\":[1,2,3]}", update.getSnapshot().getChanges().toString());
+	}
+
+	@Test
+	public void reportsUnchangedPayload() {
+		tracker.update(equipment(1, 2, 3));
+
+		DeltaTracker.Update update = tracker.update(equipment(1, 2, 3));
+
+		Assert.assertFalse(update.isChanged());
+		Assert.assertNull(update.getDelta());
+		Assert.assertEquals(1, update.getSnapshot().getVersion());
+		Assert.assertEquals("{\"playerEquipmentIds\":[1,2,3]}", update.getSnapshot().getChanges().toString());
+	}
+
+	@Test
+	public void patchesIntArrayByIndex() {
+		tracker.update(equipment(1, 2, 3, 4));
+
+		DeltaTracker.Update update = tracker.update(equipment(1, 9, 3, 7));
+
+		Assert.assertEquals(Long.valueOf(1), update.getDelta().getBase());
+		Assert.assertEquals(2, update.getDelta().getVersion());
+		Assert.assertEquals("{\"playerEquipmentIds\":{\"1\":9,\"3\":7}}", update.getDelta().getChanges().toString());
+		Assert.assertEquals("{\"playerEquipmentIds\":[1,9,3,7]}", update.getSnapshot().getChanges().toString());
+	}
+
+	@Test
+	public void sendsResizedArrayWhole() {
+		tracker.update(equipment(1, 2, 3));
+
+		DeltaTracker.Update update = tracker.update(equipment(1, 2, 3, 4));
+
+		Assert.assertEquals("{\"playerEquipmentIds\":[1,2,3,4]}", update.getDelta().getChanges().toString());
+	}
+
+	@Test
+	public void patchesObjectsInArrayByIndex() {
+		tracker.update(grandExchange(offer(554, 5, 0), offer(0, 0, 0), offer(561, 200, 10)));
+
+		DeltaTracker.Update update = tracker.update(
+				grandExchange(offer(554, 5, 0), offer(0, 0, 0), offer(561, 200, 25)));
+
+		Assert.assertEquals("{\"offers\":{\"2\":{\"quantitySold\":25}}}", update.getDelta().getChanges().toString());
+	}
+
+	@Test
+	public void fallsBackToSnapshotWhenFieldBecomesNull() {
+		tracker.update(equipment(1, 2, 3));
+
+		DeltaTracker.Update update = tracker.update(equipment((int[]) null));
+
+		Assert.assertTrue(update.isChanged());
+		Assert.assertNull(update.getDelta());
+		Assert.assertEquals(2, update.getSnapshot().getVersion());
+		Assert.assertEquals("{}", update.getSnapshot().getChanges().toString());
+	}
+
+	@Test
+	public void sendsResizedObjectArrayWhole() {
+		tracker.update(grandExchange(offer(554, 5, 0)));
+
+		DeltaTracker.Update update = tracker.update(grandExchange(offer(554, 5, 0), offer(0, 0, 0)));
+
+		Assert.assertEquals("{\"offers\":[{\"itemId\":554,\"price\":100,\"quantitySold\":0,\"spent\":0,"
+				+ "\"totalQuantity\":5,\"state\":\"BUYING\"},{\"itemId\":0,\"price\":100,\"quantitySold\":0,"
+				+ "\"spent\":0,\"totalQuantity\":0,\"state\":\"EMPTY\"}]}", update.getDelta().getChanges().toString());
+	}
+
+	@Test
+	public void patchesFieldThatWasNull() {
+		tracker.update(equipment((int[]) null));
+
+		DeltaTracker.Update update = tracker.update(equipment(4, 5));
+
+		Assert.assertEquals("{\"playerEquipmentIds\":[4,5]}", update.getDelta().getChanges().toString());
+	}
+
+	@Test
+	public void sendsSnapshotEverySnapshotInterval() {
+		tracker.update(equipment(0));
+
+		for (int i = 1; i < DeltaTracker.SNAPSHOT_INTERVAL; i++) {
+			Assert.assertNotNull("version " + (i + 1), tracker.update(equipment(i)).getDelta());
+		}
+		DeltaTracker.Update update = tracker.update(equipment(DeltaTracker.SNAPSHOT_INTERVAL));
+
+		Assert.assertNull(update.getDelta());
+		Assert.assertEquals(DeltaTracker.SNAPSHOT_INTERVAL + 1, update.getSnapshot().getVersion());
+		Assert.assertNotNull(tracker.update(equipment(-1)).getDelta());
+	}
+
+	@Test
+	public void ignoresSeq() {
+		Payload first = equipment(1, 2);
+		first.setSeq(10L);
+		tracker.update(first);
+		Payload second = equipment(1, 2);
+		second.setSeq(11L);
+
+		Assert.assertFalse(tracker.update(second).isChanged());
+	}
+
+	private static EquipmentPayload equipment(int... ids) {
+		PlayerComposition composition = fake(PlayerComposition.class, Map.of("getEquipmentIds", ids != null ? ids : NULL));
+		Player player = fake(Player.class, Map.of("getPlayerComposition", composition));
+		return new EquipmentPayload(fake(Client.class, Map.of("getLocalPlayer", player)));
+	}
+
+	private static GrandExchangePayload grandExchange(GrandExchangeOffer... offers) {
+		return new GrandExchangePayload(fake(Client.class, Map.of("getGrandExchangeOffers", offers)));
+	}
+
+	private static GrandExchangeOffer offer(int itemId, int totalQuantity, int quantitySold) {
+		Map<String, Object> values = new HashMap<>();
+		values.put("getItemId", itemId);
+		values.put("getPrice", 100);
+		values.put("getQuantitySold", quantitySold);
+		values.put("getSpent", 0);
+		values.put("getTotalQuantity", totalQuantity);
+		values.put("getState", itemId == 0 ? GrandExchangeOfferState.EMPTY : GrandExchangeOfferState.BUYING);
+		return fake(GrandExchangeOffer.class, values);
+	}
+
+	private static final Object NULL = new Object();
+
+	/**
+	 * An implementation of an interface that answers each listed method with a
+	 * fixed value and every other method with null.
+	 */
+	private static <T> T fake(Class<T> type, Map<String, Object> values) {
+		return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+			Object value = values.get(method.getName());
+			return value == NULL ? null : value;
+		}));
+	}
+}
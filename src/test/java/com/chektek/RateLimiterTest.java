@@ -0,0 +1,200 @@
+package com.chektek;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.chektek.payload.PayloadType;
+import com.chektek.websocket.OutboundFrame;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RateLimiterTest {
+
+	private static final long INTERVAL = TimeUnit.MILLISECONDS.toNanos(500);
+
+	private long now = TimeUnit.SECONDS.toNanos(10);
+	private final RateLimiter limiter = new RateLimiter(() -> now);
+	private final FakeTarget target = new FakeTarget();
+
+	@Test
+	public void sendsUnlimitedTypesImmediately() {
+		for (int i = 0; i < 5; i++) {
+			offer(PayloadType.FPS, "fps" + i);
+		}
+
+		Assert.assertEquals(List.of("fps0", "fps1", "fps2", "fps3", "fps4"), target.sent);
+		Assert.assertTrue(target.scheduled.isEmpty());
+	}
+
+	@Test
+	public void sendsFirstUpdateImmediately() {
+		limiter.setInterval(PayloadType.FPS, INTERVAL);
+
+		offer(PayloadType.FPS, "first");
+
+		Assert.assertEquals(List.of("first"), target.sent);
+		Assert.assertTrue(target.scheduled.isEmpty());
+	}
+
+	@Test
+	public void holdsNewestUpdateUntilIntervalPasses() {
+		limiter.setInterval(PayloadType.FPS, INTERVAL);
+		offer(PayloadType.FPS, "first");
+
+		now += INTERVAL / 5;
+		offer(PayloadType.FPS, "second");
+		now += INTERVAL / 5;
+		offer(PayloadType.FPS, "third");
+
+		Assert.assertEquals(List.of("first"), target.sent);
+		Assert.assertEquals(1, target.scheduled.size());
+		Assert.assertEquals(INTERVAL - INTERVAL / 5, target.delays.get(0).longValue());
+
+		now += INTERVAL - 2 * (INTERVAL / 5);
+		target.runScheduled();
+
+		Assert.assertEquals(List.of("first", "third"), target.sent);
+	}
+
+	@Test
+	public void refillsAfterQuietInterval() {
+		limiter.setInterval(PayloadType.FPS, INTERVAL);
+		offer(PayloadType.FPS, "first");
+
+		now += INTERVAL - 1;
+		offer(PayloadType.FPS, "early");
+		now += 1;
+		target.runScheduled();
+
+		// A full interval since the flush: the next update goes straight out
+		now += INTERVAL;
+		offer(PayloadType.FPS, "late");
+
+		Assert.assertEquals(List.of("first", "early", "late"), target.sent);
+		Assert.assertTrue(target.scheduled.isEmpty());
+	}
+
+	@Test
+	public void measuresIntervalFromLastSend() {
+		limiter.setInterval(PayloadType.FPS, INTERVAL);
+		offer(PayloadType.FPS, "first");
+		now += INTERVAL / 2;
+		offer(PayloadType.FPS, "held");
+		now += INTERVAL / 2;
+		target.runScheduled();
+
+		now += INTERVAL / 4;
+		offer(PayloadType.FPS, "next");
+
+		Assert.assertEquals(List.of("first", "held"), target.sent);
+		Assert.assertEquals(INTERVAL - INTERVAL / 4, target.delays.get(0).longValue());
+	}
+
+	@Test
+	public void limitsTypesIndependently() {
+		limiter.setInterval(PayloadType.FPS, INTERVAL);
+		offer(PayloadType.FPS, "fps");
+		offer(PayloadType.FPS, "fps held");
+		offer(PayloadType.MOVEMENT, "movement");
+		offer(PayloadType.MOVEMENT, "movement again");
+
+		Assert.assertEquals(List.of("fps", "movement", "movement again"), target.sent);
+	}
+
+	@Test
+	public void removesLimitForNonPositiveInterval() {
+		limiter.setInterval(PayloadType.FPS, INTERVAL);
+		Assert.assertTrue(limiter.isLimited(PayloadType.FPS));
+
+		limiter.setInterval(PayloadType.FPS, 0);
+
+		Assert.assertFalse(limiter.isLimited(PayloadType.FPS));
+		Assert.assertTrue(limiter.getIntervals().isEmpty());
+	}
+
+	@Test
+	public void removingLimitDropsHeldUpdateOnceNewerIsSent() {
+		limiter.setInterval(PayloadType.FPS, INTERVAL);
+		offer(PayloadType.FPS, "first");
+		offer(PayloadType.FPS, "held");
+
+		limiter.setInterval(PayloadType.FPS, 0);
+		offer(PayloadType.FPS, "newer");
+		now += INTERVAL;
+		target.runScheduled();
+
+		Assert.assertEquals(List.of("first", "newer"), target.sent);
+	}
+
+	@Test
+	public void removingLimitStillFlushesHeldUpdate() {
+		limiter.setInterval(PayloadType.FPS, INTERVAL);
+		offer(PayloadType.FPS, "first");
+		offer(PayloadType.FPS, "held");
+
+		limiter.setInterval(PayloadType.FPS, 0);
+		now += INTERVAL;
+		target.runScheduled();
+
+		Assert.assertEquals(List.of("first", "held"), target.sent);
+	}
+
+	@Test
+	public void dropsHeldUpdateWhenConnectionCloses() {
+		limiter.setInterval(PayloadType.FPS, INTERVAL);
+		offer(PayloadType.FPS, "first");
+		offer(PayloadType.FPS, "held");
+
+		target.open = false;
+		now += INTERVAL;
+		target.runScheduled();
+
+		Assert.assertEquals(List.of("first"), target.sent);
+	}
+
+	private void offer(PayloadType type, String text) {
+		OutboundFrame frame = OutboundFrame.of(0x01, text.getBytes());
+		target.names.put(frame, text);
+		try {
+			limiter.offer(target, type, frame, type);
+		} finally {
+			frame.release();
+		}
+	}
+
+	private static final class FakeTarget implements RateLimiter.Target {
+		private final Map<OutboundFrame, String> names = new IdentityHashMap<>();
+		private final List<String> sent = new ArrayList<>();
+		private final List<Runnable> scheduled = new ArrayList<>();
+		private final List<Long> delays = new ArrayList<>();
+		private boolean open = true;
+
+		@Override
+		public void send(OutboundFrame frame, Object conflationKey) {
+			sent.add(names.get(frame));
+		}
+
+		@Override
+		public void schedule(long delayNanos, Runnable task) {
+			delays.add(delayNanos);
+			scheduled.add(task);
+		}
+
+		@Override
+		public boolean isOpen() {
+			return open;
+		}
+
+		void runScheduled() {
+			List<Runnable> tasks = new ArrayList<>(scheduled);
+			scheduled.clear();
+			delays.clear();
+			for (Runnable task : tasks) {
+				task.run();
+			}
+		}
+	}
+}
@@ -0,0 +1,135 @@
+package com.chektek;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.chektek.payload.EquipmentPayload;
+import com.chektek.payload.FPSPayload;
+import com.chektek.payload.LogoutPayload;
+import com.chektek.payload.PayloadType;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ReplayRingTest {
+
+	private static final long EPOCH = 1234;
+
+	private final ReplayRing ring = new ReplayRing(4, EPOCH);
+
+	@Test
+	public void stampsPayloadsInOrder() {
+		LogoutPayload first = new LogoutPayload();
+		LogoutPayload second = new LogoutPayload();
+
+		Assert.assertEquals(1, ring.record(first));
+		Assert.assertEquals(2, ring.record(second));
+		Assert.assertEquals(Long.valueOf(2), second.getSeq());
+		Assert.assertEquals(2, ring.getLastSeq());
+	}
+
+	@Test
+	public void returnsEmptyGapWhenUpToDate() {
+		recordEvents(3);
+
+		Assert.assertEquals(List.of(), seqs(ring.since(EPOCH, 3)));
+	}
+
+	@Test
+	public void replaysFromStart() {
+		recordEvents(4);
+
+		Assert.assertEquals(List.of(1L, 2L, 3L, 4L), seqs(ring.since(EPOCH, 0)));
+	}
+
+	@Test
+	public void replaysGapOfExactlyCapacity() {
+		recordEvents(9);
+
+		Assert.assertEquals(List.of(6L, 7L, 8L, 9L), seqs(ring.since(EPOCH, 5)));
+	}
+
+	@Test
+	public void rejectsGapLongerThanCapacity() {
+		recordEvents(9);
+
+		Assert.assertNull(ring.since(EPOCH, 4));
+		Assert.assertNull(ring.since(EPOCH, 0));
+	}
+
+	@Test
+	public void replaysAcrossWrap() {
+		recordEvents(6);
+
+		// Slots hold 5, 6, 3, 4
+		Assert.assertEquals(List.of(4L, 5L, 6L), seqs(ring.since(EPOCH, 3)));
+		Assert.assertEquals(List.of(6L), seqs(ring.since(EPOCH, 5)));
+	}
+
+	@Test
+	public void rejectsSeqAheadOfRing() {
+		recordEvents(2);
+
+		Assert.assertNull(ring.since(EPOCH, 3));
+		Assert.assertNull(ring.since(EPOCH, -1));
+	}
+
+	@Test
+	public void rejectsOtherEpoch() {
+		recordEvents(2);
+
+		Assert.assertNull(ring.since(EPOCH + 1, 1));
+		Assert.assertEquals(EPOCH, ring.getEpoch());
+	}
+
+	@Test
+	public void leavesOutReplacedStateMessages() {
+		ring.record(new FPSPayload());
+		ring.record(new LogoutPayload());
+		ring.record(new FPSPayload());
+		ring.record(new EquipmentPayload());
+
+		List<ReplayRing.Entry> gap = ring.since(EPOCH, 0);
+
+		Assert.assertEquals(List.of(2L, 3L, 4L), seqs(gap));
+		Assert.assertEquals(PayloadType.LOGOUT, gap.get(0).getType());
+	}
+
+	@Test
+	public void keepsLatestStateBeyondCapacity() {
+		ring.record(new EquipmentPayload());
+		recordFps(6);
+
+		List<ReplayRing.Entry> snapshot = ring.snapshot();
+
+		Assert.assertEquals(List.of(1L, 7L), seqs(snapshot));
+		Assert.assertEquals(PayloadType.EQUIPMENT, snapshot.get(0).getType());
+	}
+
+	@Test
+	public void dropsGameStateFromSnapshotOnLogout() {
+		ring.record(new EquipmentPayload());
+		ring.record(new LogoutPayload());
+
+		Assert.assertTrue(ring.snapshot().isEmpty());
+	}
+
+	private void recordEvents(int count) {
+		for (int i = 0; i < count; i++) {
+			ring.record(new LogoutPayload());
+		}
+	}
+
+	private void recordFps(int count) {
+		for (int i = 0; i < count; i++) {
+			ring.record(new FPSPayload());
+		}
+	}
+
+	private static List<Long> seqs(List<ReplayRing.Entry> entries) {
+		List<Long> seqs = new ArrayList<>();
+		for (ReplayRing.Entry entry : entries) {
+			seqs.add(entry.getSeq());
+		}
+		return seqs;
+	}
+}
@@ -0,0 +1,78 @@
+package com.chektek.codec;
+
+import java.util.Arrays;
+
+import com.chektek.payload.FPSPayload;
+import com.chektek.payload.LogoutPayload;
+import com.chektek.payload.Payload;
+import com.chektek.websocket.BufferPool;
+import com.chektek.websocket.OutboundFrame;
+import com.chektek.websocket.OutboundFrames;
+import com.google.gson.Gson;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BinaryPayloadCodecTest {
+
+	private final BinaryPayloadCodec codec = new BinaryPayloadCodec(new Gson(), new BufferPool());
+
+	@Test
+	public void writesSeqAsUnsignedVarint() {
+		FPSPayload payload = new FPSPayload();
+		payload.setSeq(300L);
+
+		// id, seq 300 = 0xAC 0x02, fps 0
+		Assert.assertArrayEquals(new byte[]{4, (byte) 0xAC, 0x02, 0}, encode(payload));
+	}
+
+	@Test
+	public void writesUnbroadcastSeqAsZero() {
+		Assert.assertArrayEquals(new byte[]{4, 0, 0}, encode(new FPSPayload()));
+	}
+
+	@Test
+	public void returnsNullWithoutBinaryLayout() {
+		Assert.assertNull(codec.encode(new LogoutPayload()));
+	}
+
+	@Test
+	public void writesBatchTickCountAndLengthsUnsigned() {
+		FPSPayload fps = new FPSPayload();
+		fps.setSeq(1L);
+		LogoutPayload logout = new LogoutPayload();
+		logout.setSeq(2L);
+
+		OutboundFrame frame = codec.encodeBatch(64, Arrays.<Payload>asList(fps, logout));
+		byte[] bytes = payload(frame);
+		frame.release();
+
+		byte[] json = "{\"type\":\"LOGOUT\",\"seq\":2}".getBytes();
+		byte[] expected = new byte[7 + 2 + json.length];
+		int i = 0;
+		expected[i++] = BinaryPayloadCodec.TYPE_BATCH;
+		expected[i++] = 64;
+		expected[i++] = 2;
+		expected[i++] = 3;
+		expected[i++] = BinaryPayloadCodec.TYPE_FPS;
+		expected[i++] = 1;
+		expected[i++] = 0;
+		expected[i++] = (byte) (json.length + 1);
+		expected[i++] = BinaryPayloadCodec.TYPE_JSON;
+		System.arraycopy(json, 0, expected, i, json.length);
+		Assert.assertArrayEquals(expected, bytes);
+	}
+
+	private byte[] encode(Payload payload) {
+		OutboundFrame frame = codec.encode(payload);
+		try {
+			return payload(frame);
+		} finally {
+			frame.release();
+		}
+	}
+
+	private static byte[] payload(OutboundFrame frame) {
+		Assert.assertEquals(0x02, OutboundFrames.opcode(frame));
+		return OutboundFrames.payload(frame);
+	}
+}
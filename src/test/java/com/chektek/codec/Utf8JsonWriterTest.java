@@ -0,0 +1,195 @@
+package com.chektek.codec;
+
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import com.chektek.PluginSummary;
+import com.chektek.payload.GrandExchangePayload;
+import com.chektek.payload.Payload;
+import com.chektek.payload.PluginChangedPayload;
+import com.chektek.payload.PluginsPayload;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import net.runelite.api.Client;
+import net.runelite.api.GrandExchangeOffer;
+import net.runelite.api.GrandExchangeOfferState;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class Utf8JsonWriterTest {
+
+	private static final String SPECIAL = "quote\" backslash\\ slash/ <b>&amp;</b> a='1' tab\t nl\n cr\r bs\b ff\f "
+			+ "nul\u0000 us\u001f del\u007f ls\u2028 ps\u2029 \u00e9 \u00df \u4e2d\u6587 \ud83d\ude00";
+
+	private final Gson gson = new Gson();
+	private final Gson plainGson = new GsonBuilder().disableHtmlEscaping().create();
+	private final Gson nullGson = new GsonBuilder().serializeNulls().create();
+
+	@Test
+	public void escapesEveryAsciiCharacterLikeGson() {
+		for (char c = 0; c < 0x80; c++) {
+			String value = "a" + c + "b";
+			assertString(gson, value);
+			assertString(plainGson, value);
+		}
+	}
+
+	@Test
+	public void escapesStringsLikeGson() {
+		assertString(gson, SPECIAL);
+		assertString(plainGson, SPECIAL);
+		assertString(gson, "");
+	}
+
+	@Test
+	public void writesNumbersLikeGson() {
+		for (long value : new long[] { 0, 1, -1, 9, 10, -10, 123456789, Integer.MAX_VALUE, Integer.MIN_VALUE,
+				Long.MAX_VALUE, Long.MIN_VALUE }) {
+			Utf8JsonWriter out = new Utf8JsonWriter(true, false);
+			out.value(value);
+			assertJson(gson.toJson(value), out);
+		}
+	}
+
+	@Test
+	public void writesNonFiniteNumbersInTreesLikeGson() {
+		// Gson writes trees leniently, so these come out as bare literals
+		JsonArray array = new JsonArray();
+		array.add(Double.NaN);
+		array.add(Double.POSITIVE_INFINITY);
+		array.add(Double.NEGATIVE_INFINITY);
+		array.add(Float.NaN);
+		array.add(1.5);
+		array.add(-0.0);
+		array.add(1e20);
+		array.add(3);
+		assertTree(gson, array);
+	}
+
+	@Test
+	public void writesNestedTreesLikeGson() {
+		JsonObject inner = new JsonObject();
+		inner.addProperty("text", SPECIAL);
+		inner.add("missing", JsonNull.INSTANCE);
+		inner.add("empty", new JsonObject());
+		JsonArray list = new JsonArray();
+		list.add(inner);
+		list.add(JsonNull.INSTANCE);
+		list.add(new JsonArray());
+		list.add(new JsonPrimitive(true));
+		JsonObject tree = new JsonObject();
+		tree.add("list", list);
+		tree.addProperty(SPECIAL, 'c');
+		tree.add("nothing", JsonNull.INSTANCE);
+
+		assertTree(gson, tree);
+		assertTree(plainGson, tree);
+		assertTree(nullGson, tree);
+	}
+
+	@Test
+	public void writesPayloadsLikeGson() {
+		PluginSummary special = new PluginSummary("id" + SPECIAL, SPECIAL, true);
+		PluginSummary missing = new PluginSummary(null, null, false);
+		List<Payload> payloads = Arrays.asList(
+				new PluginChangedPayload(special),
+				new PluginChangedPayload(null),
+				new PluginsPayload(Arrays.asList(special, missing, null)),
+				new PluginsPayload(List.of()),
+				new GrandExchangePayload(client(offer(554, GrandExchangeOfferState.BUYING),
+						offer(0, GrandExchangeOfferState.EMPTY))));
+		for (Gson gson : new Gson[] { gson, plainGson, nullGson }) {
+			PayloadJsonWriter writer = new PayloadJsonWriter(gson);
+			Utf8JsonWriter out = writer.newWriter();
+			for (Payload payload : payloads) {
+				payload.setSeq(42L);
+				out.reset();
+				writer.write(out, payload);
+				assertJson(gson.toJson(payload), out);
+
+				payload.setSeq(null);
+				out.reset();
+				writer.write(out, payload);
+				assertJson(gson.toJson(payload), out);
+			}
+		}
+	}
+
+	@Test
+	public void reusesArrayAfterReset() {
+		Utf8JsonWriter out = new Utf8JsonWriter(true, false);
+		out.value(SPECIAL.repeat(100));
+		byte[] array = out.array();
+
+		out.reset();
+		out.beginArray();
+		out.value(1);
+		out.endArray();
+
+		Assert.assertSame(array, out.array());
+		assertJson("[1]", out);
+	}
+
+	@Test
+	public void rawJsonRoundTripsThroughGson() {
+		Utf8JsonWriter out = new Utf8JsonWriter(false, false);
+		out.value(gson.toJsonTree(List.of(1, "two", SPECIAL)));
+		RawJson raw = RawJson.copyOf(out);
+
+		RawJson read = plainGson.fromJson(plainGson.toJson(raw), RawJson.class);
+
+		Assert.assertEquals(raw, read);
+		Assert.assertNull(gson.fromJson("null", RawJson.class));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void rejectsDeepNesting() {
+		Utf8JsonWriter out = new Utf8JsonWriter(true, false);
+		for (int i = 0; i <= 64; i++) {
+			out.beginArray();
+		}
+	}
+
+	private static void assertString(Gson gson, String value) {
+		Utf8JsonWriter out = new Utf8JsonWriter(gson.htmlSafe(), gson.serializeNulls());
+		out.value(value);
+		assertJson(gson.toJson(value), out);
+	}
+
+	private static void assertTree(Gson gson, JsonElement tree) {
+		Utf8JsonWriter out = new Utf8JsonWriter(gson.htmlSafe(), gson.serializeNulls());
+		out.value(tree);
+		assertJson(gson.toJson(tree), out);
+	}
+
+	private static void assertJson(String expected, Utf8JsonWriter out) {
+		Assert.assertEquals(expected, new String(out.array(), 0, out.length(), StandardCharsets.UTF_8));
+		Assert.assertArrayEquals(expected.getBytes(StandardCharsets.UTF_8), out.toByteArray());
+	}
+
+	private static Client client(GrandExchangeOffer... offers) {
+		return (Client) Proxy.newProxyInstance(Client.class.getClassLoader(), new Class<?>[]{Client.class},
+				(proxy, method, args) -> method.getName().equals("getGrandExchangeOffers") ? offers : null);
+	}
+
+	private static GrandExchangeOffer offer(int itemId, GrandExchangeOfferState state) {
+		return (GrandExchangeOffer) Proxy.newProxyInstance(GrandExchangeOffer.class.getClassLoader(),
+				new Class<?>[]{GrandExchangeOffer.class}, (proxy, method, args) -> {
+					switch (method.getName()) {
+						case "getItemId":
+							return itemId;
+						case "getState":
+							return state;
+						default:
+							return 7;
+					}
+				});
+	}
+}
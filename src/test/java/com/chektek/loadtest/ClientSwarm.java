@@ -0,0 +1,321 @@
+package com.chektek.loadtest;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Many WebSocket clients driven by a few selector threads. Each client performs
+ * the upgrade, answers pings with masked pongs, and records the latency of every
+ * text frame that carries a {@code sentNanos} field.
+ */
+final class ClientSwarm {
+
+	private static final byte[] HANDSHAKE = ("GET / HTTP/1.1\r\n" +
+			"Host: 127.0.0.1\r\n" +
+			"Upgrade: websocket\r\n" +
+			"Connection: Upgrade\r\n" +
+			"Sec-WebSocket-Key: dGhlIHNhbXBsZSBub25jZQ==\r\n" +
+			"Sec-WebSocket-Version: 13\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] SENT_NANOS = "\"sentNanos\":".getBytes(StandardCharsets.US_ASCII);
+
+	private final int port;
+	private final Group[] groups;
+	private final AtomicInteger connects = new AtomicInteger();
+	private final AtomicInteger disconnects = new AtomicInteger();
+	private final AtomicLong received = new AtomicLong();
+	private volatile boolean running = true;
+	private volatile boolean recording = false;
+
+	ClientSwarm(int port, int threads) throws IOException {
+		this.port = port;
+		this.groups = new Group[threads];
+		for (int i = 0; i < threads; i++) {
+			groups[i] = new Group(i);
+		}
+	}
+
+	void connect(int clients) throws IOException {
+		for (int i = 0; i < clients; i++) {
+			groups[i % groups.length].add(open());
+		}
+	}
+
+	void start() {
+		for (Group group : groups) {
+			group.thread.start();
+		}
+	}
+
+	/**
+	 * Latencies are only kept while recording, which lets the caller drop warmup.
+	 */
+	void setRecording(boolean recording) {
+		this.recording = recording;
+	}
+
+	/**
+	 * Closes one random client and opens a replacement on the same thread.
+	 */
+	void churn() {
+		groups[ThreadLocalRandom.current().nextInt(groups.length)].churnRequested.incrementAndGet();
+	}
+
+	int getConnects() {
+		return connects.get();
+	}
+
+	int getDisconnects() {
+		return disconnects.get();
+	}
+
+	long getReceived() {
+		return received.get();
+	}
+
+	/**
+	 * All latencies recorded so far, in nanoseconds, unsorted.
+	 */
+	long[] latencies() {
+		int total = 0;
+		for (Group group : groups) {
+			total += group.latencyCount;
+		}
+		long[] all = new long[total];
+		int offset = 0;
+		for (Group group : groups) {
+			System.arraycopy(group.latencies, 0, all, offset, group.latencyCount);
+			offset += group.latencyCount;
+		}
+		return all;
+	}
+
+	void stop() throws InterruptedException {
+		running = false;
+		for (Group group : groups) {
+			group.selector.wakeup();
+			group.thread.join();
+		}
+	}
+
+	private Client open() throws IOException {
+		SocketChannel channel = SocketChannel.open(new InetSocketAddress("127.0.0.1", port));
+		channel.socket().setTcpNoDelay(true);
+		channel.write(ByteBuffer.wrap(HANDSHAKE));
+		channel.configureBlocking(false);
+		connects.incrementAndGet();
+		return new Client(channel);
+	}
+
+	private final class Group implements Runnable {
+		private final Selector selector;
+		private final Thread thread;
+		private final List<Client> clients = new ArrayList<>();
+		private final AtomicInteger churnRequested = new AtomicInteger();
+		private long[] latencies = new long[1 << 16];
+		private int latencyCount;
+
+		Group(int index) throws IOException {
+			this.selector = Selector.open();
+			this.thread = new Thread(this, "LoadTest-Clients-" + index);
+			this.thread.setDaemon(true);
+		}
+
+		void add(Client client) throws IOException {
+			client.channel.register(selector, SelectionKey.OP_READ, client);
+			clients.add(client);
+		}
+
+		@Override
+		public void run() {
+			while (running) {
+				try {
+					selector.select(100);
+					for (SelectionKey key : selector.selectedKeys()) {
+						Client client = (Client) key.attachment();
+						if (key.isValid() && key.isReadable() && !client.read(this)) {
+							close(client);
+						}
+					}
+					selector.selectedKeys().clear();
+
+					while (churnRequested.get() > 0 && !clients.isEmpty()) {
+						churnRequested.decrementAndGet();
+						close(clients.get(ThreadLocalRandom.current().nextInt(clients.size())));
+						add(open());
+					}
+				} catch (IOException e) {
+					System.err.println("Client thread error: " + e.getMessage());
+				}
+			}
+
+			for (Client client : new ArrayList<>(clients)) {
+				close(client);
+			}
+			try {
+				selector.close();
+			} catch (IOException e) {
+				// Ignore
+			}
+		}
+
+		void record(long latency) {
+			if (!recording) {
+				return;
+			}
+			if (latencyCount == latencies.length) {
+				latencies = Arrays.copyOf(latencies, latencies.length << 1);
+			}
+			latencies[latencyCount++] = latency;
+		}
+
+		private void close(Client client) {
+			clients.remove(client);
+			try {
+				client.channel.close();
+			} catch (IOException e) {
+				// Ignore
+			}
+			disconnects.incrementAndGet();
+		}
+	}
+
+	private final class Client {
+		private final SocketChannel channel;
+		private ByteBuffer in = ByteBuffer.allocate(16 * 1024);
+		private boolean upgraded;
+
+		Client(SocketChannel channel) {
+			this.channel = channel;
+		}
+
+		/**
+		 * @return false once the connection is closed
+		 */
+		boolean read(Group group) throws IOException {
+			int count;
+			try {
+				count = channel.read(in);
+			} catch (IOException e) {
+				return false;
+			}
+			if (count < 0) {
+				return false;
+			}
+
+			in.flip();
+			if (!upgraded && !skipResponse()) {
+				in.compact();
+				return true;
+			}
+			while (readFrame(group)) {
+				// Keep going until a partial frame is left
+			}
+			in.compact();
+			return channel.isOpen();
+		}
+
+		private boolean skipResponse() {
+			for (int i = in.position(); i + 3 < in.limit(); i++) {
+				if (in.get(i) == '\r' && in.get(i + 1) == '\n' && in.get(i + 2) == '\r' && in.get(i + 3) == '\n') {
+					in.position(i + 4);
+					upgraded = true;
+					return true;
+				}
+			}
+			return false;
+		}
+
+		private boolean readFrame(Group group) throws IOException {
+			int start = in.position();
+			if (in.remaining() < 2) {
+				return false;
+			}
+			int opcode = in.get(start) & 0x0F;
+			int lengthCode = in.get(start + 1) & 0x7F;
+			int headerLength = lengthCode == 126 ? 4 : lengthCode == 127 ? 10 : 2;
+			if (in.remaining() < headerLength) {
+				return false;
+			}
+			long length = lengthCode == 126 ? in.getShort(start + 2) & 0xFFFF
+					: lengthCode == 127 ? in.getLong(start + 2) : lengthCode;
+			if (in.remaining() < headerLength + length) {
+				if (headerLength + length > in.capacity()) {
+					ByteBuffer grown = ByteBuffer.allocate((int) (headerLength + length));
+					grown.put(in);
+					grown.flip();
+					in = grown;
+				}
+				return false;
+			}
+
+			int payload = start + headerLength;
+			in.position((int) (payload + length));
+			switch (opcode) {
+				case 0x01:
+					received.incrementAndGet();
+					long sent = parseSentNanos(payload, (int) length);
+					if (sent != 0) {
+						group.record(System.nanoTime() - sent);
+					}
+					break;
+				case 0x09:
+					writePong(payload, (int) length);
+					break;
+				case 0x08:
+					channel.close();
+					return false;
+				default:
+					break;
+			}
+			return true;
+		}
+
+		private long parseSentNanos(int offset, int length) {
+			int end = offset + length;
+			outer: for (int i = offset; i + SENT_NANOS.length < end; i++) {
+				for (int j = 0; j < SENT_NANOS.length; j++) {
+					if (in.get(i + j) != SENT_NANOS[j]) {
+						continue outer;
+					}
+				}
+				int k = i + SENT_NANOS.length;
+				boolean negative = k < end && in.get(k) == '-';
+				long value = 0;
+				for (k = negative ? k + 1 : k; k < end; k++) {
+					byte digit = in.get(k);
+					if (digit < '0' || digit > '9') {
+						break;
+					}
+					value = value * 10 + (digit - '0');
+				}
+				return negative ? -value : value;
+			}
+			return 0;
+		}
+
+		private void writePong(int offset, int length) throws IOException {
+			byte[] mask = new byte[4];
+			ThreadLocalRandom.current().nextBytes(mask);
+			ByteBuffer frame = ByteBuffer.allocate(6 + length);
+			frame.put((byte) 0x8A).put((byte) (0x80 | length)).put(mask);
+			for (int i = 0; i < length; i++) {
+				frame.put((byte) (in.get(offset + i) ^ mask[i & 3]));
+			}
+			frame.flip();
+			while (frame.hasRemaining()) {
+				channel.write(frame);
+			}
+		}
+	}
+}
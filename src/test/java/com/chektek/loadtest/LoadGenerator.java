@@ -0,0 +1,227 @@
+package com.chektek.loadtest;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.ServerSocket;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import com.chektek.RuneDeckSocketServer;
+import com.chektek.payload.PayloadType;
+import com.google.gson.Gson;
+
+/**
+ * Headless load test for the websocket server. Starts a {@link RuneDeckSocketServer}
+ * on localhost, connects a swarm of clients, broadcasts synthetic payloads at a
+ * fixed rate and reports delivery latency percentiles, throughput, and the CPU
+ * time and allocation of the server threads per message.
+ * <p>
+ * Options, all {@code --name=value}:
+ * <ul>
+ * <li>{@code clients} connected clients (200)</li>
+ * <li>{@code rate} broadcasts per second (100)</li>
+ * <li>{@code duration} measured seconds (10)</li>
+ * <li>{@code warmup} unmeasured seconds before that (3)</li>
+ * <li>{@code size} padding characters per payload (256)</li>
+ * <li>{@code churn} clients replaced per second (0)</li>
+ * <li>{@code events} send event payloads, which are never conflated (false)</li>
+ * <li>{@code ioThreads} server IO loops (1)</li>
+ * <li>{@code clientThreads} client selector threads (4)</li>
+ * </ul>
+ * Run with {@code ./gradlew loadTest --args="--clients=500 --churn=20"}.
+ */
+public class LoadGenerator {
+
+	private static final String SERVER_THREAD_PREFIX = "RuneDeck-";
+
+	public static void main(String[] args) throws Exception {
+		Map<String, String> options = parseOptions(args);
+		int clients = intOption(options, "clients", 200);
+		int rate = intOption(options, "rate", 100);
+		int duration = intOption(options, "duration", 10);
+		int warmup = intOption(options, "warmup", 3);
+		int size = intOption(options, "size", 256);
+		int churn = intOption(options, "churn", 0);
+		int ioThreads = intOption(options, "ioThreads", 1);
+		int clientThreads = intOption(options, "clientThreads", 4);
+		PayloadType type = Boolean.parseBoolean(options.getOrDefault("events", "false")) ? PayloadType.LOGOUT
+				: PayloadType.SKILLS;
+
+		RuneDeckSocketServer server = new RuneDeckSocketServer(freePort(), new Gson(), null);
+		server.setIoThreads(ioThreads);
+		server.setPerMessageDeflateEnabled(false);
+		server.start();
+
+		ClientSwarm swarm = new ClientSwarm(server.getPort(), clientThreads);
+		swarm.connect(clients);
+		swarm.start();
+		while (server.getConnections().size() < clients) {
+			Thread.sleep(10);
+		}
+
+		char[] padding = new char[size];
+		Arrays.fill(padding, 'x');
+		String pad = new String(padding);
+
+		System.out.printf("%d clients, %d msg/s, %d B padding, churn %d/s, %s payloads, %d IO threads%n",
+				clients, rate, size, churn, type, ioThreads);
+
+		drive(server, swarm, pad, type, rate, churn, TimeUnit.SECONDS.toNanos(warmup), null);
+
+		swarm.setRecording(true);
+		long receivedBefore = swarm.getReceived();
+		ThreadUsage usageBefore = ThreadUsage.sample();
+		long start = System.nanoTime();
+		Counters counters = new Counters();
+		long catchUpsBefore = server.getStats().counter("client.catchUps").sum();
+		drive(server, swarm, pad, type, rate, churn, TimeUnit.SECONDS.toNanos(duration), counters);
+		long elapsed = System.nanoTime() - start;
+		counters.catchUps = server.getStats().counter("client.catchUps").sum() - catchUpsBefore;
+		ThreadUsage usage = ThreadUsage.sample().minus(usageBefore);
+		long received = swarm.getReceived() - receivedBefore;
+		swarm.setRecording(false);
+
+		// Give in-flight messages a moment before tearing down
+		Thread.sleep(200);
+		swarm.stop();
+		server.stop();
+
+		report(swarm.latencies(), counters, received, elapsed, usage, swarm);
+	}
+
+	/**
+	 * Broadcasts at a fixed rate for {@code durationNanos}, replacing clients at the
+	 * churn rate in between.
+	 */
+	private static void drive(RuneDeckSocketServer server, ClientSwarm swarm, String padding, PayloadType type,
+			int rate, int churn, long durationNanos, Counters counters) {
+		long interval = TimeUnit.SECONDS.toNanos(1) / rate;
+		long churnInterval = churn > 0 ? TimeUnit.SECONDS.toNanos(1) / churn : Long.MAX_VALUE;
+		long start = System.nanoTime();
+		long end = start + durationNanos;
+		long nextSend = start;
+		long nextChurn = start + churnInterval;
+
+		while (true) {
+			long now = System.nanoTime();
+			if (now >= end) {
+				return;
+			}
+
+			if (now >= nextChurn) {
+				swarm.churn();
+				nextChurn += churnInterval;
+			}
+
+			if (now >= nextSend) {
+				server.broadcast(new SyntheticPayload(type, System.nanoTime(), padding));
+				nextSend += interval;
+				if (counters != null) {
+					counters.sent++;
+				}
+				continue;
+			}
+
+			LockSupport.parkNanos(Math.min(nextSend, nextChurn) - now);
+		}
+	}
+
+	private static void report(long[] latencies, Counters counters, long received, long elapsedNanos,
+			ThreadUsage usage, ClientSwarm swarm) {
+		Arrays.sort(latencies);
+		double seconds = elapsedNanos / 1e9;
+
+		System.out.printf("sent            %d (%.0f msg/s)%n", counters.sent, counters.sent / seconds);
+		System.out.printf("delivered       %d (%.0f msg/s)%n", received, received / seconds);
+		System.out.printf("latency p50     %s%n", formatMicros(percentile(latencies, 0.50)));
+		System.out.printf("latency p99     %s%n", formatMicros(percentile(latencies, 0.99)));
+		System.out.printf("latency p999    %s%n", formatMicros(percentile(latencies, 0.999)));
+		System.out.printf("latency max     %s%n", formatMicros(latencies.length > 0 ? latencies[latencies.length - 1] : -1));
+		if (counters.sent > 0) {
+			System.out.printf("server cpu      %.1f us/msg (%.0f%% of one core)%n",
+					usage.cpuNanos / 1e3 / counters.sent, usage.cpuNanos * 100.0 / elapsedNanos);
+			System.out.printf("server alloc    %d B/msg%n", usage.allocatedBytes / counters.sent);
+		}
+		System.out.printf("connects        %d, disconnects %d%n", swarm.getConnects(), swarm.getDisconnects());
+		System.out.printf("catch-ups       %d%n", counters.catchUps);
+	}
+
+	private static long percentile(long[] sorted, double percentile) {
+		if (sorted.length == 0) {
+			return -1;
+		}
+		int index = (int) Math.ceil(percentile * sorted.length) - 1;
+		return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+	}
+
+	private static String formatMicros(long nanos) {
+		return nanos < 0 ? "n/a" : String.format("%.1f us", nanos / 1e3);
+	}
+
+	private static Map<String, String> parseOptions(String[] args) {
+		Map<String, String> options = new HashMap<>();
+		for (String arg : args) {
+			if (!arg.startsWith("--") || !arg.contains("=")) {
+				throw new IllegalArgumentException("Expected --name=value but got " + arg);
+			}
+			int equals = arg.indexOf('=');
+			options.put(arg.substring(2, equals), arg.substring(equals + 1));
+		}
+		return options;
+	}
+
+	private static int intOption(Map<String, String> options, String name, int defaultValue) {
+		String value = options.get(name);
+		return value == null ? defaultValue : Integer.parseInt(value);
+	}
+
+	private static int freePort() throws IOException {
+		try (ServerSocket socket = new ServerSocket(0)) {
+			return socket.getLocalPort();
+		}
+	}
+
+	private static final class Counters {
+		long sent;
+		long catchUps;
+	}
+
+	/**
+	 * CPU time and allocated bytes of the server's threads and the thread calling
+	 * broadcast. Threads that exit between two samples are not counted.
+	 */
+	private static final class ThreadUsage {
+		final long cpuNanos;
+		final long allocatedBytes;
+
+		ThreadUsage(long cpuNanos, long allocatedBytes) {
+			this.cpuNanos = cpuNanos;
+			this.allocatedBytes = allocatedBytes;
+		}
+
+		static ThreadUsage sample() {
+			com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+					.getThreadMXBean();
+			long cpu = 0;
+			long allocated = 0;
+			Thread current = Thread.currentThread();
+			for (Thread thread : Thread.getAllStackTraces().keySet()) {
+				if (thread != current && !thread.getName().startsWith(SERVER_THREAD_PREFIX)) {
+					continue;
+				}
+				long threadCpu = threads.getThreadCpuTime(thread.getId());
+				long threadAllocated = threads.getThreadAllocatedBytes(thread.getId());
+				cpu += Math.max(threadCpu, 0);
+				allocated += Math.max(threadAllocated, 0);
+			}
+			return new ThreadUsage(cpu, allocated);
+		}
+
+		ThreadUsage minus(ThreadUsage before) {
+			return new ThreadUsage(cpuNanos - before.cpuNanos, allocatedBytes - before.allocatedBytes);
+		}
+	}
+}
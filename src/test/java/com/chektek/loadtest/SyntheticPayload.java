@@ -0,0 +1,34 @@
+package com.chektek.loadtest;
+
+import com.chektek.payload.Payload;
+import com.chektek.payload.PayloadType;
+
+import net.runelite.api.Client;
+
+/**
+ * A payload carrying its send time, so clients in the same JVM can measure
+ * end-to-end latency, and padding to reach a target message size.
+ */
+public class SyntheticPayload extends Payload {
+	private long sentNanos;
+	private String padding;
+
+	public SyntheticPayload(PayloadType type, long sentNanos, String padding) {
+		super(type);
+		this.sentNanos = sentNanos;
+		this.padding = padding;
+	}
+
+	public long getSentNanos() {
+		return sentNanos;
+	}
+
+	public String getPadding() {
+		return padding;
+	}
+
+	@Override
+	public boolean isNewPayload(Client client) {
+		return true;
+	}
+}
@@ -0,0 +1,148 @@
+package com.chektek.metrics;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class HistogramTest {
+
+	private static final long MAX_VALUE = (1L << 40) - 1;
+
+	private final Histogram histogram = new Histogram();
+
+	@Test
+	public void keepsValuesBelow64Exact() {
+		for (long value = 0; value < 64; value++) {
+			Assert.assertEquals(value, bucketUpperBound(value));
+		}
+	}
+
+	@Test
+	public void splitsPowersOfTwoIntoBuckets() {
+		Assert.assertEquals(63, bucketUpperBound(63));
+		Assert.assertEquals(65, bucketUpperBound(64));
+		Assert.assertEquals(65, bucketUpperBound(65));
+		Assert.assertEquals(127, bucketUpperBound(126));
+		Assert.assertEquals(127, bucketUpperBound(127));
+		Assert.assertEquals(131, bucketUpperBound(128));
+		Assert.assertEquals(131, bucketUpperBound(131));
+		Assert.assertEquals(135, bucketUpperBound(132));
+		Assert.assertEquals(255, bucketUpperBound(255));
+		Assert.assertEquals(263, bucketUpperBound(256));
+	}
+
+	@Test
+	public void keepsRelativeErrorUnder32nd() {
+		for (long value = 64; value < 1L << 20; value += value / 7 + 1) {
+			long bound = bucketUpperBound(value);
+			Assert.assertTrue(value + " -> " + bound, bound >= value && bound - value <= value / 32);
+		}
+	}
+
+	@Test
+	public void clampsAt2To40() {
+		histogram.record(1L << 40);
+		histogram.record(Long.MAX_VALUE);
+
+		Histogram.Snapshot snapshot = histogram.snapshot();
+		Assert.assertEquals(2, snapshot.getCount());
+		Assert.assertEquals(MAX_VALUE, snapshot.getMax());
+		Assert.assertEquals(MAX_VALUE, snapshot.getValueAtPercentile(50));
+		Assert.assertEquals(MAX_VALUE, snapshot.getValueAtPercentile(100));
+		Assert.assertEquals(MAX_VALUE, snapshot.getMean(), 0);
+		Assert.assertEquals(MAX_VALUE, bucketUpperBound(MAX_VALUE));
+	}
+
+	@Test
+	public void clampsNegativeValuesToZero() {
+		histogram.record(-5);
+
+		Histogram.Snapshot snapshot = histogram.snapshot();
+		Assert.assertEquals(1, snapshot.getCount());
+		Assert.assertEquals(0, snapshot.getMax());
+		Assert.assertEquals(0, snapshot.getValueAtPercentile(100));
+	}
+
+	@Test
+	public void reportsPercentilesOfUniformValues() {
+		int n = 10_000;
+		for (int value = 1; value <= n; value++) {
+			histogram.record(value);
+		}
+
+		Histogram.Snapshot snapshot = histogram.snapshot();
+		Assert.assertEquals(n, snapshot.getCount());
+		Assert.assertEquals((n + 1) / 2.0, snapshot.getMean(), 1e-9);
+		Assert.assertEquals(n, snapshot.getMax());
+		for (double percentile : new double[] { 1, 25, 50, 90, 99, 99.9 }) {
+			long expected = (long) Math.ceil(percentile / 100 * n);
+			long reported = snapshot.getValueAtPercentile(percentile);
+			Assert.assertTrue(percentile + ": " + reported,
+					reported >= expected && reported - expected <= expected / 32);
+		}
+		Assert.assertEquals(n, snapshot.getValueAtPercentile(100));
+		Assert.assertEquals(1, snapshot.getValueAtPercentile(0));
+	}
+
+	@Test
+	public void reportsConstantValueAtEveryPercentile() {
+		for (int i = 0; i < 100; i++) {
+			histogram.record(1000);
+		}
+
+		Histogram.Snapshot snapshot = histogram.snapshot();
+		for (double percentile : new double[] { 0, 50, 99, 100 }) {
+			// Capped at the max rather than the bucket's upper bound
+			Assert.assertEquals(1000, snapshot.getValueAtPercentile(percentile));
+		}
+		Assert.assertEquals(1000, snapshot.getMean(), 0);
+	}
+
+	@Test
+	public void reportsTailOfBimodalValues() {
+		for (int i = 0; i < 990; i++) {
+			histogram.record(10);
+		}
+		for (int i = 0; i < 10; i++) {
+			histogram.record(5000);
+		}
+
+		Histogram.Snapshot snapshot = histogram.snapshot();
+		Assert.assertEquals(10, snapshot.getValueAtPercentile(50));
+		Assert.assertEquals(10, snapshot.getValueAtPercentile(99));
+		Assert.assertEquals(5000, snapshot.getValueAtPercentile(99.1));
+	}
+
+	@Test
+	public void snapshotsEmptyHistogram() {
+		Histogram.Snapshot snapshot = histogram.snapshot();
+
+		Assert.assertEquals(0, snapshot.getCount());
+		Assert.assertEquals(0, snapshot.getMean(), 0);
+		Assert.assertEquals(0, snapshot.getMax());
+		Assert.assertEquals(0, snapshot.getValueAtPercentile(50));
+		Assert.assertEquals(0, snapshot.getValueAtPercentile(100));
+	}
+
+	@Test
+	public void snapshotIgnoresLaterRecords() {
+		histogram.record(7);
+		Histogram.Snapshot snapshot = histogram.snapshot();
+
+		histogram.record(9);
+
+		Assert.assertEquals(1, snapshot.getCount());
+		Assert.assertEquals(7, snapshot.getMax());
+		Assert.assertEquals(2, histogram.snapshot().getCount());
+	}
+
+	/**
+	 * The value reported for {@code value}'s bucket: the median of a histogram
+	 * holding it and one larger value, which lifts the cap at the max.
+	 */
+	private static long bucketUpperBound(long value) {
+		Histogram histogram = new Histogram();
+		histogram.record(value);
+		histogram.record(Long.MAX_VALUE);
+		return histogram.snapshot().getValueAtPercentile(50);
+	}
+}
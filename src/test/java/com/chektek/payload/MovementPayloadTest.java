@@ -0,0 +1,155 @@
+package com.chektek.payload;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Proxy;
+
+import net.runelite.api.Client;
+import net.runelite.api.Player;
+import net.runelite.api.WorldView;
+import net.runelite.api.coords.LocalPoint;
+import net.runelite.api.coords.WorldPoint;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+public class MovementPayloadTest {
+
+	// Boxed once so the fakes answer without allocating
+	private Integer energy = 5000;
+	private Integer baseX = 3200;
+	private Integer baseY = 3200;
+	private Integer plane = 0;
+	private LocalPoint local = tile(50, 50);
+	private int worldLocations;
+
+	private final WorldView view = fake(WorldView.class);
+	private final Player player = fake(Player.class);
+	private final Client client = fake(Client.class);
+
+	@Test
+	public void readsWorldTileAndEnergy() {
+		MovementPayload payload = new MovementPayload(client);
+
+		Assert.assertEquals(50, payload.getEnergy());
+		Assert.assertEquals(3250, payload.getCoordinateX());
+		Assert.assertEquals(3250, payload.getCoordinateY());
+	}
+
+	@Test
+	public void steadyTickIsNotNew() {
+		MovementPayload payload = new MovementPayload(client);
+		worldLocations = 0;
+
+		Assert.assertFalse(payload.isNewPayload(client));
+		Assert.assertEquals(0, worldLocations);
+	}
+
+	@Test
+	public void subTileStepIsNotNew() {
+		MovementPayload payload = new MovementPayload(client);
+		worldLocations = 0;
+		local = new LocalPoint(local.getX() + 32, local.getY(), -1);
+
+		Assert.assertFalse(payload.isNewPayload(client));
+		Assert.assertEquals(0, worldLocations);
+	}
+
+	@Test
+	public void tileChangeIsNew() {
+		MovementPayload payload = new MovementPayload(client);
+		local = tile(51, 50);
+
+		Assert.assertTrue(payload.isNewPayload(client));
+	}
+
+	@Test
+	public void planeChangeChecksWorldTile() {
+		MovementPayload payload = new MovementPayload(client);
+		worldLocations = 0;
+		plane = 1;
+
+		Assert.assertFalse(payload.isNewPayload(client));
+		Assert.assertEquals(1, worldLocations);
+	}
+
+	@Test
+	public void energyChangeIsNew() {
+		MovementPayload payload = new MovementPayload(client);
+		energy = 4900;
+
+		Assert.assertTrue(payload.isNewPayload(client));
+	}
+
+	@Test
+	public void regionReloadOnSameTileIsNotNew() {
+		MovementPayload payload = new MovementPayload(client);
+		baseX += 8;
+		local = tile(42, 50);
+		worldLocations = 0;
+
+		Assert.assertFalse(payload.isNewPayload(client));
+		Assert.assertEquals(1, worldLocations);
+		// The new scene reads are kept, so the next tick is steady again
+		Assert.assertFalse(payload.isNewPayload(client));
+		Assert.assertEquals(1, worldLocations);
+	}
+
+	@Test
+	public void steadyTickAllocatesNothing() {
+		java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		Assume.assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+		com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+		Assume.assumeTrue(allocations.isThreadAllocatedMemorySupported());
+		allocations.setThreadAllocatedMemoryEnabled(true);
+		MovementPayload payload = new MovementPayload(client);
+		boolean changed = false;
+		for (int i = 0; i < 10_000; i++) {
+			changed |= payload.isNewPayload(client);
+		}
+
+		long thread = Thread.currentThread().getId();
+		long before = allocations.getThreadAllocatedBytes(thread);
+		for (int i = 0; i < 100_000; i++) {
+			changed |= payload.isNewPayload(client);
+		}
+		long allocated = allocations.getThreadAllocatedBytes(thread) - before;
+
+		Assert.assertFalse(changed);
+		// Less than a byte a tick: the fake hands back the same LocalPoint, so
+		// anything counted here was allocated by the check itself
+		Assert.assertTrue(allocated + " bytes", allocated < 100_000);
+	}
+
+	private LocalPoint tile(int sceneX, int sceneY) {
+		return new LocalPoint((sceneX << 7) + 64, (sceneY << 7) + 64, -1);
+	}
+
+	/**
+	 * A client, player or world view backed by this test's fields.
+	 */
+	private <T> T fake(Class<T> type) {
+		return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+			switch (method.getName()) {
+				case "getLocalPlayer":
+					return player;
+				case "getWorldView":
+					return view;
+				case "getEnergy":
+					return energy;
+				case "getLocalLocation":
+					return local;
+				case "getWorldLocation":
+					worldLocations++;
+					return new WorldPoint(baseX + local.getSceneX(), baseY + local.getSceneY(), plane);
+				case "getBaseX":
+					return baseX;
+				case "getBaseY":
+					return baseY;
+				case "getPlane":
+					return plane;
+				default:
+					return null;
+			}
+		}));
+	}
+}
@@ -0,0 +1,157 @@
+package com.chektek.shm;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.chektek.payload.FPSPayload;
+import com.chektek.payload.LogoutPayload;
+import com.chektek.payload.PayloadType;
+import com.google.gson.Gson;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SharedMemoryReaderTest {
+
+	private static final String FPS = "{\"fps\":0,\"type\":\"FPS\"}";
+	private static final String LOGOUT = "{\"type\":\"LOGOUT\"}";
+
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
+	private final Gson gson = new Gson();
+	private Path file;
+	private SharedMemoryPublisher publisher;
+	private SharedMemoryReader reader;
+	private final List<String> events = new ArrayList<>();
+
+	@Before
+	public void open() throws IOException {
+		file = folder.newFile("runedeck.shm").toPath();
+		publisher = new SharedMemoryPublisher(file, gson, 256, 4, 128);
+		reader = new SharedMemoryReader(file);
+	}
+
+	@After
+	public void close() throws IOException {
+		reader.close();
+		publisher.close();
+	}
+
+	@Test
+	public void readsLatestStateOfEachType() throws IOException {
+		Assert.assertNull(reader.readState(PayloadType.FPS));
+
+		publisher.publish(new FPSPayload());
+		publisher.publish(new LogoutPayload());
+
+		Assert.assertEquals(FPS, reader.readState(PayloadType.FPS));
+		Assert.assertNull(reader.readState(PayloadType.MOVEMENT));
+		// Events only go to the ring
+		Assert.assertNull(reader.readState(PayloadType.LOGOUT));
+	}
+
+	@Test
+	public void pollsEventsInOrder() throws IOException {
+		publisher.publish(new FPSPayload());
+		publisher.publish(new LogoutPayload());
+
+		Assert.assertEquals(2, reader.poll(this::record));
+		Assert.assertEquals(0, reader.poll(this::record));
+		Assert.assertEquals(List.of("0 FPS " + FPS, "1 LOGOUT " + LOGOUT), events);
+		Assert.assertEquals(0, reader.getMissedEvents());
+	}
+
+	@Test
+	public void startsAtEventsPublishedAfterOpening() throws IOException {
+		publisher.publish(new FPSPayload());
+		SharedMemoryReader late = new SharedMemoryReader(file);
+		try {
+			publisher.publish(new LogoutPayload());
+
+			Assert.assertEquals(1, late.poll(this::record));
+			Assert.assertEquals(List.of("1 LOGOUT " + LOGOUT), events);
+		} finally {
+			late.close();
+		}
+	}
+
+	@Test
+	public void countsEventsLostToRingWrap() throws IOException {
+		for (int i = 0; i < 10; i++) {
+			publisher.publish(new FPSPayload());
+		}
+
+		Assert.assertEquals(4, reader.poll(this::record));
+		Assert.assertEquals(6, reader.getMissedEvents());
+		Assert.assertEquals("6 FPS " + FPS, events.get(0));
+		Assert.assertEquals("9 FPS " + FPS, events.get(3));
+	}
+
+	@Test
+	public void remapsAfterPublisherRestarts() throws IOException {
+		publisher.publish(new FPSPayload());
+		reader.poll(this::record);
+		publisher.close();
+
+		// A larger layout, so the reader must map the file again to read it
+		publisher = new SharedMemoryPublisher(file, gson, 512, 8, 256);
+		Assert.assertNull(reader.readState(PayloadType.FPS));
+		publisher.publish(new LogoutPayload());
+		publisher.publish(new FPSPayload());
+
+		Assert.assertEquals(FPS, reader.readState(PayloadType.FPS));
+		events.clear();
+		Assert.assertEquals(2, reader.poll(this::record));
+		Assert.assertEquals(List.of("0 LOGOUT " + LOGOUT, "1 FPS " + FPS), events);
+	}
+
+	@Test
+	public void givesUpOnSlotLeftMidWrite() throws IOException {
+		publisher.publish(new FPSPayload());
+		int slot = Layout.HEADER_SIZE + PayloadType.FPS.ordinal() * 256;
+		writeLong(slot + Layout.SLOT_SEQ_OFFSET, 3);
+
+		Assert.assertNull(reader.readState(PayloadType.FPS));
+
+		// The restarted publisher is picked up by the next read
+		publisher.close();
+		publisher = new SharedMemoryPublisher(file, gson, 256, 4, 128);
+		publisher.publish(new FPSPayload());
+		Assert.assertEquals(FPS, reader.readState(PayloadType.FPS));
+	}
+
+	@Test
+	public void skipsRingEntryLeftMidWrite() throws IOException {
+		publisher.publish(new FPSPayload());
+		publisher.publish(new LogoutPayload());
+		int entry = Layout.ringOffset(PayloadType.values().length, 256);
+		writeLong(entry + Layout.ENTRY_SEQ_OFFSET, 3);
+
+		Assert.assertEquals(1, reader.poll(this::record));
+		Assert.assertEquals(List.of("1 LOGOUT " + LOGOUT), events);
+		Assert.assertEquals(1, reader.getMissedEvents());
+	}
+
+	private void record(long sequence, PayloadType type, String json) {
+		events.add(sequence + " " + type + " " + json);
+	}
+
+	/**
+	 * Writes a sequence the way a publisher that died mid-write would leave it.
+	 */
+	private void writeLong(int offset, long value) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+			buffer.order(Layout.ORDER).putLong(offset, value);
+		}
+	}
+}
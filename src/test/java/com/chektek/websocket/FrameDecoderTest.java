@@ -0,0 +1,236 @@
+package com.chektek.websocket;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class FrameDecoderTest {
+
+	private static final byte[] MASK = {0x37, (byte) 0xFA, 0x21, 0x3D};
+
+	@Test
+	public void decodesMaskedTextFrame() throws IOException {
+		FrameDecoder decoder = new FrameDecoder(1024);
+		byte[] frame = frame(true, FrameDecoder.OPCODE_TEXT, utf8("Hello"), MASK);
+
+		Assert.assertEquals(FrameDecoder.OPCODE_TEXT, decoder.decode(ByteBuffer.wrap(frame)));
+		Assert.assertEquals("Hello", result(decoder));
+	}
+
+	@Test
+	public void decodesExtendedLengths() throws IOException {
+		FrameDecoder decoder = new FrameDecoder(128 * 1024);
+		for (int length : new int[]{125, 126, 65535, 65536}) {
+			byte[] payload = new byte[length];
+			for (int i = 0; i < length; i++) {
+				payload[i] = (byte) i;
+			}
+			byte[] frame = frame(true, FrameDecoder.OPCODE_BINARY, payload, MASK);
+
+			Assert.assertEquals(FrameDecoder.OPCODE_BINARY, decoder.decode(ByteBuffer.wrap(frame)));
+			Assert.assertArrayEquals(payload, bytes(decoder));
+		}
+	}
+
+	@Test
+	public void decodesFramesSplitAtEveryByteBoundary() throws IOException {
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		stream.write(frame(false, FrameDecoder.OPCODE_TEXT, utf8("frag"), MASK));
+		stream.write(frame(true, FrameDecoder.OPCODE_PING, utf8("p"), MASK));
+		stream.write(frame(true, FrameDecoder.OPCODE_CONTINUATION, utf8("mented"), MASK));
+		stream.write(frame(true, FrameDecoder.OPCODE_TEXT, new byte[300], MASK));
+		byte[] input = stream.toByteArray();
+
+		for (int split = 1; split < input.length; split++) {
+			List<String> results = decodeAll(new FrameDecoder(1024), input, split);
+			Assert.assertEquals("split at " + split,
+					Arrays.asList("9:p", "1:fragmented", "1:" + new String(new byte[300], StandardCharsets.UTF_8)),
+					results);
+		}
+	}
+
+	@Test
+	public void decodesOneByteAtATime() throws IOException {
+		byte[] input = frame(true, FrameDecoder.OPCODE_TEXT, utf8("byte by byte"), MASK);
+		FrameDecoder decoder = new FrameDecoder(1024);
+
+		int opcode = FrameDecoder.NEED_MORE;
+		for (int i = 0; i < input.length; i++) {
+			opcode = decoder.decode(ByteBuffer.wrap(input, i, 1));
+			if (i < input.length - 1) {
+				Assert.assertEquals(FrameDecoder.NEED_MORE, opcode);
+			}
+		}
+		Assert.assertEquals(FrameDecoder.OPCODE_TEXT, opcode);
+		Assert.assertEquals("byte by byte", result(decoder));
+	}
+
+	@Test
+	public void unmasksWithMaskOffsetAcrossReads() throws IOException {
+		byte[] payload = utf8("0123456789");
+		byte[] frame = frame(true, FrameDecoder.OPCODE_TEXT, payload, MASK);
+		FrameDecoder decoder = new FrameDecoder(1024);
+
+		// Header plus three payload bytes, so the second read starts mid-mask
+		Assert.assertEquals(FrameDecoder.NEED_MORE, decoder.decode(ByteBuffer.wrap(frame, 0, 9)));
+		Assert.assertEquals(FrameDecoder.OPCODE_TEXT, decoder.decode(ByteBuffer.wrap(frame, 9, frame.length - 9)));
+		Assert.assertEquals("0123456789", result(decoder));
+	}
+
+	@Test(expected = IOException.class)
+	public void rejectsUnmaskedFrame() throws IOException {
+		new FrameDecoder(1024).decode(ByteBuffer.wrap(frame(true, FrameDecoder.OPCODE_TEXT, utf8("x"), null)));
+	}
+
+	@Test
+	public void deliversControlFramesBetweenFragments() throws IOException {
+		FrameDecoder decoder = new FrameDecoder(1024);
+
+		Assert.assertEquals(FrameDecoder.NEED_MORE,
+				decoder.decode(ByteBuffer.wrap(frame(false, FrameDecoder.OPCODE_TEXT, utf8("ab"), MASK))));
+		Assert.assertEquals(FrameDecoder.OPCODE_PING,
+				decoder.decode(ByteBuffer.wrap(frame(true, FrameDecoder.OPCODE_PING, utf8("ping"), MASK))));
+		Assert.assertEquals("ping", result(decoder));
+		Assert.assertEquals(FrameDecoder.OPCODE_PONG,
+				decoder.decode(ByteBuffer.wrap(frame(true, FrameDecoder.OPCODE_PONG, new byte[0], MASK))));
+		Assert.assertEquals(0, decoder.length());
+		Assert.assertEquals(FrameDecoder.NEED_MORE,
+				decoder.decode(ByteBuffer.wrap(frame(false, FrameDecoder.OPCODE_CONTINUATION, utf8("cd"), MASK))));
+		Assert.assertEquals(FrameDecoder.OPCODE_TEXT,
+				decoder.decode(ByteBuffer.wrap(frame(true, FrameDecoder.OPCODE_CONTINUATION, utf8("ef"), MASK))));
+		Assert.assertEquals("abcdef", result(decoder));
+	}
+
+	@Test(expected = IOException.class)
+	public void rejectsFragmentedControlFrame() throws IOException {
+		new FrameDecoder(1024).decode(ByteBuffer.wrap(frame(false, FrameDecoder.OPCODE_PING, utf8("x"), MASK)));
+	}
+
+	@Test(expected = IOException.class)
+	public void rejectsOversizedControlFrame() throws IOException {
+		new FrameDecoder(1024).decode(ByteBuffer.wrap(frame(true, FrameDecoder.OPCODE_PING, new byte[126], MASK)));
+	}
+
+	@Test(expected = IOException.class)
+	public void rejectsContinuationWithoutMessage() throws IOException {
+		new FrameDecoder(1024).decode(ByteBuffer.wrap(frame(true, FrameDecoder.OPCODE_CONTINUATION, utf8("x"), MASK)));
+	}
+
+	@Test(expected = IOException.class)
+	public void rejectsNewMessageDuringFragmentedMessage() throws IOException {
+		FrameDecoder decoder = new FrameDecoder(1024);
+		decoder.decode(ByteBuffer.wrap(frame(false, FrameDecoder.OPCODE_TEXT, utf8("a"), MASK)));
+		decoder.decode(ByteBuffer.wrap(frame(true, FrameDecoder.OPCODE_TEXT, utf8("b"), MASK)));
+	}
+
+	@Test
+	public void deliversCloseCodeAndReason() throws IOException {
+		FrameDecoder decoder = new FrameDecoder(1024);
+		byte[] reason = utf8("going away");
+		byte[] payload = new byte[2 + reason.length];
+		payload[0] = (byte) (1001 >> 8);
+		payload[1] = (byte) 1001;
+		System.arraycopy(reason, 0, payload, 2, reason.length);
+
+		Assert.assertEquals(FrameDecoder.OPCODE_CLOSE,
+				decoder.decode(ByteBuffer.wrap(frame(true, FrameDecoder.OPCODE_CLOSE, payload, MASK))));
+		byte[] decoded = bytes(decoder);
+		Assert.assertEquals(1001, ((decoded[0] & 0xFF) << 8) | (decoded[1] & 0xFF));
+		Assert.assertEquals("going away", new String(decoded, 2, decoded.length - 2, StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void deliversEmptyClose() throws IOException {
+		FrameDecoder decoder = new FrameDecoder(1024);
+
+		Assert.assertEquals(FrameDecoder.OPCODE_CLOSE,
+				decoder.decode(ByteBuffer.wrap(frame(true, FrameDecoder.OPCODE_CLOSE, new byte[0], MASK))));
+		Assert.assertEquals(0, decoder.length());
+	}
+
+	@Test(expected = IOException.class)
+	public void rejectsMessageOverLimit() throws IOException {
+		FrameDecoder decoder = new FrameDecoder(8);
+		decoder.decode(ByteBuffer.wrap(frame(false, FrameDecoder.OPCODE_TEXT, new byte[5], MASK)));
+		decoder.decode(ByteBuffer.wrap(frame(true, FrameDecoder.OPCODE_CONTINUATION, new byte[5], MASK)));
+	}
+
+	@Test
+	public void allowsRsv1OnlyWhenCompressionNegotiated() throws IOException {
+		byte[] frame = frame(true, FrameDecoder.OPCODE_TEXT, utf8("z"), MASK);
+		frame[0] |= 0x40;
+
+		FrameDecoder decoder = new FrameDecoder(1024);
+		decoder.setCompressionAllowed(true);
+		Assert.assertEquals(FrameDecoder.OPCODE_TEXT, decoder.decode(ByteBuffer.wrap(frame.clone())));
+		Assert.assertEquals(0x04, decoder.rsv());
+
+		try {
+			new FrameDecoder(1024).decode(ByteBuffer.wrap(frame.clone()));
+			Assert.fail("RSV1 accepted without permessage-deflate");
+		} catch (IOException expected) {
+			// expected
+		}
+	}
+
+	private static List<String> decodeAll(FrameDecoder decoder, byte[] input, int split) throws IOException {
+		List<String> results = new ArrayList<>();
+		collect(decoder, ByteBuffer.wrap(Arrays.copyOfRange(input, 0, split)), results);
+		collect(decoder, ByteBuffer.wrap(Arrays.copyOfRange(input, split, input.length)), results);
+		return results;
+	}
+
+	private static void collect(FrameDecoder decoder, ByteBuffer in, List<String> results) throws IOException {
+		while (in.hasRemaining()) {
+			int opcode = decoder.decode(in);
+			if (opcode != FrameDecoder.NEED_MORE) {
+				results.add(opcode + ":" + result(decoder));
+			}
+		}
+	}
+
+	private static String result(FrameDecoder decoder) {
+		return new String(decoder.array(), decoder.offset(), decoder.length(), StandardCharsets.UTF_8);
+	}
+
+	private static byte[] bytes(FrameDecoder decoder) {
+		return Arrays.copyOfRange(decoder.array(), decoder.offset(), decoder.offset() + decoder.length());
+	}
+
+	private static byte[] utf8(String text) {
+		return text.getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static byte[] frame(boolean fin, int opcode, byte[] payload, byte[] mask) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		out.write((fin ? 0x80 : 0) | opcode);
+		int maskBit = mask != null ? 0x80 : 0;
+		if (payload.length < 126) {
+			out.write(maskBit | payload.length);
+		} else if (payload.length <= 0xFFFF) {
+			out.write(maskBit | 126);
+			out.write(payload.length >> 8);
+			out.write(payload.length);
+		} else {
+			out.write(maskBit | 127);
+			for (int shift = 56; shift >= 0; shift -= 8) {
+				out.write((int) ((long) payload.length >> shift));
+			}
+		}
+		if (mask != null) {
+			out.write(mask, 0, 4);
+			for (int i = 0; i < payload.length; i++) {
+				out.write(payload[i] ^ mask[i & 3]);
+			}
+		} else {
+			out.write(payload, 0, payload.length);
+		}
+		return out.toByteArray();
+	}
+}
@@ -0,0 +1,131 @@
+package com.chektek.websocket;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class HandshakeParserTest {
+
+	private static final String REQUEST = "GET /chat HTTP/1.1\r\n"
+			+ "Host: localhost:8080\r\n"
+			+ "Upgrade: websocket\r\n"
+			+ "Connection: keep-alive, Upgrade\r\n"
+			+ "Sec-WebSocket-Key: dGhlIHNhbXBsZSBub25jZQ==\r\n"
+			+ "Sec-WebSocket-Version: 13\r\n"
+			+ "Sec-WebSocket-Protocol: runedeck.binary\r\n"
+			+ "Sec-WebSocket-Protocol: runedeck.json\r\n"
+			+ "Sec-WebSocket-Extensions: permessage-deflate\r\n"
+			+ "Origin: http://localhost\r\n"
+			+ "\r\n";
+
+	@Test
+	public void parsesCompleteRequest() throws Exception {
+		HandshakeParser parser = new HandshakeParser(8192);
+
+		Assert.assertTrue(parser.parse(buffer(REQUEST)));
+		Assert.assertEquals("dGhlIHNhbXBsZSBub25jZQ==", parser.getKey());
+		Assert.assertEquals("runedeck.binary, runedeck.json", parser.getProtocols());
+		Assert.assertEquals("permessage-deflate", parser.getExtensions());
+		Assert.assertEquals("http://localhost", parser.getOrigin());
+	}
+
+	@Test
+	public void parsesRequestSplitAtEveryByte() throws Exception {
+		byte[] request = REQUEST.getBytes(StandardCharsets.US_ASCII);
+		for (int split = 1; split < request.length; split++) {
+			HandshakeParser parser = new HandshakeParser(8192);
+
+			Assert.assertFalse("split at " + split, parser.parse(ByteBuffer.wrap(request, 0, split)));
+			Assert.assertTrue("split at " + split, parser.parse(ByteBuffer.wrap(request, split, request.length - split)));
+			Assert.assertEquals("dGhlIHNhbXBsZSBub25jZQ==", parser.getKey());
+		}
+	}
+
+	@Test
+	public void leavesBytesAfterRequestInBuffer() throws Exception {
+		ByteBuffer in = buffer(REQUEST + "frame");
+
+		Assert.assertTrue(new HandshakeParser(8192).parse(in));
+		Assert.assertEquals(5, in.remaining());
+	}
+
+	@Test
+	public void acceptsBareLineFeeds() throws Exception {
+		Assert.assertTrue(new HandshakeParser(8192).parse(buffer(REQUEST.replace("\r\n", "\n"))));
+	}
+
+	@Test
+	public void rejectsHeadersOverLimitBelowInitialCapacity() {
+		assertRejected(new HandshakeParser(128), REQUEST, 431);
+	}
+
+	@Test
+	public void rejectsHeadersOverLimitAfterGrowing() {
+		StringBuilder request = new StringBuilder("GET / HTTP/1.1\r\n");
+		for (int i = 0; i < 40; i++) {
+			request.append("X-Padding-").append(i).append(": ").append("0123456789012345678901234567890123456789")
+					.append("\r\n");
+		}
+		assertRejected(new HandshakeParser(2048), request.toString(), 431);
+	}
+
+	@Test
+	public void acceptsRequestExactlyAtLimit() throws Exception {
+		int size = REQUEST.getBytes(StandardCharsets.US_ASCII).length;
+
+		Assert.assertTrue(new HandshakeParser(size).parse(buffer(REQUEST)));
+		assertRejected(new HandshakeParser(size - 1), REQUEST, 431);
+	}
+
+	@Test
+	public void rejectsTooManyHeaders() {
+		StringBuilder request = new StringBuilder("GET / HTTP/1.1\r\n");
+		for (int i = 0; i < 65; i++) {
+			request.append("X-").append(i).append(": 1\r\n");
+		}
+		assertRejected(new HandshakeParser(8192), request.toString(), 431);
+	}
+
+	@Test
+	public void rejectsMalformedRequestLines() {
+		assertRejected(new HandshakeParser(8192), "POST / HTTP/1.1\r\n", 400);
+		assertRejected(new HandshakeParser(8192), "GET / HTTP/1.0\r\n", 400);
+		assertRejected(new HandshakeParser(8192), "get / HTTP/1.1\r\n", 400);
+		assertRejected(new HandshakeParser(8192), "GET\r\n", 400);
+		assertRejected(new HandshakeParser(8192), "\r\n", 400);
+	}
+
+	@Test
+	public void rejectsMalformedHeaderLine() {
+		assertRejected(new HandshakeParser(8192), "GET / HTTP/1.1\r\nHost localhost\r\n", 400);
+		assertRejected(new HandshakeParser(8192), "GET / HTTP/1.1\r\n: value\r\n", 400);
+	}
+
+	@Test
+	public void rejectsRepeatedKey() {
+		assertRejected(new HandshakeParser(8192),
+				REQUEST.replace("Origin:", "Sec-WebSocket-Key: dGhlIHNhbXBsZSBub25jZQ==\r\nOrigin:"), 400);
+	}
+
+	@Test
+	public void rejectsIncompleteUpgrade() {
+		assertRejected(new HandshakeParser(8192), REQUEST.replace("Host: localhost:8080\r\n", ""), 400);
+		assertRejected(new HandshakeParser(8192), REQUEST.replace("Upgrade: websocket\r\n", ""), 400);
+		assertRejected(new HandshakeParser(8192), REQUEST.replace("Version: 13", "Version: 8"), 426);
+		assertRejected(new HandshakeParser(8192), REQUEST.replace("dGhlIHNhbXBsZSBub25jZQ==", "short"), 400);
+	}
+
+	private static void assertRejected(HandshakeParser parser, String request, int status) {
+		try {
+			parser.parse(buffer(request));
+			Assert.fail("Accepted: " + request);
+		} catch (HandshakeParser.InvalidHandshakeException e) {
+			Assert.assertEquals(e.getMessage(), status, e.getStatus());
+		}
+	}
+
+	private static ByteBuffer buffer(String text) {
+		return ByteBuffer.wrap(text.getBytes(StandardCharsets.US_ASCII));
+	}
+}
@@ -0,0 +1,91 @@
+package com.chektek.websocket;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class OrderedDispatcherTest {
+
+	@Test
+	public void runsTasksInOrderPerMailbox() throws InterruptedException {
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(4, 4, 0, TimeUnit.SECONDS, new ArrayBlockingQueue<>(16));
+		OrderedDispatcher dispatcher = new OrderedDispatcher(executor, true);
+		OrderedDispatcher.Mailbox mailbox = new OrderedDispatcher.Mailbox();
+		List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+		CountDownLatch done = new CountDownLatch(200);
+
+		for (int i = 0; i < 200; i++) {
+			int value = i;
+			Assert.assertTrue(dispatcher.dispatch(mailbox, () -> {
+				order.add(value);
+				done.countDown();
+			}, 0));
+		}
+
+		Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+		for (int i = 0; i < 200; i++) {
+			Assert.assertEquals(Integer.valueOf(i), order.get(i));
+		}
+		dispatcher.shutdown();
+	}
+
+	@Test
+	public void dropsTaskWhenMailboxIsFull() throws InterruptedException {
+		CountDownLatch release = new CountDownLatch(1);
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS, new ArrayBlockingQueue<>(1));
+		OrderedDispatcher dispatcher = new OrderedDispatcher(executor, true);
+		OrderedDispatcher.Mailbox mailbox = new OrderedDispatcher.Mailbox();
+
+		Assert.assertTrue(dispatcher.dispatch(mailbox, () -> await(release), 2));
+		Assert.assertTrue(dispatcher.dispatch(mailbox, () -> { }, 2));
+		Assert.assertFalse(dispatcher.dispatch(mailbox, () -> { }, 2));
+		release.countDown();
+		dispatcher.shutdown();
+	}
+
+	@Test
+	public void neverRunsRejectedTaskOnCallingThread() throws InterruptedException {
+		CountDownLatch release = new CountDownLatch(1);
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS, new ArrayBlockingQueue<>(1),
+				new ThreadPoolExecutor.AbortPolicy());
+		OrderedDispatcher dispatcher = new OrderedDispatcher(executor, true);
+
+		// Occupy the only worker and the only queue slot
+		Assert.assertTrue(dispatcher.dispatch(new OrderedDispatcher.Mailbox(), () -> await(release), 0));
+		Assert.assertTrue(dispatcher.dispatch(new OrderedDispatcher.Mailbox(), () -> { }, 0));
+
+		Thread caller = Thread.currentThread();
+		List<Thread> ranOn = Collections.synchronizedList(new ArrayList<>());
+		OrderedDispatcher.Mailbox rejected = new OrderedDispatcher.Mailbox();
+		Assert.assertFalse(dispatcher.dispatch(rejected, () -> ranOn.add(Thread.currentThread()), 0));
+		Assert.assertEquals(0, rejected.size());
+
+		release.countDown();
+		executor.shutdown();
+		Assert.assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+		Assert.assertFalse(ranOn.contains(caller));
+		Assert.assertTrue(ranOn.isEmpty());
+
+		// The mailbox is usable again once the executor accepts work
+		ThreadPoolExecutor fresh = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS, new ArrayBlockingQueue<>(1));
+		OrderedDispatcher retry = new OrderedDispatcher(fresh, true);
+		CountDownLatch ran = new CountDownLatch(1);
+		Assert.assertTrue(retry.dispatch(rejected, ran::countDown, 0));
+		Assert.assertTrue(ran.await(5, TimeUnit.SECONDS));
+		retry.shutdown();
+	}
+
+	private static void await(CountDownLatch latch) {
+		try {
+			latch.await(5, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
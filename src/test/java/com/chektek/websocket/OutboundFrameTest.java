@@ -0,0 +1,55 @@
+package com.chektek.websocket;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class OutboundFrameTest {
+
+	private final BufferPool pool = new BufferPool();
+
+	@Test
+	public void measuresUtf8Length() {
+		for (String text : new String[] { "", "ascii", "caf\u00e9", "\u4e2d\u6587", "\ud83d\ude00",
+				"a\u00df\u20ac\ud83d\ude00z", "\u007f\u0080\u07ff\u0800\uffff" }) {
+			Assert.assertEquals(text, text.getBytes(StandardCharsets.UTF_8).length, OutboundFrame.utf8Length(text));
+		}
+	}
+
+	@Test
+	public void countsUnpairedSurrogatesAsReplacement() {
+		for (String text : new String[] { "\ud83d", "\ude00", "a\ud83dz", "\ude00\ud83d", "\ud83d\ud83d\ude00" }) {
+			Assert.assertEquals(text, text.getBytes(StandardCharsets.UTF_8).length, OutboundFrame.utf8Length(text));
+		}
+	}
+
+	@Test
+	public void encodesTextLikeString() {
+		String text = "quote\" \u00e9 \u4e2d\u6587 \ud83d\ude00 lone \ud83d end";
+
+		OutboundFrame frame = OutboundFrame.text(text, pool);
+		try {
+			Assert.assertArrayEquals(text.getBytes(StandardCharsets.UTF_8), OutboundFrames.payload(frame));
+			Assert.assertEquals(0x01, frame.opcode());
+		} finally {
+			frame.release();
+		}
+	}
+
+	@Test
+	public void sizesBufferToEncodedLength() {
+		StringBuilder text = new StringBuilder();
+		while (text.length() < 10 * 1024) {
+			text.append("{\"fps\":50}");
+		}
+
+		OutboundFrame frame = OutboundFrame.text(text.toString(), pool);
+		try {
+			Assert.assertEquals(text.length(), frame.payload().remaining());
+			Assert.assertEquals(16 * 1024, frame.payload().capacity());
+		} finally {
+			frame.release();
+		}
+	}
+}
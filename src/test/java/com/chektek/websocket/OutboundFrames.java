@@ -0,0 +1,23 @@
+package com.chektek.websocket;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Test access to the bytes of frames built outside this package.
+ */
+public final class OutboundFrames {
+
+	private OutboundFrames() {
+	}
+
+	public static int opcode(OutboundFrame frame) {
+		return frame.opcode();
+	}
+
+	public static byte[] payload(OutboundFrame frame) {
+		ByteBuffer payload = frame.payload();
+		byte[] bytes = new byte[payload.remaining()];
+		payload.get(bytes);
+		return bytes;
+	}
+}
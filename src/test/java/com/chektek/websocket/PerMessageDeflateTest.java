@@ -0,0 +1,102 @@
+package com.chektek.websocket;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PerMessageDeflateTest {
+
+	@Test
+	public void acceptsPlainOffer() {
+		PerMessageDeflate deflate = PerMessageDeflate.negotiate("permessage-deflate");
+
+		Assert.assertNotNull(deflate);
+		Assert.assertEquals("permessage-deflate", deflate.getResponseHeader());
+		Assert.assertFalse(deflate.isStateless());
+	}
+
+	@Test
+	public void returnsNullWithoutOffer() {
+		Assert.assertNull(PerMessageDeflate.negotiate(null));
+		Assert.assertNull(PerMessageDeflate.negotiate("x-webkit-deflate-frame"));
+	}
+
+	@Test
+	public void echoesContextTakeoverParameters() {
+		PerMessageDeflate deflate = PerMessageDeflate
+				.negotiate("permessage-deflate; server_no_context_takeover; client_no_context_takeover");
+
+		Assert.assertNotNull(deflate);
+		Assert.assertEquals("permessage-deflate; server_no_context_takeover; client_no_context_takeover",
+				deflate.getResponseHeader());
+		Assert.assertTrue(deflate.isStateless());
+	}
+
+	@Test
+	public void echoesOfferedServerMaxWindowBits() {
+		PerMessageDeflate deflate = PerMessageDeflate.negotiate("permessage-deflate; server_max_window_bits=15");
+
+		Assert.assertNotNull(deflate);
+		Assert.assertEquals("permessage-deflate; server_max_window_bits=15", deflate.getResponseHeader());
+
+		PerMessageDeflate quoted = PerMessageDeflate.negotiate("permessage-deflate; server_max_window_bits=\"15\"");
+		Assert.assertNotNull(quoted);
+		Assert.assertEquals("permessage-deflate; server_max_window_bits=15", quoted.getResponseHeader());
+	}
+
+	@Test
+	public void declinesSmallerServerWindow() {
+		Assert.assertNull(PerMessageDeflate.negotiate("permessage-deflate; server_max_window_bits=10"));
+		Assert.assertNull(PerMessageDeflate.negotiate("permessage-deflate; server_max_window_bits"));
+	}
+
+	@Test
+	public void acceptsClientMaxWindowBits() {
+		Assert.assertNotNull(PerMessageDeflate.negotiate("permessage-deflate; client_max_window_bits"));
+		Assert.assertNotNull(PerMessageDeflate.negotiate("permessage-deflate; client_max_window_bits=9"));
+		Assert.assertNull(PerMessageDeflate.negotiate("permessage-deflate; client_max_window_bits=16"));
+	}
+
+	@Test
+	public void declinesOfferWithRepeatedParameter() {
+		Assert.assertNull(PerMessageDeflate
+				.negotiate("permessage-deflate; server_no_context_takeover; server_no_context_takeover"));
+		Assert.assertNull(PerMessageDeflate
+				.negotiate("permessage-deflate; client_max_window_bits; client_max_window_bits=10"));
+		Assert.assertNull(PerMessageDeflate
+				.negotiate("permessage-deflate; server_max_window_bits=15; SERVER_MAX_WINDOW_BITS=15"));
+	}
+
+	@Test
+	public void fallsBackToLaterOffer() {
+		PerMessageDeflate deflate = PerMessageDeflate.negotiate(
+				"permessage-deflate; client_no_context_takeover; client_no_context_takeover, "
+						+ "permessage-deflate; server_no_context_takeover");
+
+		Assert.assertNotNull(deflate);
+		Assert.assertEquals("permessage-deflate; server_no_context_takeover", deflate.getResponseHeader());
+	}
+
+	@Test
+	public void declinesUnknownParameter() {
+		Assert.assertNull(PerMessageDeflate.negotiate("permessage-deflate; mystery"));
+	}
+
+	@Test
+	public void roundTripsCompressedMessage() throws IOException {
+		BufferPool pool = new BufferPool();
+		PerMessageDeflate deflate = PerMessageDeflate.negotiate("permessage-deflate");
+		String text = "{\"type\":\"SKILLS\",\"skills\":[1,1,1,1,1,1,1,1,1,1,1,1,1,1,1,1]}";
+
+		OutboundFrame compressed = deflate.compress(OutboundFrame.text(text, pool), pool);
+		ByteBuffer payload = compressed.payload();
+		byte[] data = new byte[payload.remaining()];
+		payload.get(data);
+		int size = deflate.decompress(data, 0, data.length, 1024);
+
+		Assert.assertEquals(text, new String(deflate.inflatedBuffer(), 0, size, StandardCharsets.UTF_8));
+		deflate.close();
+	}
+}